@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderNotFoundException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.sling.feature.Artifact;
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.Extension;
+import org.apache.sling.feature.ExtensionType;
+import org.apache.sling.feature.Feature;
+import org.apache.sling.feature.io.archive.ArchiveWriter;
+import org.apache.sling.feature.io.json.FeatureJSONReader;
+import org.apache.sling.feature.launcher.impl.artifacts.CacheFiles;
+import org.apache.sling.feature.launcher.impl.artifacts.CacheLocks;
+
+/**
+ * Extracts a feature archive into the cache directory.
+ * <p>
+ * Unlike the {@link org.apache.sling.feature.io.archive.ArchiveReader} which
+ * streams through the whole archive, the archive is opened as a zip file system.
+ * This allows to read the features from the archive first and then to extract the
+ * artifacts concurrently, largest first. Each artifact is transferred from the
+ * archive channel into a temporary file which is moved into place atomically,
+ * so an interrupted extraction never leaves a truncated file in the cache.
+ * Artifacts already in the cache with the expected size are not extracted again.
+ * <p>
+ * If artifacts are served in place, the archive is only read and validated.
+ */
+public final class ArchiveExtractor {
+
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+    private ArchiveExtractor() {
+        // no instances
+    }
+
+    /**
+     * Read the features from an archive and extract all files into the cache directory
+     * @param archive The archive
+     * @param cacheDir The cache directory
+     * @param threads The maximum number of concurrent extractions
+     * @return The features in the order of the archive manifest, or {@code null} if
+     *         zip file systems are not supported by the platform
+     * @throws IOException If the archive is invalid or extraction fails
+     */
+    public static List<Feature> extract(final Path archive, final Path cacheDir, final int threads) throws IOException {
+        return extract(archive, cacheDir, threads, name -> false);
+    }
+
+    /**
+     * Read the features from an archive and extract the files into the cache directory
+     * @param archive The archive
+     * @param cacheDir The cache directory
+     * @param threads The maximum number of concurrent extractions
+     * @param available Tests whether the artifact with the given maven path is already
+     *        available elsewhere, like in a blob store, and therefore not extracted
+     * @return The features in the order of the archive manifest, or {@code null} if
+     *         zip file systems are not supported by the platform
+     * @throws IOException If the archive is invalid or extraction fails
+     */
+    public static List<Feature> extract(
+            final Path archive, final Path cacheDir, final int threads, final Predicate<String> available)
+            throws IOException {
+        return process(archive, cacheDir, threads, available);
+    }
+
+    /**
+     * Read the features from an archive without extracting any files. The archive
+     * is validated in the same way as for an extraction.
+     * @param archive The archive
+     * @return The features in the order of the archive manifest, or {@code null} if
+     *         zip file systems are not supported by the platform
+     * @throws IOException If the archive is invalid
+     */
+    public static List<Feature> read(final Path archive) throws IOException {
+        return process(archive, null, 0, null);
+    }
+
+    private static List<Feature> process(
+            final Path archive, final Path cacheDir, final int threads, final Predicate<String> available)
+            throws IOException {
+        final FileSystem zip;
+        try {
+            zip = FileSystems.newFileSystem(archive, (ClassLoader) null);
+        } catch (final ProviderNotFoundException notSupported) {
+            return null;
+        }
+        try {
+            final String[] featureIds = getFeatureIds(zip.getPath(MANIFEST));
+
+            final List<Path> entries;
+            try (final Stream<Path> paths = Files.walk(zip.getPath("/"))) {
+                entries = paths.filter(Files::isRegularFile)
+                        .filter(p -> !getName(p).startsWith("META-INF/"))
+                        .collect(Collectors.toList());
+            }
+            final Set<ArtifactId> artifacts = new HashSet<>();
+            for (final Path entry : entries) {
+                try {
+                    artifacts.add(ArtifactId.fromMvnPath(getName(entry)));
+                } catch (final IllegalArgumentException iae) {
+                    throw new IOException("Invalid entry in feature archive: " + getName(entry), iae);
+                }
+            }
+
+            final List<Feature> features = new ArrayList<>();
+            for (final String featureId : featureIds) {
+                final String name = ArtifactId.parse(featureId).toMvnPath();
+                final Path entry = zip.getPath(name);
+                if (!Files.isRegularFile(entry)) {
+                    throw new IOException("Not a feature model archive - feature file is missing: " + name);
+                }
+                try (final Reader reader = Files.newBufferedReader(entry, StandardCharsets.UTF_8)) {
+                    features.add(FeatureJSONReader.read(reader, name));
+                }
+            }
+            checkArtifacts(features, artifacts);
+            if (cacheDir == null) {
+                return features;
+            }
+
+            // extract the largest entries first to balance the work across the threads
+            final Map<Path, Long> sizes = new HashMap<>();
+            for (final Path entry : entries) {
+                sizes.put(entry, Files.size(entry));
+            }
+            final List<Path> bySize = entries.stream()
+                    .filter(entry -> !available.test(getName(entry)))
+                    .collect(Collectors.toList());
+            bySize.sort(Comparator.comparing((Path p) -> sizes.get(p)).reversed());
+            final CacheLocks locks = CacheLocks.get(cacheDir.resolve(LauncherConfig.CACHE_METADATA_DIR));
+            ConcurrentTasks.map("launcher-extract", bySize, threads, entry -> extractEntry(entry, cacheDir, locks));
+
+            return features;
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static String getName(final Path entry) {
+        final String name = entry.toString();
+        return name.startsWith("/") ? name.substring(1) : name;
+    }
+
+    private static String[] getFeatureIds(final Path manifestPath) throws IOException {
+        if (!Files.isRegularFile(manifestPath)) {
+            throw new IOException("Not a feature model archive - manifest is missing.");
+        }
+        final Manifest manifest;
+        try (final InputStream in = Files.newInputStream(manifestPath)) {
+            manifest = new Manifest(in);
+        }
+        final String version = manifest.getMainAttributes().getValue(ArchiveWriter.VERSION_HEADER);
+        if (version == null) {
+            throw new IOException("Not a feature model archive - version manifest header is missing.");
+        }
+        try {
+            final int number = Integer.parseInt(version);
+            if (number < 1 || number > ArchiveWriter.ARCHIVE_VERSION) {
+                throw new IOException("Not a feature model archive - invalid manifest header value: " + version);
+            }
+        } catch (final NumberFormatException nfe) {
+            throw new IOException("Not a feature model archive - invalid manifest header value: " + version);
+        }
+        final String contents = manifest.getMainAttributes().getValue(ArchiveWriter.CONTENTS_HEADER);
+        if (contents == null) {
+            throw new IOException("Not a feature model archive - contents manifest header is missing.");
+        }
+        return contents.split(",");
+    }
+
+    private static void checkArtifacts(final List<Feature> features, final Set<ArtifactId> artifacts)
+            throws IOException {
+        for (final Feature feature : features) {
+            for (final Artifact a : feature.getBundles()) {
+                if (!artifacts.contains(a.getId())) {
+                    throw new IOException("Artifact " + a.getId().toMvnId() + " is missing in archive");
+                }
+            }
+            for (final Extension e : feature.getExtensions()) {
+                if (e.getType() == ExtensionType.ARTIFACTS) {
+                    for (final Artifact a : e.getArtifacts()) {
+                        if (!artifacts.contains(a.getId())) {
+                            throw new IOException("Artifact " + a.getId().toMvnId() + " is missing in archive");
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Extract a single entry
+     * @return {@code true} if the entry has been extracted, {@code false} if it was already in the cache
+     */
+    private static boolean extractEntry(final Path entry, final Path cacheDir, final CacheLocks locks)
+            throws IOException {
+        final String name = getName(entry);
+        final Path target =
+                cacheDir.resolve(name.replace('/', File.separatorChar)).normalize();
+        if (!target.startsWith(cacheDir.normalize())) {
+            throw new IOException("Invalid entry in feature archive: " + name);
+        }
+        final long size = Files.size(entry);
+        if (Files.isRegularFile(target) && Files.size(target) == size) {
+            return false;
+        }
+        // another process sharing the cache might be extracting the same entry
+        try (final CacheLocks.Lock lock = locks.lock(name)) {
+            if (Files.isRegularFile(target) && Files.size(target) == size) {
+                return false;
+            }
+            extractEntry(entry, target, name, size);
+        }
+        return true;
+    }
+
+    private static void extractEntry(final Path entry, final Path target, final String name, final long size)
+            throws IOException {
+        final Path tmp = CacheFiles.newTempFile(target);
+        try {
+            try (final ReadableByteChannel in = Files.newByteChannel(entry);
+                    final FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                long position = 0;
+                while (position < size) {
+                    final long count = out.transferFrom(in, position, size - position);
+                    if (count <= 0) {
+                        throw new IOException("Truncated entry in feature archive: " + name);
+                    }
+                    position += count;
+                }
+            }
+            CacheFiles.publish(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -19,24 +19,49 @@
 package org.apache.sling.feature.launcher.impl;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
+import org.apache.sling.feature.Artifact;
 import org.apache.sling.feature.ArtifactId;
 import org.apache.sling.feature.ExecutionEnvironmentExtension;
+import org.apache.sling.feature.Extension;
+import org.apache.sling.feature.ExtensionType;
 import org.apache.sling.feature.Feature;
-import org.apache.sling.feature.io.artifacts.ArtifactHandler;
 import org.apache.sling.feature.io.artifacts.ArtifactManager;
+import org.apache.sling.feature.io.json.FeatureJSONReader;
 import org.apache.sling.feature.io.json.FeatureJSONWriter;
+import org.apache.sling.feature.launcher.impl.artifacts.ArtifactResolver;
+import org.apache.sling.feature.launcher.impl.artifacts.ArtifactValidator;
+import org.apache.sling.feature.launcher.impl.artifacts.BlobStore;
+import org.apache.sling.feature.launcher.impl.artifacts.CacheFiles;
+import org.apache.sling.feature.launcher.impl.artifacts.CacheLocks;
+import org.apache.sling.feature.launcher.impl.artifacts.CacheManifest;
+import org.apache.sling.feature.launcher.impl.artifacts.CacheUsage;
+import org.apache.sling.feature.launcher.impl.artifacts.DownloadScheduler;
+import org.apache.sling.feature.launcher.impl.artifacts.HttpDownloader;
+import org.apache.sling.feature.launcher.impl.artifacts.RepositoryStatistics;
 import org.apache.sling.feature.launcher.spi.Launcher;
 import org.apache.sling.feature.launcher.spi.LauncherPrepareContext;
 import org.osgi.framework.FrameworkEvent;
@@ -54,6 +79,9 @@ public class Bootstrap {
 
     private final Logger logger;
 
+    /** Writing back the assembled application, completed before the framework starts. */
+    private volatile CompletableFuture<Void> applicationWrite = CompletableFuture.completedFuture(null);
+
     public Bootstrap(final LauncherConfig config, final Logger logger) {
         this.config = config;
         this.logger = logger;
@@ -76,43 +104,67 @@ public class Bootstrap {
     }
 
     private void prepare() {
-        this.config
-                .getVariables()
-                .put("sling.home", this.config.getHomeDirectory().getAbsolutePath());
-        if (this.config.getVariables().get("repository.home") == null) {
-            this.config
-                    .getVariables()
+        prepareApplication(this.config, this.logger);
+        prepareDownloader();
+    }
+
+    /**
+     * Install the downloader with the configured connections, retries and deadline
+     */
+    private void prepareDownloader() {
+        // keep as many idle connections per repository as there are concurrent downloads
+        final int connections = Math.min(this.config.getResolverThreads(), this.config.getRepositoryConnections());
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(connections));
+        }
+        if (this.config.getDownloader() == null) {
+            this.config.setDownloader(new HttpDownloader(
+                    new DownloadScheduler(
+                            this.config.getRepositoryConnections(),
+                            this.config.getDownloadRetries(),
+                            LauncherConfig.DEFAULT_DOWNLOAD_RETRY_DELAY,
+                            this.config.getDownloadDeadline() * 1000),
+                    this.config.getResolverThreads(),
+                    HttpDownloader.DEFAULT_TIMEOUT));
+        }
+    }
+
+    /**
+     * Set the variables and framework properties derived from the home directory
+     * @param config The configuration of the application
+     * @param logger The logger
+     */
+    private static void prepareApplication(final LauncherConfig config, final Logger logger) {
+        config.getVariables().put("sling.home", config.getHomeDirectory().getAbsolutePath());
+        if (config.getVariables().get("repository.home") == null) {
+            config.getVariables()
                     .put(
                             "repository.home",
-                            this.config.getHomeDirectory().getAbsolutePath() + File.separatorChar + "repository");
+                            config.getHomeDirectory().getAbsolutePath() + File.separatorChar + "repository");
         }
-        this.config
-                .getVariables()
-                .put("sling.launchpad", this.config.getHomeDirectory().getAbsolutePath() + "/launchpad");
+        config.getVariables().put("sling.launchpad", config.getHomeDirectory().getAbsolutePath() + "/launchpad");
 
-        final Installation installation = this.config.getInstallation();
-        installation.setLogger(this.logger);
+        final Installation installation = config.getInstallation();
+        installation.setLogger(logger);
 
         // set sling home, and use separate locations for launchpad and properties
         installation
                 .getFrameworkProperties()
-                .put("sling.home", this.config.getHomeDirectory().getAbsolutePath());
+                .put("sling.home", config.getHomeDirectory().getAbsolutePath());
         installation
                 .getFrameworkProperties()
-                .put("sling.launchpad", this.config.getHomeDirectory().getAbsolutePath() + "/launchpad");
+                .put("sling.launchpad", config.getHomeDirectory().getAbsolutePath() + "/launchpad");
         if (!installation.getFrameworkProperties().containsKey("repository.home")) {
             installation
                     .getFrameworkProperties()
                     .put(
                             "repository.home",
-                            this.config.getHomeDirectory().getAbsolutePath() + File.separatorChar + "repository");
+                            config.getHomeDirectory().getAbsolutePath() + File.separatorChar + "repository");
         }
         installation.getFrameworkProperties().put("sling.properties", "conf/sling.properties");
         installation
                 .getFrameworkProperties()
-                .put(
-                        "sling.feature",
-                        getApplicationFeatureFile(this.config).toURI().toString());
+                .put("sling.feature", getApplicationFeatureFile(config).toURI().toString());
     }
 
     public void run() {
@@ -130,8 +182,36 @@ public class Bootstrap {
         this.logger.info("---------------------------------");
 
         this.logger.info("Initializing...");
+
+        // the fingerprint covers the inputs as given, before the launcher adds its variables
+        String fingerprint = null;
+        if (this.config.getPrepareDirectory() != null || this.config.getPreparedDirectory() != null) {
+            fingerprint = this.computePreparedFingerprint();
+        }
+        if (this.config.getPrepareDirectory() != null && this.isPrepared(fingerprint)) {
+            return;
+        }
+        if (this.config.getPreparedDirectory() != null) {
+            this.usePreparedDirectory(fingerprint);
+        }
+
+        // the assembled application is reused as long as the inputs are unchanged,
+        // when only filling the cache all features are read to find the prototypes
+        final boolean prefetch = this.config.getCacheOnly() || this.config.getPrepareDirectory() != null;
+        String assemblyFingerprint = null;
+        if (!prefetch && !this.config.getFeatureFiles().isEmpty() && LaunchFingerprint.isReproducible(this.config)) {
+            assemblyFingerprint = this.config.getPreparedDirectory() == null && fingerprint != null
+                    ? fingerprint
+                    : LaunchFingerprint.compute(this.config);
+        }
+
         prepare();
 
+        if (this.config.isCacheReport() || this.config.isCacheCompact()) {
+            maintainCache();
+            return;
+        }
+
         Iterator<Launcher> iterator = ServiceLoader.load(Launcher.class).iterator();
         if (!iterator.hasNext()) {
             throw new IllegalStateException("Unable to find launcher service.");
@@ -139,7 +219,35 @@ public class Bootstrap {
 
         final Launcher launcher = iterator.next();
 
-        try (ArtifactManager artifactManager = ArtifactManager.getArtifactManager(this.config)) {
+        // a warm launch starts the framework from the snapshot of the prepared installation
+        final String snapshotKey =
+                assemblyFingerprint != null ? LaunchSnapshot.computeKey(assemblyFingerprint, this.config) : null;
+        if (snapshotKey != null && this.launchFromSnapshot(launcher, getLaunchSnapshotFile(this.config), snapshotKey)) {
+            this.logger.info("Launching from snapshot");
+            run(launcher);
+            return;
+        }
+
+        // on a restart the framework storage already holds the bundles and
+        // configurations, the snapshot must match the stored application and
+        // the framework properties and variables of this launch; it is written
+        // by every launch, so a restart after a launch with feature files is fast
+        final String restartKey = !prefetch ? LaunchSnapshot.computeRestartKey(this.config) : null;
+        if (restartKey != null && this.config.getFeatureFiles().isEmpty() && this.hasFrameworkStorage()) {
+            if (this.launchFromSnapshot(launcher, getRestartSnapshotFile(this.config), restartKey)) {
+                this.config.getInstallation().getInstallableArtifacts().clear();
+                this.config.getInstallation().getConfigurations().clear();
+                this.config.getInstallation().getBundleMap().clear();
+                this.logger.info("Restarting from existing framework storage");
+                run(launcher);
+                return;
+            }
+            this.logger.info(
+                    "No valid snapshot for {}, assembling application", getApplicationFeatureFile(this.config));
+        }
+
+        try (ArtifactManager artifactManager = ArtifactManager.getArtifactManager(this.config);
+                ArtifactResolver resolver = new ArtifactResolver(artifactManager, this.config)) {
 
             this.logger.info("Artifact Repositories: {}", Arrays.toString(this.config.getRepositoryUrls()));
             this.logger.info("Assembling final feature model...");
@@ -148,12 +256,104 @@ public class Bootstrap {
                 final boolean restart = this.config.getFeatureFiles().isEmpty();
 
                 Map<ArtifactId, Feature> loadedFeatures = new HashMap<>();
-                final Feature app = assemble(artifactManager, loadedFeatures);
+                final Feature app = assemble(resolver, loadedFeatures, assemblyFingerprint);
+
+                this.logger.info(
+                        "Missing artifact cache: {} hits, {} misses",
+                        resolver.getMissingArtifacts().getHits(),
+                        resolver.getMissingArtifacts().getMisses());
 
                 this.logger.info("");
                 this.logger.info("Assembling launcher...");
 
-                final LauncherPrepareContext ctx = new LauncherPrepareContext() {
+                final LauncherPrepareContext ctx = this.newPrepareContext(resolver);
+
+                // resolve the framework and all bundles concurrently upfront, when
+                // only filling the cache the complete closure of the application
+                final ArtifactId frameworkId = this.getFrameworkArtifactId(this.config, app);
+                final List<ArtifactId> launchArtifacts = new ArrayList<>();
+                launchArtifacts.add(frameworkId);
+                if (prefetch) {
+                    launchArtifacts.addAll(
+                            FeatureProcessor.getClosureIds(app, loadedFeatures, resolver.toFeatureProvider()));
+                } else {
+                    launchArtifacts.addAll(FeatureProcessor.getBundleIds(app));
+                }
+                checkOffline(resolver, launchArtifacts);
+                FeatureProcessor.resolveArtifacts(ctx, launchArtifacts, this.config.getResolverThreads());
+                final ArtifactValidator validator = new ArtifactValidator(resolver, this.config, this.logger);
+                validator.validate(launchArtifacts);
+
+                launcher.prepare(ctx, frameworkId, app);
+
+                FeatureProcessor.prepareLauncher(ctx, this.config, app, loadedFeatures);
+
+                evictCache(resolver);
+                persistCacheMetadata(resolver);
+
+                this.logStatistics(resolver, validator);
+
+                if (prefetch) {
+                    writeCacheManifest(resolver, launchArtifacts);
+                    if (this.config.getPrepareDirectory() != null) {
+                        this.awaitApplicationWrite();
+                        writePreparedDirectory(resolver, fingerprint, frameworkId, launchArtifacts);
+                    }
+                    this.logger.info("Finished downloading any requirements...exiting!");
+                    System.exit(0);
+                }
+
+                this.writeSnapshots(
+                        snapshotKey, restartKey, this.getSnapshotArtifacts(resolver, frameworkId, app), app);
+
+                if (restart) {
+                    this.config.getInstallation().getInstallableArtifacts().clear();
+                    this.config.getInstallation().getConfigurations().clear();
+                    this.config.getInstallation().getBundleMap().clear();
+                }
+            } catch (final Exception iae) {
+                persistCacheMetadata(resolver);
+                throw new IllegalStateException("Error while assembling launcher: " + getMessage(resolver, iae), iae);
+            }
+        } catch (IOException ex) {
+            throw new IOException("Unable to setup artifact manager: " + ex.getMessage(), ex);
+        }
+
+        run(launcher);
+    }
+
+    /**
+     * Prepare the launcher and the installation from the launch snapshot
+     * @return {@code false} if there is no valid snapshot for the key
+     */
+    boolean launchFromSnapshot(final Launcher launcher, final Path file, final String key) throws Exception {
+        // offline mode and digest validation check all artifacts on every launch
+        if (this.config.isOffline() || this.config.getCacheValidation() == ArtifactValidator.Level.DIGEST) {
+            return false;
+        }
+        final LaunchSnapshot snapshot = LaunchSnapshot.read(file, key);
+        if (snapshot == null) {
+            return false;
+        }
+        final File application = getApplicationFeatureFile(this.config);
+        final Feature app;
+        try (final Reader reader = Files.newBufferedReader(application.toPath(), StandardCharsets.UTF_8)) {
+            app = FeatureJSONReader.read(reader, application.toURI().toString());
+        }
+        // the runner reports the state of the bundles by their url
+        for (final Artifact bundle : app.getBundles()) {
+            final URL url = snapshot.getArtifacts().get(bundle.getId());
+            if (url == null) {
+                return false;
+            }
+            bundle.getMetadata().put(URL.class.getName(), url.toString());
+        }
+        final ArtifactId frameworkId = this.getFrameworkArtifactId(this.config, app);
+        if (!snapshot.getArtifacts().containsKey(frameworkId)) {
+            return false;
+        }
+        launcher.prepare(
+                new LauncherPrepareContext() {
                     @Override
                     public Logger getLogger() {
                         return logger;
@@ -161,52 +361,534 @@ public class Bootstrap {
 
                     @Override
                     public URL getArtifactFile(final ArtifactId artifact) throws IOException {
-                        final ArtifactHandler handler = artifactManager.getArtifactHandler(":" + artifact.toMvnPath());
-                        return handler.getLocalURL();
+                        final URL url = snapshot.getArtifacts().get(artifact);
+                        if (url == null) {
+                            throw new IOException("Artifact " + artifact.toMvnId() + " is not part of the snapshot.");
+                        }
+                        return url;
                     }
 
                     @Override
                     public void addAppJar(final URL jar) {
-                        config.getInstallation().addAppJar(jar);
+                        // the application jars are part of the snapshot
                     }
-                };
+                },
+                frameworkId,
+                app);
+        snapshot.apply(this.config.getInstallation());
+        this.logger.info("Using launch snapshot, {} files unchanged", snapshot.getFileCount());
+        return true;
+    }
 
-                launcher.prepare(ctx, this.getFrameworkArtifactId(app), app);
+    /**
+     * Check whether the framework has been started before with the configured storage
+     */
+    private boolean hasFrameworkStorage() {
+        final String storage =
+                this.config.getInstallation().getFrameworkProperties().get(STORAGE_PROPERTY);
+        final File directory =
+                storage != null ? new File(storage) : new File(this.config.getHomeDirectory(), "framework");
+        final String[] names = directory.list();
+        return names != null && names.length > 0;
+    }
 
-                FeatureProcessor.prepareLauncher(ctx, this.config, app, loadedFeatures);
+    /**
+     * Write the snapshot of the installation for launches with the same inputs
+     * and for restarts, each to its own file, once the assembled application
+     * they refer to has been written back
+     * @param key The key for launches with the same inputs or {@code null}
+     * @param restartKey The key for restarts
+     * @param artifacts The urls of the framework and the bundles
+     * @param app The application
+     * @throws IOException If writing the application failed
+     */
+    void writeSnapshots(
+            final String key, final String restartKey, final Map<ArtifactId, URL> artifacts, final Feature app)
+            throws IOException {
+        this.awaitApplicationWrite();
+        if (artifacts == null) {
+            return;
+        }
+        if (key != null) {
+            this.writeSnapshot(getLaunchSnapshotFile(this.config), key, artifacts, app);
+        }
+        this.writeSnapshot(getRestartSnapshotFile(this.config), restartKey, artifacts, app);
+    }
+
+    /**
+     * Get the urls of the framework and the bundles for the launch snapshot
+     * @return The urls or {@code null} if they can't be determined
+     */
+    private Map<ArtifactId, URL> getSnapshotArtifacts(
+            final ArtifactResolver resolver, final ArtifactId frameworkId, final Feature app) {
+        try {
+            final Map<ArtifactId, URL> artifacts = new LinkedHashMap<>();
+            artifacts.put(frameworkId, resolver.getArtifactFile(frameworkId));
+            for (final Artifact bundle : app.getBundles()) {
+                artifacts.put(bundle.getId(), new URL(bundle.getMetadata().get(URL.class.getName())));
+            }
+            return artifacts;
+        } catch (final IOException e) {
+            this.logger.warn("Unable to write launch snapshot: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeSnapshot(
+            final Path file, final String key, final Map<ArtifactId, URL> artifacts, final Feature app) {
+        try {
+            final LaunchSnapshot snapshot = hasSnapshotExtensionArtifacts(app)
+                    ? null
+                    : LaunchSnapshot.create(
+                            key, artifacts, this.config.getInstallation(), getApplicationFeatureFile(this.config));
+            if (snapshot != null) {
+                snapshot.write(file);
+            } else {
+                this.logger.debug("Installation can't be stored in a launch snapshot");
+                Files.deleteIfExists(file);
+            }
+        } catch (final IOException e) {
+            this.logger.warn("Unable to write launch snapshot {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Check whether the artifacts of an extension, which are installed from the
+     * snapshot, include a snapshot artifact
+     */
+    private static boolean hasSnapshotExtensionArtifacts(final Feature app) {
+        for (final Extension extension : app.getExtensions()) {
+            if (extension.getType() == ExtensionType.ARTIFACTS) {
+                for (final Artifact artifact : extension.getArtifacts()) {
+                    if (LaunchSnapshot.isSnapshot(artifact.getId())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    static Path getLaunchSnapshotFile(final LauncherConfig launcherConfig) {
+        return getApplicationFeatureFile(launcherConfig).toPath().resolveSibling(LaunchSnapshot.FILE_NAME);
+    }
+
+    static Path getRestartSnapshotFile(final LauncherConfig launcherConfig) {
+        return getApplicationFeatureFile(launcherConfig).toPath().resolveSibling(LaunchSnapshot.RESTART_FILE_NAME);
+    }
 
+    /**
+     * In offline mode, try to resolve all artifacts before failing, so the
+     * complete list of artifacts missing locally is reported at once
+     */
+    private void checkOffline(final ArtifactResolver resolver, final List<ArtifactId> ids) throws IOException {
+        if (!this.config.isOffline()) {
+            return;
+        }
+        ConcurrentTasks.map("launcher-offline", ids, this.config.getResolverThreads(), id -> {
+            try {
+                return resolver.getArtifactFile(id);
+            } catch (final IOException missing) {
+                return null;
+            }
+        });
+        final Set<String> missing = resolver.getOfflineMissing();
+        if (!missing.isEmpty()) {
+            throw new IOException(getOfflineMessage(missing));
+        }
+    }
+
+    private static String getMessage(final ArtifactResolver resolver, final Exception e) {
+        final Set<String> missing = resolver.getOfflineMissing();
+        return missing.isEmpty() ? e.getMessage() : getOfflineMessage(missing);
+    }
+
+    private static String getOfflineMessage(final Set<String> missing) {
+        return missing.size() + " artifacts are not available offline: " + String.join(", ", missing);
+    }
+
+    private void persistCacheMetadata(final ArtifactResolver resolver) {
+        try {
+            resolver.persist();
+        } catch (final IOException ioe) {
+            this.logger.warn("Unable to write artifact cache metadata: {}", ioe.getMessage());
+        }
+    }
+
+    /**
+     * Evict the least recently used artifacts not needed by the launch if the
+     * cache exceeds its maximum size
+     */
+    private void evictCache(final ArtifactResolver resolver) {
+        if (this.config.getCacheMaxSize() == 0) {
+            return;
+        }
+        try {
+            final List<CacheUsage.Item> evicted =
+                    resolver.getUsage().evict(this.config.getCacheMaxSize() * MEGABYTE, resolver.getLocks());
+            if (!evicted.isEmpty()) {
+                long size = 0;
+                for (final CacheUsage.Item item : evicted) {
+                    size += item.getSize();
+                }
+                this.logger.info("Evicted {} artifacts with {} bytes from the cache", evicted.size(), size);
+            }
+        } catch (final IOException ioe) {
+            this.logger.warn("Unable to evict artifacts from the cache: {}", ioe.getMessage());
+        }
+    }
+
+    /**
+     * Report and compact the cache directory
+     * @throws IOException If the cache can't be read
+     */
+    private void maintainCache() throws IOException {
+        final CacheUsage usage =
+                CacheUsage.load(this.config.getCacheDirectory(), this.config.getCacheMetadataDirectory());
+        if (this.config.isCacheCompact()) {
+            final int removed = usage.compact();
+            final List<CacheUsage.Item> evicted = this.config.getCacheMaxSize() > 0
+                    ? usage.evict(
+                            this.config.getCacheMaxSize() * MEGABYTE,
+                            CacheLocks.get(
+                                    this.config.getCacheMetadataDirectory().toPath()))
+                    : Collections.emptyList();
+            usage.save();
+            long size = 0;
+            for (final CacheUsage.Item item : evicted) {
+                size += item.getSize();
+            }
+            this.logger.info(
+                    "Compacted cache: removed {} temporary files and {} artifacts with {} bytes",
+                    removed,
+                    evicted.size(),
+                    size);
+        }
+        if (this.config.isCacheReport()) {
+            final List<CacheUsage.Item> items = usage.scan();
+            long size = 0;
+            long linkedSize = 0;
+            for (final CacheUsage.Item item : items) {
+                if (item.isLinked()) {
+                    linkedSize += item.getSize();
+                } else {
+                    size += item.getSize();
+                }
+            }
+            this.logger.info(
+                    "Cache Directory: {}", this.config.getCacheDirectory().getAbsolutePath());
+            this.logger.info(
+                    "{} artifacts with {} bytes, {} bytes linked, {} bytes metadata",
+                    items.size(),
+                    size,
+                    linkedSize,
+                    usage.getMetadataSize());
+            if (this.config.getBlobStoreDirectory() != null) {
+                final BlobStore blobs =
+                        BlobStore.load(this.config.getBlobStoreDirectory().toPath());
                 this.logger.info(
-                        "Using {} local artifacts, {} cached artifacts, and {} downloaded artifacts",
-                        this.config.getLocalArtifacts(),
-                        this.config.getCachedArtifacts(),
-                        this.config.getDownloadedArtifacts());
+                        "Blob store {}: {} bytes",
+                        this.config.getBlobStoreDirectory().getAbsolutePath(),
+                        blobs.getSize());
+            }
+            if (this.config.getCacheMaxSize() > 0) {
+                this.logger.info("Maximum size: {} bytes", this.config.getCacheMaxSize() * MEGABYTE);
+            }
+            if (!items.isEmpty()) {
+                this.logger.info("Least recently used artifacts:");
+                for (final CacheUsage.Item item : items.subList(0, Math.min(REPORT_SIZE, items.size()))) {
+                    this.logger.info(
+                            "  {} ({} bytes, last used {})",
+                            item.getPath(),
+                            item.getSize(),
+                            Instant.ofEpochMilli(item.getLastAccess()));
+                }
+            }
+        }
+    }
 
-                if (this.config.getCacheOnly()) {
-                    this.logger.info("Finished downloading any requirements...exiting!");
-                    System.exit(0);
+    public void runBatch(final List<LauncherConfig> applications) {
+        try {
+            runBatchWithException(applications);
+        } catch (Exception ex) {
+            this.logger.error("Error during batch", ex);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Fill the cache for several applications in a single pass. The applications
+     * are assembled concurrently, the union of their artifacts is resolved with
+     * each artifact fetched only once, and one manifest lists all of them.
+     * @param applications The configurations of the applications, sharing the cache of this configuration
+     * @throws Exception If anything goes wrong
+     */
+    public void runBatchWithException(final List<LauncherConfig> applications) throws Exception {
+        this.logger.info("");
+        this.logger.info("Apache Sling Application Launcher");
+        this.logger.info("---------------------------------");
+
+        this.logger.info("Initializing...");
+        prepare();
+
+        try (ArtifactManager artifactManager = ArtifactManager.getArtifactManager(this.config);
+                ArtifactResolver resolver = new ArtifactResolver(artifactManager, this.config)) {
+
+            this.logger.info("Artifact Repositories: {}", Arrays.toString(this.config.getRepositoryUrls()));
+            this.logger.info("Assembling {} applications...", applications.size());
+
+            try {
+                final List<Map.Entry<ArtifactId, List<ArtifactId>>> closures = ConcurrentTasks.map(
+                        "launcher-batch", applications, this.config.getResolverThreads(), application -> {
+                            prepareApplication(application, this.logger);
+                            final Map<ArtifactId, Feature> loadedFeatures = new HashMap<>();
+                            final Feature app = FeatureProcessor.createApplication(
+                                    this.logger, application, resolver, loadedFeatures);
+                            final List<ArtifactId> ids = new ArrayList<>();
+                            ids.add(this.getFrameworkArtifactId(application, app));
+                            ids.addAll(
+                                    FeatureProcessor.getClosureIds(app, loadedFeatures, resolver.toFeatureProvider()));
+                            return new AbstractMap.SimpleEntry<>(app.getId(), ids);
+                        });
+
+                final Set<ArtifactId> union = new LinkedHashSet<>();
+                int referenced = 0;
+                for (final Map.Entry<ArtifactId, List<ArtifactId>> closure : closures) {
+                    union.addAll(closure.getValue());
+                    referenced += closure.getValue().size();
                 }
+                final List<ArtifactId> launchArtifacts = new ArrayList<>(union);
+                checkOffline(resolver, launchArtifacts);
+                FeatureProcessor.resolveArtifacts(
+                        this.newPrepareContext(resolver), launchArtifacts, this.config.getResolverThreads());
+                final ArtifactValidator validator = new ArtifactValidator(resolver, this.config, this.logger);
+                validator.validate(launchArtifacts);
 
-                if (restart) {
-                    this.config.getInstallation().getInstallableArtifacts().clear();
-                    this.config.getInstallation().getConfigurations().clear();
-                    this.config.getInstallation().getBundleMap().clear();
+                evictCache(resolver);
+                persistCacheMetadata(resolver);
+
+                this.logStatistics(resolver, validator);
+                final List<CacheManifest.Item> items = writeCacheManifest(resolver, launchArtifacts);
+
+                final Map<ArtifactId, Long> sizes = new HashMap<>();
+                for (final CacheManifest.Item item : items) {
+                    sizes.put(item.getId(), item.getSize());
                 }
+                for (final Map.Entry<ArtifactId, List<ArtifactId>> closure : closures) {
+                    long size = 0;
+                    for (final ArtifactId id : closure.getValue()) {
+                        size += sizes.get(id);
+                    }
+                    this.logger.info(
+                            "Application {}: {} artifacts with {} bytes",
+                            closure.getKey().toMvnId(),
+                            closure.getValue().size(),
+                            size);
+                }
+                this.logger.info(
+                        "{} applications reference {} artifacts, {} distinct artifacts fetched once",
+                        applications.size(),
+                        referenced,
+                        union.size());
+                this.logger.info("Finished downloading any requirements...exiting!");
             } catch (final Exception iae) {
-                throw new IllegalStateException("Error while assembling launcher: " + iae.getMessage(), iae);
+                persistCacheMetadata(resolver);
+                throw new IllegalStateException(
+                        "Error while assembling applications: " + getMessage(resolver, iae), iae);
             }
         } catch (IOException ex) {
             throw new IOException("Unable to setup artifact manager: " + ex.getMessage(), ex);
         }
+    }
 
-        run(launcher);
+    /**
+     * Compute the fingerprint of a prepared directory. Feature files which might
+     * change under the same url are resolved, so their current contents are
+     * compared and not only their urls.
+     */
+    private String computePreparedFingerprint() throws IOException {
+        if (LaunchFingerprint.isReproducible(this.config)) {
+            return LaunchFingerprint.compute(this.config);
+        }
+        // the variables must not be set yet, but the feature files are downloaded as configured
+        prepareDownloader();
+        try (ArtifactManager artifactManager = ArtifactManager.getArtifactManager(this.config);
+                ArtifactResolver resolver = new ArtifactResolver(artifactManager, this.config)) {
+            final String fingerprint = LaunchFingerprint.compute(this.config, resolver);
+            persistCacheMetadata(resolver);
+            return fingerprint;
+        }
+    }
+
+    /**
+     * Check whether the directory to prepare is up to date, which is the case if
+     * it has been prepared from the same inputs and all its artifacts are unchanged
+     */
+    private boolean isPrepared(final String fingerprint) throws IOException {
+        final PreparedLaunch prepared = PreparedLaunch.read(this.config.getPrepareDirectory());
+        if (prepared != null && prepared.getFingerprint().equals(fingerprint) && prepared.verify() == null) {
+            this.logger.info("Prepared directory {} is up to date", this.config.getPrepareDirectory());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Launch the assembled application of a prepared directory, resolving
+     * artifacts only from the directory
+     */
+    private void usePreparedDirectory(final String fingerprint) throws IOException {
+        final File directory = this.config.getPreparedDirectory();
+        final PreparedLaunch prepared = PreparedLaunch.read(directory);
+        if (prepared == null) {
+            throw new IOException("No launch plan found in prepared directory " + directory);
+        }
+        final String problem = prepared.verify();
+        if (problem != null) {
+            throw new IOException("Prepared directory " + directory + " is incomplete: " + problem);
+        }
+        if (!this.config.getFeatureFiles().isEmpty()
+                && !prepared.getFingerprint().equals(fingerprint)) {
+            throw new IOException("Prepared directory " + directory
+                    + " is stale, the feature files or options changed since it has been prepared");
+        }
+        this.config.getFeatureFiles().clear();
+        this.config.addFeatureFiles(prepared.getApplicationFile().toURI().toString());
+        this.config.setRepositoryUrls(new String[] {prepared.getRepositoryUrl()});
+        this.config.setFrameworkArtifact(prepared.getFramework().toMvnId());
+        this.config.setOffline(true);
+        this.logger.info(
+                "Launching from prepared directory {} with {} artifacts",
+                directory,
+                prepared.getArtifacts().size());
+    }
+
+    private void writePreparedDirectory(
+            final ArtifactResolver resolver,
+            final String fingerprint,
+            final ArtifactId frameworkId,
+            final List<ArtifactId> ids)
+            throws IOException {
+        final Map<ArtifactId, URL> artifacts = new LinkedHashMap<>();
+        for (final ArtifactId id : ids) {
+            artifacts.put(id, resolver.getArtifactFile(id));
+        }
+        final PreparedLaunch prepared = PreparedLaunch.write(
+                this.config.getPrepareDirectory(),
+                fingerprint,
+                getApplicationFeatureFile(this.config),
+                frameworkId,
+                artifacts,
+                resolver.getLocalizer());
+        this.logger.info(
+                "Prepared directory {} with {} artifacts",
+                this.config.getPrepareDirectory(),
+                prepared.getArtifacts().size());
+    }
+
+    private List<CacheManifest.Item> writeCacheManifest(final ArtifactResolver resolver, final List<ArtifactId> ids)
+            throws IOException {
+        final Map<ArtifactId, URL> artifacts = new LinkedHashMap<>();
+        for (final ArtifactId id : ids) {
+            artifacts.put(id, resolver.getArtifactFile(id));
+        }
+        final List<CacheManifest.Item> items = CacheManifest.create(artifacts, this.config.getResolverThreads());
+        final File file = new File(this.config.getCacheMetadataDirectory(), CacheManifest.FILE_NAME);
+        CacheManifest.write(file.toPath(), items);
+        long size = 0;
+        for (final CacheManifest.Item item : items) {
+            size += item.getSize();
+        }
+        this.logger.info("Wrote manifest of {} artifacts with {} bytes to {}", items.size(), size, file);
+        return items;
+    }
+
+    private LauncherPrepareContext newPrepareContext(final ArtifactResolver resolver) {
+        return new LauncherPrepareContext() {
+            @Override
+            public Logger getLogger() {
+                return logger;
+            }
+
+            @Override
+            public URL getArtifactFile(final ArtifactId artifact) throws IOException {
+                return resolver.getArtifactFile(artifact);
+            }
+
+            @Override
+            public void addAppJar(final URL jar) {
+                try {
+                    // the class path requires a file, not an entry in an archive
+                    config.getInstallation().addAppJar(resolver.getLocalFile(jar));
+                } catch (final IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }
+        };
+    }
+
+    private void logStatistics(final ArtifactResolver resolver, final ArtifactValidator validator) {
+        this.logger.info(
+                "Using {} indexed artifacts, {} local artifacts, {} cached artifacts, and {} downloaded artifacts",
+                resolver.getIndex().getHits(),
+                this.config.getLocalArtifacts(),
+                this.config.getCachedArtifacts(),
+                this.config.getDownloadedArtifacts());
+        if (!resolver.getLocalizer().getCounts().isEmpty()) {
+            this.logger.info(
+                    "Localized artifacts from local repositories: {}",
+                    resolver.getLocalizer().getCounts());
+        }
+        if (resolver.getBlobs() != null) {
+            this.logger.info(
+                    "Blob store {}: {} hits, {} stored, {} deduplicated",
+                    resolver.getBlobs().getDirectory(),
+                    resolver.getBlobs().getHits(),
+                    resolver.getBlobs().getStored(),
+                    resolver.getBlobs().getDeduplicated());
+        }
+        if (validator.getQuarantined() > 0) {
+            this.logger.info(
+                    "Validated {} artifacts, {} invalid artifacts quarantined and fetched again",
+                    validator.getChecked(),
+                    validator.getQuarantined());
+        }
+        if (resolver.getInPlaceArtifacts() > 0) {
+            this.logger.info("Serving {} artifacts in place from archives", resolver.getInPlaceArtifacts());
+        }
+
+        if (this.logger.isDebugEnabled()) {
+            for (final String repository : this.config.getRepositoryUrls()) {
+                final RepositoryStatistics.Statistic stat =
+                        resolver.getStatistics().get(repository);
+                this.logger.debug(
+                        "Repository {}: {} lookups, {} found, {} ms average latency",
+                        repository,
+                        stat.getRequests(),
+                        stat.getSuccesses(),
+                        Math.round(stat.getLatency()));
+            }
+        }
+        for (final Map.Entry<String, DownloadScheduler.Statistic> entry :
+                this.config.getDownloader().getScheduler().getStatistics().entrySet()) {
+            final DownloadScheduler.Statistic stat = entry.getValue();
+            this.logger.info(
+                    "Transferred {} bytes from {} in {} requests taking {} ms ({} retries, {} failures)",
+                    stat.getBytes(),
+                    entry.getKey(),
+                    stat.getRequests(),
+                    stat.getTime(),
+                    stat.getRetries(),
+                    stat.getFailures());
+        }
     }
 
-    private ArtifactId getFrameworkArtifactId(final Feature app) {
-        if (this.config.getFrameworkArtifact() != null) {
-            return ArtifactId.parse(this.config.getFrameworkArtifact());
+    private ArtifactId getFrameworkArtifactId(final LauncherConfig config, final Feature app) {
+        if (config.getFrameworkArtifact() != null) {
+            return ArtifactId.parse(config.getFrameworkArtifact());
         }
-        if (this.config.getFrameworkVersion() != null) {
-            return getFelixFrameworkId(this.config.getFrameworkVersion());
+        if (config.getFrameworkVersion() != null) {
+            return getFelixFrameworkId(config.getFrameworkVersion());
         }
 
         final ExecutionEnvironmentExtension env = ExecutionEnvironmentExtension.getExecutionEnvironmentExtension(app);
@@ -216,7 +898,17 @@ public class Bootstrap {
         return getFelixFrameworkId(null);
     }
 
-    private Feature assemble(final ArtifactManager artifactManager, Map<ArtifactId, Feature> loadedFeatures)
+    /**
+     * Assemble the application, reusing the one written back by a previous
+     * launch if its fingerprint matches; a newly assembled application is
+     * written back asynchronously
+     * @param resolver The resolver
+     * @param loadedFeatures The map to fill with the loaded features
+     * @param fingerprint The fingerprint of the inputs or {@code null}
+     * @return The application
+     * @throws IOException If the application can't be assembled
+     */
+    Feature assemble(final ArtifactResolver resolver, Map<ArtifactId, Feature> loadedFeatures, final String fingerprint)
             throws IOException {
         if (this.config.getFeatureFiles().isEmpty()) {
             File application = getApplicationFeatureFile(this.config);
@@ -226,29 +918,101 @@ public class Bootstrap {
                 Main.printHelp();
                 throw new IllegalStateException("No feature(s) to launch found and none where specified");
             }
-            return FeatureProcessor.createApplication(this.logger, this.config, artifactManager, loadedFeatures);
+            return FeatureProcessor.createApplication(this.logger, this.config, resolver, loadedFeatures);
         } else {
-            final Feature app =
-                    FeatureProcessor.createApplication(this.logger, this.config, artifactManager, loadedFeatures);
-
-            // write application back
             final File file = getApplicationFeatureFile(this.config);
-            Files.createDirectories(file.getParentFile().toPath());
+            final Path fingerprintFile = getApplicationFingerprintFile(this.config);
+            if (fingerprint != null && file.isFile() && fingerprint.equals(readFingerprint(fingerprintFile))) {
+                this.logger.info("Reusing assembled application {}", file);
+                return FeatureProcessor.readApplication(this.logger, this.config, resolver, file, loadedFeatures);
+            }
+            final Feature app = FeatureProcessor.createApplication(this.logger, this.config, resolver, loadedFeatures);
+
+            // write application back while the artifacts are resolved, the
+            // launcher adds metadata to the application, so a copy is written
+            final Feature copy = app.copy();
+            this.applicationWrite = CompletableFuture.runAsync(
+                    () -> {
+                        try {
+                            writeApplication(file, copy, fingerprintFile, fingerprint);
+                        } catch (final IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    },
+                    runnable -> {
+                        final Thread thread = ConcurrentTasks.newThreadFactory("launcher-writer")
+                                .newThread(runnable);
+                        thread.start();
+                    });
+
+            return app;
+        }
+    }
+
+    private static void writeApplication(
+            final File file, final Feature app, final Path fingerprintFile, final String fingerprint)
+            throws IOException {
+        // the old fingerprint must not match the new application if writing fails
+        Files.deleteIfExists(fingerprintFile);
+        Files.createDirectories(file.getParentFile().toPath());
 
-            try (final FileWriter writer = new FileWriter(file)) {
+        // write to a temporary file first, other processes might read the file
+        final Path tmp = CacheFiles.newTempFile(file.toPath());
+        try {
+            try (final Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
                 FeatureJSONWriter.write(writer, app);
             }
+            CacheFiles.publish(tmp, file.toPath());
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        if (fingerprint != null) {
+            Files.write(fingerprintFile, fingerprint.getBytes(StandardCharsets.UTF_8));
+        }
+    }
 
-            return app;
+    private static String readFingerprint(final Path file) {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+        } catch (final IOException e) {
+            return null;
         }
     }
 
-    private static File getApplicationFeatureFile(final LauncherConfig launcherConfig) {
+    /**
+     * Wait until the assembled application has been written back
+     * @throws IOException If writing failed
+     */
+    void awaitApplicationWrite() throws IOException {
+        try {
+            this.applicationWrite.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw new IOException("Unable to write application: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static Path getApplicationFingerprintFile(final LauncherConfig launcherConfig) {
+        return new File(
+                        launcherConfig.getHomeDirectory(),
+                        "resources" + File.separatorChar + "provisioning" + File.separatorChar
+                                + "application.fingerprint")
+                .toPath();
+    }
+
+    static File getApplicationFeatureFile(final LauncherConfig launcherConfig) {
         return new File(
                 launcherConfig.getHomeDirectory(),
                 "resources" + File.separatorChar + "provisioning" + File.separatorChar + "application.json");
     }
 
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    /** The number of least recently used artifacts listed in the cache report. */
+    private static final int REPORT_SIZE = 10;
+
     private static final String STORAGE_PROPERTY = "org.osgi.framework.storage";
 
     private static final String START_LEVEL_PROP = "org.osgi.framework.startlevel.beginning";
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Helper for running a list of tasks with a bounded number of worker threads.
+ */
+public final class ConcurrentTasks {
+
+    /**
+     * A function which might throw an {@code IOException}
+     * @param <T> The input type
+     * @param <R> The result type
+     */
+    @FunctionalInterface
+    public interface Task<T, R> {
+        R apply(T input) throws IOException;
+    }
+
+    private ConcurrentTasks() {
+        // no instances
+    }
+
+    /**
+     * Create a thread factory for daemon worker threads
+     * @param name The prefix for the thread names
+     * @return The thread factory
+     */
+    public static ThreadFactory newThreadFactory(final String name) {
+        final AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            final Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Apply the task to all inputs using at most the given number of threads.
+     * The results are returned in the order of the inputs. If a task fails,
+     * the failure of the first input (in input order) is rethrown.
+     * @param name The name used for the worker threads
+     * @param inputs The inputs
+     * @param threads The maximum number of concurrent tasks
+     * @param task The task
+     * @return The list of results
+     * @throws IOException If a task fails
+     */
+    public static <T, R> List<R> map(final String name, final List<T> inputs, final int threads, final Task<T, R> task)
+            throws IOException {
+        final List<R> result = new ArrayList<>(inputs.size());
+        if (threads <= 1 || inputs.size() <= 1) {
+            for (final T input : inputs) {
+                result.add(task.apply(input));
+            }
+            return result;
+        }
+        final ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(threads, inputs.size()), newThreadFactory(name));
+        try {
+            final List<Future<R>> futures = new ArrayList<>(inputs.size());
+            for (final T input : inputs) {
+                futures.add(executor.submit(() -> task.apply(input)));
+            }
+            for (final Future<R> future : futures) {
+                result.add(get(future));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    /**
+     * Wait for a future and unwrap its failure
+     * @param future The future
+     * @return The result
+     * @throws IOException If the task failed with an {@code IOException} or
+     *                     any other checked exception, or if waiting is interrupted
+     */
+    public static <R> R get(final Future<R> future) throws IOException {
+        try {
+            return future.get();
+        } catch (final ExecutionException ee) {
+            final Throwable cause = ee.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for task");
+        }
+    }
+}
@@ -23,12 +23,23 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.Set;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.stream.StreamSupport;
@@ -38,10 +49,12 @@ import org.apache.sling.feature.ArtifactId;
 import org.apache.sling.feature.Configuration;
 import org.apache.sling.feature.Extension;
 import org.apache.sling.feature.ExtensionState;
+import org.apache.sling.feature.ExtensionType;
 import org.apache.sling.feature.Feature;
-import org.apache.sling.feature.builder.ArtifactProvider;
+import org.apache.sling.feature.Prototype;
 import org.apache.sling.feature.builder.BuilderContext;
 import org.apache.sling.feature.builder.FeatureBuilder;
+import org.apache.sling.feature.builder.FeatureProvider;
 import org.apache.sling.feature.builder.MergeHandler;
 import org.apache.sling.feature.builder.PostProcessHandler;
 import org.apache.sling.feature.io.IOUtils;
@@ -49,6 +62,10 @@ import org.apache.sling.feature.io.archive.ArchiveReader;
 import org.apache.sling.feature.io.artifacts.ArtifactHandler;
 import org.apache.sling.feature.io.artifacts.ArtifactManager;
 import org.apache.sling.feature.io.json.FeatureJSONReader;
+import org.apache.sling.feature.launcher.impl.artifacts.ArchiveIndex;
+import org.apache.sling.feature.launcher.impl.artifacts.ArtifactResolver;
+import org.apache.sling.feature.launcher.impl.artifacts.BlobStore;
+import org.apache.sling.feature.launcher.impl.artifacts.CacheFiles;
 import org.apache.sling.feature.launcher.spi.LauncherPrepareContext;
 import org.apache.sling.feature.launcher.spi.extensions.ExtensionHandler;
 import org.slf4j.Logger;
@@ -70,33 +87,26 @@ public class FeatureProcessor {
             final ArtifactManager artifactManager,
             final Map<ArtifactId, Feature> loadedFeatures)
             throws IOException {
-        final BuilderContext builderContext = new BuilderContext(id -> {
-            try {
-                final ArtifactHandler handler = artifactManager.getArtifactHandler(id.toMvnUrl());
-                try (final Reader r =
-                        new InputStreamReader(handler.getLocalURL().openStream(), "UTF-8")) {
-                    final Feature f = FeatureJSONReader.read(r, handler.getUrl());
-                    return f;
-                }
-            } catch (IOException e) {
-                // ignore
-                return null;
-            }
-        });
-        final ArtifactProvider provider = new ArtifactProvider() {
+        return createApplication(logger, config, new ArtifactResolver(artifactManager), loadedFeatures);
+    }
 
-            @Override
-            public URL provide(final ArtifactId id) {
-                try {
-                    final ArtifactHandler handler = artifactManager.getArtifactHandler(id.toMvnUrl());
-                    return handler.getLocalURL();
-                } catch (final IOException e) {
-                    // ignore
-                    return null;
-                }
-            }
-        };
-        builderContext.setArtifactProvider(provider);
+    /**
+     * Initialize the launcher
+     * Read the features and prepare the application
+     * @param config The current configuration
+     * @param resolver The artifact resolver
+     * @param loadedFeatures This map will be populated with features that were loaded as part of this process
+     * @return The merged feature representing the application
+     * @throws IOException when an IO exception occurs during application creation
+     */
+    public static Feature createApplication(
+            final Logger logger,
+            final LauncherConfig config,
+            final ArtifactResolver resolver,
+            final Map<ArtifactId, Feature> loadedFeatures)
+            throws IOException {
+        final BuilderContext builderContext = new BuilderContext(resolver.toFeatureProvider());
+        builderContext.setArtifactProvider(resolver);
 
         config.getArtifactClashOverrides().stream().forEach(id -> builderContext.addArtifactsOverride(id));
         builderContext.addConfigsOverrides(config.getConfigClashOverrides());
@@ -117,40 +127,22 @@ public class FeatureProcessor {
             builderContext.setHandlerConfiguration(entry.getKey(), entry.getValue());
         }
 
-        List<Feature> features = new ArrayList<>();
-        for (final String featureFile : config.getFeatureFiles()) {
-            for (final String initFile : IOUtils.getFeatureFiles(config.getHomeDirectory(), featureFile)) {
-                if (initFile.endsWith(IOUtils.EXTENSION_FEATURE_ARCHIVE)) {
-                    logger.debug("Reading feature archive {}", initFile);
-                    final ArtifactHandler featureArtifact = artifactManager.getArtifactHandler(initFile);
-                    try (final InputStream is = featureArtifact.getLocalURL().openStream()) {
-                        for (final Feature feature : ArchiveReader.read(is, (id, stream) -> {
-                            final File artifactFile = new File(
-                                    config.getCacheDirectory(), id.toMvnPath().replace('/', File.separatorChar));
-                            if (!artifactFile.exists()) {
-                                artifactFile.getParentFile().mkdirs();
-                                Files.copy(stream, artifactFile.toPath());
-                            }
-                        })) {
-
-                            features.add(feature);
-                            loadedFeatures.put(feature.getId(), feature);
-                        }
-                    } catch (final IOException ioe) {
-                        logger.info("Unable to read feature archive from " + initFile, ioe);
-                    }
-                } else {
-                    logger.debug("Reading feature file {}", initFile);
-                    final ArtifactHandler featureArtifact = artifactManager.getArtifactHandler(initFile);
-                    try (final Reader r =
-                            new InputStreamReader(featureArtifact.getLocalURL().openStream(), "UTF-8")) {
-                        final Feature f = FeatureJSONReader.read(r, featureArtifact.getUrl());
-                        loadedFeatures.put(f.getId(), f);
-                        features.add(f);
-                    } catch (Exception ex) {
-                        throw new IOException("Error reading feature: " + initFile, ex);
-                    }
-                }
+        final List<String> initFiles = getInitFiles(config);
+        if (config.isServeInPlace()) {
+            addJarArchives(logger, resolver, initFiles);
+        }
+
+        // read all feature files concurrently, the order of the features is kept
+        final List<List<Feature>> featuresPerFile = ConcurrentTasks.map(
+                "launcher-reader",
+                initFiles,
+                config.getResolverThreads(),
+                initFile -> readFeatures(logger, config, resolver, initFile));
+        final List<Feature> features = new ArrayList<>();
+        for (final List<Feature> list : featuresPerFile) {
+            for (final Feature f : list) {
+                features.add(f);
+                loadedFeatures.put(f.getId(), f);
             }
         }
 
@@ -163,6 +155,171 @@ public class FeatureProcessor {
         return app;
     }
 
+    /**
+     * Read an application assembled by a previous launch from the same inputs
+     * instead of assembling it again
+     * @param logger The logger
+     * @param config The current configuration
+     * @param resolver The artifact resolver
+     * @param application The file of the assembled application
+     * @param loadedFeatures This map will be populated with the application
+     * @return The application
+     * @throws IOException If the application can't be read
+     */
+    public static Feature readApplication(
+            final Logger logger,
+            final LauncherConfig config,
+            final ArtifactResolver resolver,
+            final File application,
+            final Map<ArtifactId, Feature> loadedFeatures)
+            throws IOException {
+        final List<String> initFiles = getInitFiles(config);
+        if (config.isServeInPlace()) {
+            addJarArchives(logger, resolver, initFiles);
+        }
+        // the artifacts of feature archives are only available from the archives,
+        // they are served in place or extracted into the cache as for an assembly
+        final List<String> archives = new ArrayList<>();
+        for (final String initFile : initFiles) {
+            if (initFile.endsWith(IOUtils.EXTENSION_FEATURE_ARCHIVE)) {
+                archives.add(initFile);
+            }
+        }
+        ConcurrentTasks.map(
+                "launcher-reader",
+                archives,
+                config.getResolverThreads(),
+                archive -> readFeatures(logger, config, resolver, archive));
+        final Feature app;
+        try (final Reader reader = Files.newBufferedReader(application.toPath(), StandardCharsets.UTF_8)) {
+            app = FeatureJSONReader.read(reader, application.toURI().toString());
+        }
+        loadedFeatures.put(app.getId(), app);
+        return app;
+    }
+
+    private static List<String> getInitFiles(final LauncherConfig config) throws IOException {
+        final List<String> initFiles = new ArrayList<>();
+        for (final String featureFile : config.getFeatureFiles()) {
+            initFiles.addAll(IOUtils.getFeatureFiles(config.getHomeDirectory(), featureFile));
+        }
+        return initFiles;
+    }
+
+    /**
+     * Serve artifacts in place from the jar files containing feature files passed
+     * as classloader resources, like an executable jar of the launcher. The
+     * artifacts are expected at their maven path relative to the root of the jar.
+     * @param logger The logger
+     * @param resolver The artifact resolver
+     * @param initFiles The feature files
+     */
+    private static void addJarArchives(
+            final Logger logger, final ArtifactResolver resolver, final List<String> initFiles) {
+        final Set<Path> jars = new LinkedHashSet<>();
+        for (final String initFile : initFiles) {
+            final int sep = initFile.indexOf("!/");
+            if (initFile.startsWith("jar:file:") && sep != -1) {
+                try {
+                    jars.add(Paths.get(new URL(initFile.substring(4, sep)).toURI()));
+                } catch (final IOException | URISyntaxException | IllegalArgumentException e) {
+                    logger.debug("Unable to serve artifacts in place from {}", initFile, e);
+                }
+            }
+        }
+        for (final Path jar : jars) {
+            try {
+                final ArchiveIndex archive = ArchiveIndex.open(jar, "");
+                resolver.addArchive(archive);
+                logger.debug("Serving artifacts in place from {} with {} entries", jar, archive.size());
+            } catch (final IOException ioe) {
+                logger.info("Unable to serve artifacts in place from " + jar, ioe);
+            }
+        }
+    }
+
+    /**
+     * Read the features from a feature file or a feature archive
+     * @param logger The logger
+     * @param config The current configuration
+     * @param resolver The artifact resolver
+     * @param initFile The feature file or feature archive
+     * @return The list of features, empty if a feature archive can't be read
+     * @throws IOException If the feature file can't be read
+     */
+    private static List<Feature> readFeatures(
+            final Logger logger, final LauncherConfig config, final ArtifactResolver resolver, final String initFile)
+            throws IOException {
+        final List<Feature> features = new ArrayList<>();
+        if (initFile.endsWith(IOUtils.EXTENSION_FEATURE_ARCHIVE)) {
+            logger.debug("Reading feature archive {}", initFile);
+            final ArtifactHandler featureArtifact = resolver.getArtifactHandler(initFile);
+            try {
+                final URL localURL = featureArtifact.getLocalURL();
+                final boolean local = "file".equals(localURL.getProtocol());
+                final List<Feature> extracted;
+                if (local && config.isServeInPlace()) {
+                    final Path archive = Paths.get(localURL.toURI());
+                    extracted = ArchiveExtractor.read(archive);
+                    if (extracted != null) {
+                        resolver.addArchive(ArchiveIndex.open(archive, ""));
+                    }
+                } else if (local) {
+                    final BlobStore blobs = resolver.getBlobs();
+                    extracted = ArchiveExtractor.extract(
+                            Paths.get(localURL.toURI()),
+                            config.getCacheDirectory().toPath(),
+                            config.getResolverThreads(),
+                            name -> blobs != null && blobs.contains(name));
+                } else {
+                    extracted = null;
+                }
+                if (extracted != null) {
+                    features.addAll(extracted);
+                } else {
+                    features.addAll(readArchive(config, localURL));
+                }
+            } catch (final IOException | URISyntaxException ioe) {
+                logger.info("Unable to read feature archive from " + initFile, ioe);
+            }
+        } else {
+            logger.debug("Reading feature file {}", initFile);
+            final ArtifactHandler featureArtifact = resolver.getArtifactHandler(initFile);
+            try (final Reader r =
+                    new InputStreamReader(featureArtifact.getLocalURL().openStream(), "UTF-8")) {
+                features.add(FeatureJSONReader.read(r, featureArtifact.getUrl()));
+            } catch (Exception ex) {
+                throw new IOException("Error reading feature: " + initFile, ex);
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Read a feature archive sequentially, extracting the artifacts into the cache directory
+     * @param config The current configuration
+     * @param archive The url of the archive
+     * @return The features
+     * @throws IOException If the archive can't be read
+     */
+    private static Set<Feature> readArchive(final LauncherConfig config, final URL archive) throws IOException {
+        try (final InputStream is = archive.openStream()) {
+            return ArchiveReader.read(is, (id, stream) -> {
+                final Path artifactFile =
+                        new File(config.getCacheDirectory(), id.toMvnPath().replace('/', File.separatorChar)).toPath();
+                if (!Files.exists(artifactFile)) {
+                    final Path tmp = CacheFiles.newTempFile(artifactFile);
+                    try {
+                        Files.copy(stream, tmp, StandardCopyOption.REPLACE_EXISTING);
+                        CacheFiles.publish(tmp, artifactFile);
+                    } finally {
+                        Files.deleteIfExists(tmp);
+                    }
+                }
+            });
+        }
+    }
+
     /**
      * Prepare the launcher
      * - add all bundles to the bundle map of the installation object
@@ -181,10 +338,11 @@ public class FeatureProcessor {
             final Feature app,
             Map<ArtifactId, Feature> loadedFeatures)
             throws Exception {
+        final Map<ArtifactId, URL> bundles = resolveArtifacts(ctx, getBundleIds(app), config.getResolverThreads());
         for (final Map.Entry<Integer, List<Artifact>> entry :
                 app.getBundles().getBundlesByStartOrder().entrySet()) {
             for (final Artifact a : entry.getValue()) {
-                final URL artifactFile = ctx.getArtifactFile(a.getId());
+                final URL artifactFile = bundles.get(a.getId());
 
                 // add URL to feature metadata
                 a.getMetadata().put(URL.class.getName(), artifactFile.toString());
@@ -229,4 +387,73 @@ public class FeatureProcessor {
             }
         }
     }
+
+    /**
+     * Get the ids of all bundles of the application in start order
+     * @param app The application
+     * @return The list of bundle ids
+     */
+    public static List<ArtifactId> getBundleIds(final Feature app) {
+        final List<ArtifactId> ids = new ArrayList<>();
+        for (final List<Artifact> bundles :
+                app.getBundles().getBundlesByStartOrder().values()) {
+            for (final Artifact a : bundles) {
+                ids.add(a.getId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Get the ids of all artifacts the application is built from: the bundles,
+     * the artifacts of artifacts extensions like content packages, and the
+     * features used as prototypes, including their prototypes.
+     * @param app The application
+     * @param loadedFeatures The features read to create the application
+     * @param provider The provider for the prototype features
+     * @return The list of artifact ids
+     */
+    public static List<ArtifactId> getClosureIds(
+            final Feature app, final Map<ArtifactId, Feature> loadedFeatures, final FeatureProvider provider) {
+        final Set<ArtifactId> ids = new LinkedHashSet<>(getBundleIds(app));
+        for (final Extension ext : app.getExtensions()) {
+            // transient extensions like the list of assembled features are not used at runtime
+            if (ext.getType() == ExtensionType.ARTIFACTS && ext.getState() != ExtensionState.TRANSIENT) {
+                for (final Artifact a : ext.getArtifacts()) {
+                    ids.add(a.getId());
+                }
+            }
+        }
+        final Deque<Feature> features = new ArrayDeque<>(loadedFeatures.values());
+        while (!features.isEmpty()) {
+            final Prototype prototype = features.pop().getPrototype();
+            if (prototype != null && ids.add(prototype.getId())) {
+                final Feature feature = provider.provide(prototype.getId());
+                if (feature != null) {
+                    features.push(feature);
+                }
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Resolve a set of artifacts using a bounded number of concurrent workers.
+     * The order of the returned map is the order of the provided ids.
+     * @param ctx The launcher prepare context
+     * @param ids The ids of the artifacts to resolve
+     * @param threads The maximum number of concurrent resolutions
+     * @return The map with the resolved artifact urls
+     * @throws IOException If an artifact can't be resolved
+     */
+    public static Map<ArtifactId, URL> resolveArtifacts(
+            final LauncherPrepareContext ctx, final Collection<ArtifactId> ids, final int threads) throws IOException {
+        final List<ArtifactId> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        final List<URL> urls = ConcurrentTasks.map("launcher-resolver", distinct, threads, ctx::getArtifactFile);
+        final Map<ArtifactId, URL> result = new LinkedHashMap<>();
+        for (int i = 0; i < distinct.size(); i++) {
+            result.put(distinct.get(i), urls.get(i));
+        }
+        return result;
+    }
 }
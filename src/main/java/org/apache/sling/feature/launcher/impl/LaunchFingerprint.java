@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.Feature;
+import org.apache.sling.feature.io.IOUtils;
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+import org.apache.sling.feature.io.json.FeatureJSONReader;
+import org.apache.sling.feature.launcher.impl.artifacts.ArtifactResolver;
+import org.apache.sling.feature.launcher.impl.artifacts.Checksums;
+
+/**
+ * Fingerprint of the inputs of an assembly: the contents of the feature files,
+ * the variables, overrides, extension configuration, framework settings and the
+ * version of the launcher. Two launches with the same fingerprint assemble the
+ * same application.
+ */
+public final class LaunchFingerprint {
+
+    private LaunchFingerprint() {
+        // no instances
+    }
+
+    /**
+     * Compute the fingerprint of a configuration. Local feature files are
+     * identified by their contents, all other feature files by their url.
+     * This must be called before the launcher adds its own variables.
+     * @param config The configuration
+     * @return The lower case hex SHA-256 fingerprint
+     * @throws IOException If a feature file can't be read
+     */
+    public static String compute(final LauncherConfig config) throws IOException {
+        return compute(config, null);
+    }
+
+    /**
+     * Compute the fingerprint of a configuration. With a resolver, feature files
+     * which are not local are resolved and identified by their current contents
+     * as well, so the fingerprint changes whenever one of them changes.
+     * This must be called before the launcher adds its own variables.
+     * @param config The configuration
+     * @param resolver The resolver for remote feature files or {@code null}
+     * @return The lower case hex SHA-256 fingerprint
+     * @throws IOException If a feature file can't be read or resolved
+     */
+    public static String compute(final LauncherConfig config, final ArtifactResolver resolver) throws IOException {
+        final MessageDigest digest = Checksums.newDigest("SHA-256");
+        update(digest, "launcher", getLauncherVersion());
+        for (final String featureFile : config.getFeatureFiles()) {
+            for (final String file : IOUtils.getFeatureFiles(config.getHomeDirectory(), featureFile)) {
+                update(digest, "feature", file);
+                String contents = getContentsDigest(file);
+                if (contents == null && resolver != null) {
+                    final ArtifactHandler handler = resolver.getArtifactHandler(file);
+                    try (final InputStream in = handler.getLocalURL().openStream()) {
+                        contents = Checksums.computeDigest(in);
+                    }
+                }
+                update(digest, "contents", contents);
+            }
+        }
+        update(
+                digest,
+                "id",
+                config.getLaunchFeatureId() != null
+                        ? config.getLaunchFeatureId().toMvnId()
+                        : null);
+        update(digest, "variables", config.getVariables());
+        for (final ArtifactId id : config.getArtifactClashOverrides()) {
+            update(digest, "artifact-clash", id.toMvnId());
+        }
+        update(digest, "config-clash", config.getConfigClashOverrides());
+        for (final Map.Entry<String, Map<String, String>> entry :
+                new TreeMap<>(config.getExtensionConfiguration()).entrySet()) {
+            update(digest, "extension", entry.getKey());
+            update(digest, "extension-configuration", entry.getValue());
+        }
+        update(digest, "framework-properties", config.getInstallation().getFrameworkProperties());
+        update(digest, "framework-version", config.getFrameworkVersion());
+        update(digest, "framework-artifact", config.getFrameworkArtifact());
+        return Checksums.toHex(digest.digest());
+    }
+
+    /**
+     * Check whether the fingerprint of a configuration identifies the assembled
+     * application. This is the case if all feature files are local files or
+     * released maven artifacts, the contents of other urls might change. The
+     * prototypes of local features must be released artifacts as well.
+     * @param config The configuration
+     * @return {@code true} if the fingerprint identifies the application
+     * @throws IOException If the feature files can't be listed
+     */
+    public static boolean isReproducible(final LauncherConfig config) throws IOException {
+        for (final String featureFile : config.getFeatureFiles()) {
+            for (final String file : IOUtils.getFeatureFiles(config.getHomeDirectory(), featureFile)) {
+                final boolean reproducible;
+                if (file.startsWith("file:")) {
+                    reproducible = !hasSnapshotPrototype(file);
+                } else if (file.startsWith("mvn:")) {
+                    reproducible = !file.contains("-SNAPSHOT");
+                } else {
+                    reproducible = !file.contains(":/") && new File(file).isFile() && !hasSnapshotPrototype(file);
+                }
+                if (!reproducible) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a feature of a local feature file or feature archive uses a
+     * snapshot as prototype. A file which can't be read fails the assembly, its
+     * fingerprint is never used.
+     */
+    private static boolean hasSnapshotPrototype(final String file) {
+        final List<Feature> features = new ArrayList<>();
+        try {
+            final URL url = file.startsWith("file:")
+                    ? new URL(file)
+                    : new File(file).toURI().toURL();
+            if (file.endsWith(IOUtils.EXTENSION_FEATURE_ARCHIVE)) {
+                final List<Feature> archived = ArchiveExtractor.read(Paths.get(url.toURI()));
+                if (archived == null) {
+                    return true;
+                }
+                features.addAll(archived);
+            } else {
+                try (final Reader reader = new InputStreamReader(url.openStream(), StandardCharsets.UTF_8)) {
+                    features.add(FeatureJSONReader.read(reader, file));
+                }
+            }
+        } catch (final IOException | URISyntaxException | IllegalArgumentException e) {
+            return false;
+        }
+        for (final Feature feature : features) {
+            if (feature.getPrototype() != null
+                    && feature.getPrototype().getId().getVersion().endsWith("-SNAPSHOT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getContentsDigest(final String file) throws IOException {
+        if (file.startsWith("file:")) {
+            try (final InputStream in = new URL(file).openStream()) {
+                return Checksums.computeDigest(in);
+            }
+        }
+        final File local = new File(file);
+        return local.isFile() ? Checksums.computeDigest(local.toPath()) : null;
+    }
+
+    /**
+     * Get the version of the launcher. Without a version in the manifest, the
+     * modification time of the launcher classes is used.
+     */
+    private static String getLauncherVersion() {
+        final String version = LaunchFingerprint.class.getPackage().getImplementationVersion();
+        if (version != null) {
+            return version;
+        }
+        final CodeSource source = LaunchFingerprint.class.getProtectionDomain().getCodeSource();
+        if (source != null && source.getLocation() != null) {
+            try {
+                final File location = Paths.get(source.getLocation().toURI()).toFile();
+                return location.getName() + ":" + location.length() + ":" + location.lastModified();
+            } catch (final URISyntaxException | IllegalArgumentException e) {
+                // ignore
+            }
+        }
+        return "unknown";
+    }
+
+    private static void update(final MessageDigest digest, final String key, final Map<String, String> values) {
+        for (final Map.Entry<String, String> entry : new TreeMap<>(values).entrySet()) {
+            update(digest, key, entry.getKey() + "=" + entry.getValue());
+        }
+    }
+
+    private static void update(final MessageDigest digest, final String key, final String value) {
+        if (value != null) {
+            digest.update(key.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(value.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        }
+    }
+}
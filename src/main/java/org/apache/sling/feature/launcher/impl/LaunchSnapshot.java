@@ -0,0 +1,619 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.launcher.impl.artifacts.CacheFiles;
+import org.apache.sling.feature.launcher.impl.artifacts.Checksums;
+
+/**
+ * Binary snapshot of a fully prepared {@link Installation}: the framework
+ * properties, the bundle map, the configurations, the installable artifacts
+ * and the application jars, together with the urls of the framework and the
+ * bundles. A launch with the same key starts the framework from the snapshot
+ * without assembling the application and resolving its artifacts.
+ * <p>
+ * The snapshot records size and modification time of every file it refers
+ * to and is only used as long as all of them are unchanged.
+ */
+public class LaunchSnapshot {
+
+    /** The name of the snapshot file. */
+    public static final String FILE_NAME = "launch.snapshot";
+
+    /** The name of the snapshot file for restarts. */
+    public static final String RESTART_FILE_NAME = "restart.snapshot";
+
+    private static final int MAGIC = 0x4c534e50;
+
+    private static final int VERSION = 1;
+
+    private static final byte STRING = 1;
+
+    private static final byte INTEGER = 2;
+
+    private static final byte LONG = 3;
+
+    private static final byte DOUBLE = 4;
+
+    private static final byte FLOAT = 5;
+
+    private static final byte BOOLEAN = 6;
+
+    private static final byte SHORT = 7;
+
+    private static final byte BYTE = 8;
+
+    private static final byte CHARACTER = 9;
+
+    private static final byte ARRAY = 10;
+
+    private static final byte LIST = 11;
+
+    private static final Map<String, Class<?>> COMPONENT_TYPES = new HashMap<>();
+
+    static {
+        for (final Class<?> type : new Class<?>[] {
+            String.class,
+            Integer.class,
+            Long.class,
+            Double.class,
+            Float.class,
+            Boolean.class,
+            Short.class,
+            Byte.class,
+            Character.class,
+            int.class,
+            long.class,
+            double.class,
+            float.class,
+            boolean.class,
+            short.class,
+            byte.class,
+            char.class
+        }) {
+            COMPONENT_TYPES.put(type.getName(), type);
+        }
+    }
+
+    private final String key;
+
+    private final Map<ArtifactId, URL> artifacts;
+
+    private final Map<String, String> frameworkProperties;
+
+    private final Map<Integer, List<URL>> bundles;
+
+    private final List<URL> installables;
+
+    private final List<URL> appJars;
+
+    private final List<Object[]> configurations;
+
+    private final Map<String, long[]> files;
+
+    private LaunchSnapshot(
+            final String key,
+            final Map<ArtifactId, URL> artifacts,
+            final Map<String, String> frameworkProperties,
+            final Map<Integer, List<URL>> bundles,
+            final List<URL> installables,
+            final List<URL> appJars,
+            final List<Object[]> configurations,
+            final Map<String, long[]> files) {
+        this.key = key;
+        this.artifacts = artifacts;
+        this.frameworkProperties = frameworkProperties;
+        this.bundles = bundles;
+        this.installables = installables;
+        this.appJars = appJars;
+        this.configurations = configurations;
+        this.files = files;
+    }
+
+    /**
+     * Compute the key of a snapshot. Besides the fingerprint of the assembly, it
+     * covers the settings the locations of the artifacts depend on.
+     * @param fingerprint The fingerprint of the assembly inputs
+     * @param config The configuration
+     * @return The lower case hex SHA-256 key
+     */
+    public static String computeKey(final String fingerprint, final LauncherConfig config) {
+        final MessageDigest digest = Checksums.newDigest("SHA-256");
+        final StringBuilder sb = new StringBuilder(fingerprint);
+        sb.append('\n').append(config.getHomeDirectory().getAbsolutePath());
+        sb.append('\n').append(config.getCacheDirectory().getAbsolutePath());
+        for (final String url : config.getRepositoryUrls()) {
+            sb.append('\n').append(url);
+        }
+        sb.append('\n').append(config.isLocalize()).append(config.isServeInPlace());
+        return Checksums.toHex(digest.digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Compute the key of a snapshot for a restart without feature files. Besides
+     * the settings covered by {@link #computeKey(String, LauncherConfig)}, it
+     * covers the framework properties and variables of the launch, so properties
+     * of an earlier launch are never restored.
+     * @param config The configuration
+     * @return The lower case hex SHA-256 key
+     */
+    public static String computeRestartKey(final LauncherConfig config) {
+        final StringBuilder sb = new StringBuilder("restart");
+        for (final Map.Entry<String, String> entry :
+                new TreeMap<>(config.getInstallation().getFrameworkProperties()).entrySet()) {
+            sb.append("\nframework-property\0")
+                    .append(entry.getKey())
+                    .append('=')
+                    .append(entry.getValue());
+        }
+        for (final Map.Entry<String, String> entry : new TreeMap<>(config.getVariables()).entrySet()) {
+            sb.append("\nvariable\0").append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return computeKey(sb.toString(), config);
+    }
+
+    /**
+     * Create a snapshot of an installation
+     * @param key The key of the snapshot
+     * @param artifacts The urls of the framework and the bundles
+     * @param installation The prepared installation
+     * @param application The file of the assembled application
+     * @return The snapshot or {@code null} if the installation refers to artifacts
+     *         which are not local files, if one of the artifacts is a snapshot,
+     *         or if it contains configuration values of other types than the
+     *         ones supported by the configuration admin
+     * @throws IOException If a file can't be accessed
+     */
+    public static LaunchSnapshot create(
+            final String key,
+            final Map<ArtifactId, URL> artifacts,
+            final Installation installation,
+            final File application)
+            throws IOException {
+        // a newer snapshot in a repository can't be detected from the local file,
+        // the update policy must be applied on every launch
+        for (final ArtifactId id : artifacts.keySet()) {
+            if (isSnapshot(id)) {
+                return null;
+            }
+        }
+        final Set<URL> urls = new LinkedHashSet<>(artifacts.values());
+        final Map<Integer, List<URL>> bundles = new LinkedHashMap<>();
+        for (final Map.Entry<Integer, List<URL>> entry :
+                installation.getBundleMap().entrySet()) {
+            bundles.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+            urls.addAll(entry.getValue());
+        }
+        urls.addAll(installation.getInstallableArtifacts());
+        urls.addAll(installation.getAppJars());
+        urls.add(application.toURI().toURL());
+
+        final Map<String, long[]> files = new LinkedHashMap<>();
+        for (final URL url : urls) {
+            final Path path = getFile(url);
+            if (path == null) {
+                return null;
+            }
+            files.put(path.toString(), getStamp(path));
+        }
+        for (final Map.Entry<String, String> entry :
+                installation.getFrameworkProperties().entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                return null;
+            }
+        }
+        final List<Object[]> configurations = new ArrayList<>();
+        for (final Object[] cfg : installation.getConfigurations()) {
+            @SuppressWarnings("unchecked")
+            final Dictionary<String, Object> properties = (Dictionary<String, Object>) cfg[2];
+            for (final Enumeration<String> e = properties.keys(); e.hasMoreElements(); ) {
+                if (!isSupported(properties.get(e.nextElement()))) {
+                    return null;
+                }
+            }
+            configurations.add(cfg);
+        }
+        return new LaunchSnapshot(
+                key,
+                new LinkedHashMap<>(artifacts),
+                new HashMap<>(installation.getFrameworkProperties()),
+                bundles,
+                new ArrayList<>(installation.getInstallableArtifacts()),
+                new ArrayList<>(installation.getAppJars()),
+                configurations,
+                files);
+    }
+
+    /**
+     * Check whether an artifact is a snapshot
+     * @param id The artifact id
+     * @return {@code true} for a snapshot version
+     */
+    public static boolean isSnapshot(final ArtifactId id) {
+        return id.getVersion().endsWith("-SNAPSHOT");
+    }
+
+    /**
+     * Read a snapshot
+     * @param file The snapshot file
+     * @param key The expected key
+     * @return The snapshot or {@code null} if there is no snapshot, it has been
+     *         created for a different key or one of its files changed
+     */
+    public static LaunchSnapshot read(final Path file, final String key) {
+        final byte[] contents;
+        try {
+            contents = Files.readAllBytes(file);
+        } catch (final IOException e) {
+            return null;
+        }
+        try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            final String snapshotKey = readString(in);
+            if (!key.equals(snapshotKey)) {
+                return null;
+            }
+            final Map<String, long[]> files = new LinkedHashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                final String path = readString(in);
+                final long[] stamp = new long[] {in.readLong(), in.readLong()};
+                final long[] current;
+                try {
+                    current = getStamp(Paths.get(path));
+                } catch (final IOException e) {
+                    return null;
+                }
+                if (current[0] != stamp[0] || current[1] != stamp[1]) {
+                    return null;
+                }
+                files.put(path, stamp);
+            }
+            final Map<ArtifactId, URL> artifacts = new LinkedHashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                artifacts.put(ArtifactId.parse(readString(in)), new URL(readString(in)));
+            }
+            final Map<String, String> frameworkProperties = new HashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                frameworkProperties.put(readString(in), readString(in));
+            }
+            final Map<Integer, List<URL>> bundles = new LinkedHashMap<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                bundles.put(in.readInt(), readUrls(in));
+            }
+            final List<URL> installables = readUrls(in);
+            final List<URL> appJars = readUrls(in);
+            final List<Object[]> configurations = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                final String pid = readString(in);
+                final String factoryPid = in.readBoolean() ? readString(in) : null;
+                final Dictionary<String, Object> properties = new Hashtable<>();
+                for (int j = in.readInt(); j > 0; j--) {
+                    properties.put(readString(in), readValue(in));
+                }
+                configurations.add(new Object[] {pid, factoryPid, properties});
+            }
+            return new LaunchSnapshot(
+                    snapshotKey, artifacts, frameworkProperties, bundles, installables, appJars, configurations, files);
+        } catch (final IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Write the snapshot
+     * @param file The snapshot file
+     * @throws IOException If writing fails
+     */
+    public void write(final Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        final Path tmp = CacheFiles.newTempFile(file);
+        try {
+            try (final DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, this.key);
+                out.writeInt(this.files.size());
+                for (final Map.Entry<String, long[]> entry : this.files.entrySet()) {
+                    writeString(out, entry.getKey());
+                    out.writeLong(entry.getValue()[0]);
+                    out.writeLong(entry.getValue()[1]);
+                }
+                out.writeInt(this.artifacts.size());
+                for (final Map.Entry<ArtifactId, URL> entry : this.artifacts.entrySet()) {
+                    writeString(out, entry.getKey().toMvnId());
+                    writeString(out, entry.getValue().toString());
+                }
+                out.writeInt(this.frameworkProperties.size());
+                for (final Map.Entry<String, String> entry : this.frameworkProperties.entrySet()) {
+                    writeString(out, entry.getKey());
+                    writeString(out, entry.getValue());
+                }
+                out.writeInt(this.bundles.size());
+                for (final Map.Entry<Integer, List<URL>> entry : this.bundles.entrySet()) {
+                    out.writeInt(entry.getKey());
+                    writeUrls(out, entry.getValue());
+                }
+                writeUrls(out, this.installables);
+                writeUrls(out, this.appJars);
+                out.writeInt(this.configurations.size());
+                for (final Object[] cfg : this.configurations) {
+                    writeString(out, (String) cfg[0]);
+                    out.writeBoolean(cfg[1] != null);
+                    if (cfg[1] != null) {
+                        writeString(out, (String) cfg[1]);
+                    }
+                    @SuppressWarnings("unchecked")
+                    final Dictionary<String, Object> properties = (Dictionary<String, Object>) cfg[2];
+                    out.writeInt(properties.size());
+                    for (final Enumeration<String> e = properties.keys(); e.hasMoreElements(); ) {
+                        final String name = e.nextElement();
+                        writeString(out, name);
+                        writeValue(out, properties.get(name));
+                    }
+                }
+            }
+            CacheFiles.publish(tmp, file);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Fill an installation from the snapshot. Framework properties already set
+     * in the installation are kept.
+     * @param installation The installation
+     */
+    public void apply(final Installation installation) {
+        for (final Map.Entry<String, String> entry : this.frameworkProperties.entrySet()) {
+            installation.getFrameworkProperties().putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        for (final Map.Entry<Integer, List<URL>> entry : this.bundles.entrySet()) {
+            for (final URL url : entry.getValue()) {
+                installation.addBundle(entry.getKey(), url);
+            }
+        }
+        for (final URL url : this.installables) {
+            installation.addInstallableArtifact(url);
+        }
+        for (final URL url : this.appJars) {
+            installation.addAppJar(url);
+        }
+        installation.getConfigurations().addAll(this.configurations);
+    }
+
+    /**
+     * Get the urls of the framework and the bundles
+     * @return The urls by artifact id
+     */
+    public Map<ArtifactId, URL> getArtifacts() {
+        return this.artifacts;
+    }
+
+    /**
+     * Get the number of files the snapshot refers to
+     * @return The number of files
+     */
+    public int getFileCount() {
+        return this.files.size();
+    }
+
+    private static Path getFile(final URL url) {
+        String value = url.toString();
+        if (value.startsWith("jar:")) {
+            final int sep = value.indexOf("!/");
+            if (sep == -1) {
+                return null;
+            }
+            value = value.substring(4, sep);
+        }
+        if (!value.startsWith("file:")) {
+            return null;
+        }
+        try {
+            return Paths.get(new URL(value).toURI());
+        } catch (final IOException | URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static long[] getStamp(final Path path) throws IOException {
+        final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        if (!attrs.isRegularFile()) {
+            throw new NoSuchFileException(path.toString());
+        }
+        return new long[] {attrs.size(), attrs.lastModifiedTime().toMillis()};
+    }
+
+    private static boolean isSupported(final Object value) {
+        if (value == null) {
+            return false;
+        }
+        if (value.getClass().isArray()) {
+            if (!COMPONENT_TYPES.containsKey(value.getClass().getComponentType().getName())) {
+                return false;
+            }
+            for (int i = 0; i < Array.getLength(value); i++) {
+                if (!isSupported(Array.get(value, i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (value instanceof Collection) {
+            for (final Object element : (Collection<?>) value) {
+                if (!isSupported(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return COMPONENT_TYPES.get(value.getClass().getName()) == value.getClass();
+    }
+
+    private static void writeValue(final DataOutputStream out, final Object value) throws IOException {
+        if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character) value);
+        } else if (value.getClass().isArray()) {
+            out.writeByte(ARRAY);
+            writeString(out, value.getClass().getComponentType().getName());
+            out.writeInt(Array.getLength(value));
+            for (int i = 0; i < Array.getLength(value); i++) {
+                writeValue(out, Array.get(value, i));
+            }
+        } else {
+            final Collection<?> collection = (Collection<?>) value;
+            out.writeByte(LIST);
+            out.writeInt(collection.size());
+            for (final Object element : collection) {
+                writeValue(out, element);
+            }
+        }
+    }
+
+    private static Object readValue(final DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case STRING:
+                return readString(in);
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case BOOLEAN:
+                return in.readBoolean();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case CHARACTER:
+                return in.readChar();
+            case ARRAY:
+                final Class<?> componentType = COMPONENT_TYPES.get(readString(in));
+                if (componentType == null) {
+                    throw new IOException("Unsupported array type");
+                }
+                final Object array = Array.newInstance(componentType, in.readInt());
+                for (int i = 0; i < Array.getLength(array); i++) {
+                    Array.set(array, i, readValue(in));
+                }
+                return array;
+            case LIST:
+                final List<Object> list = new ArrayList<>();
+                for (int i = in.readInt(); i > 0; i--) {
+                    list.add(readValue(in));
+                }
+                return list;
+            default:
+                throw new IOException("Unsupported value type " + type);
+        }
+    }
+
+    private static void writeUrls(final DataOutputStream out, final List<URL> urls) throws IOException {
+        out.writeInt(urls.size());
+        for (final URL url : urls) {
+            writeString(out, url.toString());
+        }
+    }
+
+    private static List<URL> readUrls(final DataInputStream in) throws IOException {
+        final List<URL> urls = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            urls.add(new URL(readString(in)));
+        }
+        return urls;
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid string length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
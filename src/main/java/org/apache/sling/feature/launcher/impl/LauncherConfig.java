@@ -30,16 +30,52 @@ import java.util.Map;
 
 import org.apache.sling.feature.ArtifactId;
 import org.apache.sling.feature.io.artifacts.ArtifactManagerConfig;
+import org.apache.sling.feature.launcher.impl.artifacts.ArtifactValidator;
+import org.apache.sling.feature.launcher.impl.artifacts.HttpDownloader;
+import org.apache.sling.feature.launcher.impl.artifacts.SnapshotPolicy;
 
 /**
  * This class holds the configuration of the launcher.
  */
 public class LauncherConfig extends ArtifactManagerConfig {
 
+    /**
+     * The way the remote repositories are asked for an artifact.
+     */
+    public enum RepositoryMode {
+        /** Ask the repositories in the configured order. */
+        ORDERED,
+        /** Ask the repositories in the order learned from previous lookups. */
+        ADAPTIVE,
+        /** Like {@link #ADAPTIVE}, but ask the next repository as well if a repository is slow to answer. */
+        HEDGED
+    }
+
     private static final String HOME = "launcher";
 
     private static final String CACHE_DIR = "cache";
 
+    /** The directory inside the cache directory holding the launcher's cache metadata. */
+    static final String CACHE_METADATA_DIR = ".launcher";
+
+    /** The default number of artifacts resolved concurrently. */
+    public static final int DEFAULT_RESOLVER_THREADS = 8;
+
+    /** The default time in milliseconds to wait for a repository before asking the next one. */
+    public static final long DEFAULT_REPOSITORY_HEDGE_DELAY = 250;
+
+    /** The default time in seconds an artifact missing in a repository is remembered. */
+    public static final long DEFAULT_MISSING_ARTIFACT_TTL = 600;
+
+    /** The default number of concurrent downloads from a single repository. */
+    public static final int DEFAULT_REPOSITORY_CONNECTIONS = 8;
+
+    /** The default number of retries for a failed download. */
+    public static final int DEFAULT_DOWNLOAD_RETRIES = 3;
+
+    /** The default delay in milliseconds before retrying a failed download, doubled for every retry. */
+    public static final long DEFAULT_DOWNLOAD_RETRY_DELAY = 250;
+
     private final List<ArtifactId> artifactClashOverrides = new ArrayList<>();
 
     private final Map<String, String> configClashOverrides = new LinkedHashMap<>();
@@ -63,6 +99,48 @@ public class LauncherConfig extends ArtifactManagerConfig {
 
     private volatile boolean cacheOnly = false;
 
+    private volatile int resolverThreads = DEFAULT_RESOLVER_THREADS;
+
+    private volatile long missingArtifactTtl = DEFAULT_MISSING_ARTIFACT_TTL;
+
+    private volatile RepositoryMode repositoryMode = RepositoryMode.ORDERED;
+
+    private volatile long repositoryHedgeDelay = DEFAULT_REPOSITORY_HEDGE_DELAY;
+
+    private volatile int repositoryConnections = DEFAULT_REPOSITORY_CONNECTIONS;
+
+    private volatile int downloadRetries = DEFAULT_DOWNLOAD_RETRIES;
+
+    private volatile long downloadDeadline;
+
+    private volatile long featureMaxAge;
+
+    private volatile SnapshotPolicy snapshotPolicy = SnapshotPolicy.DAILY;
+
+    private volatile HttpDownloader downloader;
+
+    private volatile boolean serveInPlace;
+
+    private volatile File blobStoreDirectory;
+
+    private volatile boolean localize;
+
+    private volatile long cacheMaxSize;
+
+    private volatile boolean cacheReport;
+
+    private volatile boolean cacheCompact;
+
+    private volatile File batchFile;
+
+    private volatile boolean offline;
+
+    private volatile File prepareDirectory;
+
+    private volatile File preparedDirectory;
+
+    private volatile ArtifactValidator.Level cacheValidation = ArtifactValidator.Level.SIZE;
+
     /**
      * Create a new configuration object.
      * Set the default values
@@ -112,6 +190,14 @@ public class LauncherConfig extends ArtifactManagerConfig {
         this.home = file;
     }
 
+    /**
+     * Get the directory for the metadata the launcher keeps about its cache.
+     * @return The metadata directory inside the cache directory.
+     */
+    public File getCacheMetadataDirectory() {
+        return new File(this.getCacheDirectory(), CACHE_METADATA_DIR);
+    }
+
     public Installation getInstallation() {
         return this.installation;
     }
@@ -160,4 +246,306 @@ public class LauncherConfig extends ArtifactManagerConfig {
     public void setCacheOnly(final boolean value) {
         this.cacheOnly = value;
     }
+
+    /**
+     * Whether artifacts are served in place from feature archives and jar repositories
+     * @return {@code true} if artifacts are not extracted into the cache
+     */
+    public boolean isServeInPlace() {
+        return this.serveInPlace;
+    }
+
+    /**
+     * Set whether artifacts are served in place from feature archives and jar repositories
+     * @param value {@code true} to not extract artifacts into the cache
+     */
+    public void setServeInPlace(final boolean value) {
+        this.serveInPlace = value;
+    }
+
+    /**
+     * Get the directory of the content addressed blob store
+     * @return The directory or {@code null} if artifacts are kept in the cache directory
+     */
+    public File getBlobStoreDirectory() {
+        return this.blobStoreDirectory;
+    }
+
+    /**
+     * Set the directory of the content addressed blob store
+     * @param value The directory or {@code null} to keep artifacts in the cache directory
+     */
+    public void setBlobStoreDirectory(final File value) {
+        this.blobStoreDirectory = value;
+    }
+
+    /**
+     * Whether artifacts from local file repositories are placed into the cache directory
+     * @return {@code true} if artifacts are localized
+     */
+    public boolean isLocalize() {
+        return this.localize;
+    }
+
+    /**
+     * Set whether artifacts from local file repositories are placed into the cache directory
+     * @param value {@code true} to localize artifacts
+     */
+    public void setLocalize(final boolean value) {
+        this.localize = value;
+    }
+
+    /**
+     * Get the maximum size of the artifacts in the cache directory
+     * @return The size in megabytes, {@code 0} for no limit
+     */
+    public long getCacheMaxSize() {
+        return this.cacheMaxSize;
+    }
+
+    /**
+     * Set the maximum size of the artifacts in the cache directory
+     * @param value The size in megabytes, {@code 0} for no limit
+     */
+    public void setCacheMaxSize(final long value) {
+        this.cacheMaxSize = Math.max(0, value);
+    }
+
+    /**
+     * Whether a report of the cache directory is printed instead of launching
+     * @return {@code true} to print a report
+     */
+    public boolean isCacheReport() {
+        return this.cacheReport;
+    }
+
+    /**
+     * Set whether a report of the cache directory is printed instead of launching
+     * @param value {@code true} to print a report
+     */
+    public void setCacheReport(final boolean value) {
+        this.cacheReport = value;
+    }
+
+    /**
+     * Whether the cache directory is compacted instead of launching
+     * @return {@code true} to compact the cache
+     */
+    public boolean isCacheCompact() {
+        return this.cacheCompact;
+    }
+
+    /**
+     * Set whether the cache directory is compacted instead of launching
+     * @param value {@code true} to compact the cache
+     */
+    public void setCacheCompact(final boolean value) {
+        this.cacheCompact = value;
+    }
+
+    /**
+     * Get the file listing the applications to fill the cache for
+     * @return The file or {@code null} if not running a batch
+     */
+    public File getBatchFile() {
+        return this.batchFile;
+    }
+
+    /**
+     * Set the file listing the applications to fill the cache for
+     * @param value The file or {@code null}
+     */
+    public void setBatchFile(final File value) {
+        this.batchFile = value;
+    }
+
+    /**
+     * Whether artifacts are only resolved from the cache and local repositories
+     * @return {@code true} if remote repositories are never asked
+     */
+    public boolean isOffline() {
+        return this.offline;
+    }
+
+    /**
+     * Set whether artifacts are only resolved from the cache and local repositories
+     * @param value {@code true} to never ask remote repositories
+     */
+    public void setOffline(final boolean value) {
+        this.offline = value;
+    }
+
+    /**
+     * Get the directory to prepare for launching without assembly and network access
+     * @return The directory or {@code null} if not preparing a directory
+     */
+    public File getPrepareDirectory() {
+        return this.prepareDirectory;
+    }
+
+    /**
+     * Set the directory to prepare for launching without assembly and network access
+     * @param value The directory or {@code null}
+     */
+    public void setPrepareDirectory(final File value) {
+        this.prepareDirectory = value;
+    }
+
+    /**
+     * Get the prepared directory to launch from
+     * @return The directory or {@code null} if not launching from a prepared directory
+     */
+    public File getPreparedDirectory() {
+        return this.preparedDirectory;
+    }
+
+    /**
+     * Set the prepared directory to launch from
+     * @param value The directory or {@code null}
+     */
+    public void setPreparedDirectory(final File value) {
+        this.preparedDirectory = value;
+    }
+
+    /**
+     * Get how the resolved artifacts are validated before launching
+     * @return The validation level
+     */
+    public ArtifactValidator.Level getCacheValidation() {
+        return this.cacheValidation;
+    }
+
+    /**
+     * Set how the resolved artifacts are validated before launching
+     * @param value The validation level
+     */
+    public void setCacheValidation(final ArtifactValidator.Level value) {
+        this.cacheValidation = value;
+    }
+
+    /**
+     * Get the maximum number of artifacts which are resolved concurrently
+     * @return The number of resolver threads
+     */
+    public int getResolverThreads() {
+        return this.resolverThreads;
+    }
+
+    /**
+     * Set the maximum number of artifacts which are resolved concurrently
+     * @param value The number of resolver threads, values lower than one disable concurrent resolution
+     */
+    public void setResolverThreads(final int value) {
+        this.resolverThreads = Math.max(1, value);
+    }
+
+    /**
+     * Get the time an artifact missing in a remote repository is remembered
+     * @return The time to live in seconds, {@code 0} if missing artifacts are not remembered
+     */
+    public long getMissingArtifactTtl() {
+        return this.missingArtifactTtl;
+    }
+
+    /**
+     * Set the time an artifact missing in a remote repository is remembered
+     * @param value The time to live in seconds, {@code 0} disables remembering missing artifacts
+     */
+    public void setMissingArtifactTtl(final long value) {
+        this.missingArtifactTtl = Math.max(0, value);
+    }
+
+    public RepositoryMode getRepositoryMode() {
+        return this.repositoryMode;
+    }
+
+    public void setRepositoryMode(final RepositoryMode mode) {
+        this.repositoryMode = mode;
+    }
+
+    /**
+     * Get the time to wait for a repository in {@link RepositoryMode#HEDGED} mode
+     * before asking the next repository as well
+     * @return The delay in milliseconds
+     */
+    public long getRepositoryHedgeDelay() {
+        return this.repositoryHedgeDelay;
+    }
+
+    public void setRepositoryHedgeDelay(final long value) {
+        this.repositoryHedgeDelay = Math.max(0, value);
+    }
+
+    /**
+     * Get the maximum number of concurrent downloads from a single repository
+     * @return The number of connections
+     */
+    public int getRepositoryConnections() {
+        return this.repositoryConnections;
+    }
+
+    public void setRepositoryConnections(final int value) {
+        this.repositoryConnections = Math.max(1, value);
+    }
+
+    /**
+     * Get the number of times a download failing with a transient error is retried
+     * @return The number of retries
+     */
+    public int getDownloadRetries() {
+        return this.downloadRetries;
+    }
+
+    public void setDownloadRetries(final int value) {
+        this.downloadRetries = Math.max(0, value);
+    }
+
+    /**
+     * Get the time after the start of the launcher after which no more downloads are started
+     * @return The deadline in seconds, {@code 0} if there is no deadline
+     */
+    public long getDownloadDeadline() {
+        return this.downloadDeadline;
+    }
+
+    public void setDownloadDeadline(final long value) {
+        this.downloadDeadline = Math.max(0, value);
+    }
+
+    /**
+     * Get the time a feature file downloaded from an http url is used without
+     * checking whether it has been modified
+     * @return The max age in seconds, {@code 0} to always check
+     */
+    public long getFeatureMaxAge() {
+        return this.featureMaxAge;
+    }
+
+    public void setFeatureMaxAge(final long value) {
+        this.featureMaxAge = Math.max(0, value);
+    }
+
+    /**
+     * Get how often remote repositories are checked for new versions of SNAPSHOT artifacts
+     * @return The policy
+     */
+    public SnapshotPolicy getSnapshotPolicy() {
+        return this.snapshotPolicy;
+    }
+
+    public void setSnapshotPolicy(final SnapshotPolicy policy) {
+        this.snapshotPolicy = policy;
+    }
+
+    /**
+     * Get the downloader used for remote repositories
+     * @return The downloader or {@code null} if the default downloader is used
+     */
+    public HttpDownloader getDownloader() {
+        return this.downloader;
+    }
+
+    public void setDownloader(final HttpDownloader downloader) {
+        this.downloader = downloader;
+    }
 }
@@ -19,13 +19,17 @@
 package org.apache.sling.feature.launcher.impl;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
@@ -40,6 +44,8 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.launcher.impl.artifacts.ArtifactValidator;
+import org.apache.sling.feature.launcher.impl.artifacts.SnapshotPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -79,6 +85,46 @@ public class Main {
 
     public static final String OPT_CACHE_ONLY = "CO";
 
+    public static final String OPT_RESOLVER_THREADS = "rt";
+
+    public static final String OPT_MISSING_ARTIFACT_TTL = "mt";
+
+    public static final String OPT_REPOSITORY_MODE = "rm";
+
+    public static final String OPT_REPOSITORY_HEDGE_DELAY = "rh";
+
+    public static final String OPT_REPOSITORY_CONNECTIONS = "rc";
+
+    public static final String OPT_DOWNLOAD_RETRIES = "dr";
+
+    public static final String OPT_DOWNLOAD_DEADLINE = "dd";
+
+    public static final String OPT_FEATURE_MAX_AGE = "fm";
+
+    public static final String OPT_SNAPSHOT_POLICY = "sp";
+
+    public static final String OPT_SERVE_IN_PLACE = "ip";
+
+    public static final String OPT_BLOB_STORE = "bs";
+
+    public static final String OPT_LOCALIZE = "lo";
+
+    public static final String OPT_CACHE_MAX_SIZE = "cm";
+
+    public static final String OPT_CACHE_REPORT = "cr";
+
+    public static final String OPT_CACHE_COMPACT = "cx";
+
+    public static final String OPT_CACHE_VALIDATION = "cv";
+
+    public static final String OPT_BATCH_FILE = "bf";
+
+    public static final String OPT_PREPARE_DIR = "pp";
+
+    public static final String OPT_PREPARED_DIR = "pl";
+
+    public static final String OPT_OFFLINE = "of";
+
     private static Logger LOGGER;
 
     private static Options options;
@@ -213,10 +259,167 @@ public class Main {
 
         final Option cacheOnlyOption = Option.builder(OPT_CACHE_ONLY)
                 .longOpt("cacheOnly")
-                .desc("Cache only the required dependencies. Don't start the framework.")
+                .desc("Download all artifacts of the application into the cache and write a manifest. Don't start the"
+                        + " framework.")
+                .optionalArg(true)
+                .build();
+
+        final Option resolverThreadsOption = Option.builder(OPT_RESOLVER_THREADS)
+                .longOpt("resolver-threads")
+                .desc("Set the maximum number of artifacts resolved concurrently (default "
+                        + LauncherConfig.DEFAULT_RESOLVER_THREADS + ")")
+                .type(Number.class)
+                .optionalArg(true)
+                .numberOfArgs(1)
+                .build();
+
+        final Option missingArtifactTtlOption = Option.builder(OPT_MISSING_ARTIFACT_TTL)
+                .longOpt("missing-artifact-ttl")
+                .desc("Set the time in seconds an artifact missing in a remote repository is remembered (default "
+                        + LauncherConfig.DEFAULT_MISSING_ARTIFACT_TTL + ", 0 disables)")
+                .type(Number.class)
+                .optionalArg(true)
+                .numberOfArgs(1)
+                .build();
+
+        final Option repositoryModeOption = Option.builder(OPT_REPOSITORY_MODE)
+                .longOpt("repository-mode")
+                .desc(
+                        "Set how remote repositories are asked for artifacts: ordered, adaptive or hedged (default ordered)")
+                .optionalArg(true)
+                .numberOfArgs(1)
+                .build();
+
+        final Option repositoryHedgeDelayOption = Option.builder(OPT_REPOSITORY_HEDGE_DELAY)
+                .longOpt("repository-hedge-delay")
+                .desc("Set the time in milliseconds to wait for a repository before asking the next one in hedged mode"
+                        + " (default " + LauncherConfig.DEFAULT_REPOSITORY_HEDGE_DELAY + ")")
+                .type(Number.class)
+                .optionalArg(true)
+                .numberOfArgs(1)
+                .build();
+
+        final Option repositoryConnectionsOption = Option.builder(OPT_REPOSITORY_CONNECTIONS)
+                .longOpt("repository-connections")
+                .desc("Set the maximum number of concurrent downloads from a single repository (default "
+                        + LauncherConfig.DEFAULT_REPOSITORY_CONNECTIONS + ")")
+                .type(Number.class)
+                .optionalArg(true)
+                .numberOfArgs(1)
+                .build();
+
+        final Option downloadRetriesOption = Option.builder(OPT_DOWNLOAD_RETRIES)
+                .longOpt("download-retries")
+                .desc("Set the number of retries for a download failing with a transient error (default "
+                        + LauncherConfig.DEFAULT_DOWNLOAD_RETRIES + ")")
+                .type(Number.class)
+                .optionalArg(true)
+                .numberOfArgs(1)
+                .build();
+
+        final Option downloadDeadlineOption = Option.builder(OPT_DOWNLOAD_DEADLINE)
+                .longOpt("download-deadline")
+                .desc("Set the time in seconds after which no more downloads are started (default 0, no deadline)")
+                .type(Number.class)
+                .optionalArg(true)
+                .numberOfArgs(1)
+                .build();
+
+        final Option featureMaxAgeOption = Option.builder(OPT_FEATURE_MAX_AGE)
+                .longOpt("feature-max-age")
+                .desc("Set the time in seconds a feature file from an http url is used without checking for changes"
+                        + " (default 0, always check)")
+                .type(Number.class)
+                .optionalArg(true)
+                .numberOfArgs(1)
+                .build();
+
+        final Option snapshotPolicyOption = Option.builder(OPT_SNAPSHOT_POLICY)
+                .longOpt("snapshot-policy")
+                .desc("Set how often remote repositories are checked for new SNAPSHOT versions: always, daily,"
+                        + " interval:N (minutes) or never (default daily)")
+                .optionalArg(true)
+                .numberOfArgs(1)
+                .build();
+
+        final Option serveInPlaceOption = Option.builder(OPT_SERVE_IN_PLACE)
+                .longOpt("in-place")
+                .desc("Serve artifacts in place from feature archives and jar repositories instead of extracting them")
+                .optionalArg(true)
+                .build();
+
+        final Option blobStoreOption = Option.builder(OPT_BLOB_STORE)
+                .longOpt("blob-store")
+                .desc("Set the directory of a content addressed artifact store, which can be shared by launchers")
+                .optionalArg(true)
+                .numberOfArgs(1)
+                .build();
+
+        final Option localizeOption = Option.builder(OPT_LOCALIZE)
+                .longOpt("localize")
+                .desc("Place artifacts from local file repositories into the cache, using hard links or"
+                        + " copy-on-write clones where possible")
+                .optionalArg(true)
+                .build();
+
+        final Option cacheMaxSizeOption = Option.builder(OPT_CACHE_MAX_SIZE)
+                .longOpt("cache-max-size")
+                .desc("Set the maximum size of the cache in megabytes, least recently used artifacts not needed by the"
+                        + " launch are removed (default 0, no limit)")
+                .type(Number.class)
+                .optionalArg(true)
+                .numberOfArgs(1)
+                .build();
+
+        final Option cacheReportOption = Option.builder(OPT_CACHE_REPORT)
+                .longOpt("cache-report")
+                .desc("Print a report of the cache. Don't start the framework.")
+                .optionalArg(true)
+                .build();
+
+        final Option cacheCompactOption = Option.builder(OPT_CACHE_COMPACT)
+                .longOpt("cache-compact")
+                .desc("Remove leftover files from the cache and shrink it to the maximum size. Don't start the"
+                        + " framework.")
                 .optionalArg(true)
                 .build();
 
+        final Option cacheValidationOption = Option.builder(OPT_CACHE_VALIDATION)
+                .longOpt("cache-validation")
+                .desc("Set how resolved artifacts are validated before launching: none, size or digest, invalid"
+                        + " artifacts are moved into quarantine and fetched again (default size)")
+                .optionalArg(true)
+                .numberOfArgs(1)
+                .build();
+
+        final Option batchFileOption = Option.builder(OPT_BATCH_FILE)
+                .longOpt("batch-file")
+                .desc("Fill the cache for all applications listed in the file, one line with the options of an"
+                        + " application like -f, -V and -i each. Don't start the framework.")
+                .optionalArg(true)
+                .numberOfArgs(1)
+                .build();
+
+        final Option prepareDirOption = Option.builder(OPT_PREPARE_DIR)
+                .longOpt("prepare")
+                .desc("Prepare a directory with the assembled application and all its artifacts for launching"
+                        + " without assembly and network access. Don't start the framework.")
+                .optionalArg(true)
+                .numberOfArgs(1)
+                .build();
+
+        final Option preparedDirOption = Option.builder(OPT_PREPARED_DIR)
+                .longOpt("prepared")
+                .desc("Launch the application of a prepared directory, using only the artifacts in the directory")
+                .optionalArg(true)
+                .numberOfArgs(1)
+                .build();
+
+        final Option offlineOption = Option.builder(OPT_OFFLINE)
+                .longOpt("offline")
+                .desc("Only use the cache and local repositories, fail with all artifacts not available locally")
+                .build();
+
         final Option cacheOption = Option.builder(OPT_CACHE_DIR)
                 .longOpt("cache_dir")
                 .desc("Set cache dir")
@@ -267,6 +470,26 @@ public class Main {
                 .addOption(varValue)
                 .addOption(debugOption)
                 .addOption(cacheOnlyOption)
+                .addOption(resolverThreadsOption)
+                .addOption(missingArtifactTtlOption)
+                .addOption(repositoryModeOption)
+                .addOption(repositoryHedgeDelayOption)
+                .addOption(repositoryConnectionsOption)
+                .addOption(downloadRetriesOption)
+                .addOption(downloadDeadlineOption)
+                .addOption(featureMaxAgeOption)
+                .addOption(snapshotPolicyOption)
+                .addOption(serveInPlaceOption)
+                .addOption(blobStoreOption)
+                .addOption(localizeOption)
+                .addOption(cacheMaxSizeOption)
+                .addOption(cacheReportOption)
+                .addOption(cacheCompactOption)
+                .addOption(cacheValidationOption)
+                .addOption(batchFileOption)
+                .addOption(prepareDirOption)
+                .addOption(preparedDirOption)
+                .addOption(offlineOption)
                 .addOption(cacheOption)
                 .addOption(homeOption)
                 .addOption(extensionConfiguration)
@@ -320,6 +543,94 @@ public class Main {
                 config.setCacheOnly(true);
             }
 
+            if (cl.hasOption(OPT_OFFLINE)) {
+                config.setOffline(true);
+            }
+
+            final Number resolverThreads = (Number) cl.getParsedOptionValue(OPT_RESOLVER_THREADS);
+            if (resolverThreads != null) {
+                config.setResolverThreads(resolverThreads.intValue());
+            }
+
+            final Number missingArtifactTtl = (Number) cl.getParsedOptionValue(OPT_MISSING_ARTIFACT_TTL);
+            if (missingArtifactTtl != null) {
+                config.setMissingArtifactTtl(missingArtifactTtl.longValue());
+            }
+
+            final Optional<String> repositoryMode = extractValueFromOption(cl, OPT_REPOSITORY_MODE);
+            if (repositoryMode.isPresent()) {
+                try {
+                    config.setRepositoryMode(LauncherConfig.RepositoryMode.valueOf(
+                            repositoryMode.get().toUpperCase(Locale.ENGLISH)));
+                } catch (final IllegalArgumentException iae) {
+                    throw new ParseException("Invalid repository mode: " + repositoryMode.get());
+                }
+            }
+
+            final Number repositoryHedgeDelay = (Number) cl.getParsedOptionValue(OPT_REPOSITORY_HEDGE_DELAY);
+            if (repositoryHedgeDelay != null) {
+                config.setRepositoryHedgeDelay(repositoryHedgeDelay.longValue());
+            }
+
+            final Number repositoryConnections = (Number) cl.getParsedOptionValue(OPT_REPOSITORY_CONNECTIONS);
+            if (repositoryConnections != null) {
+                config.setRepositoryConnections(repositoryConnections.intValue());
+            }
+
+            final Number downloadRetries = (Number) cl.getParsedOptionValue(OPT_DOWNLOAD_RETRIES);
+            if (downloadRetries != null) {
+                config.setDownloadRetries(downloadRetries.intValue());
+            }
+
+            final Number downloadDeadline = (Number) cl.getParsedOptionValue(OPT_DOWNLOAD_DEADLINE);
+            if (downloadDeadline != null) {
+                config.setDownloadDeadline(downloadDeadline.longValue());
+            }
+
+            final Number featureMaxAge = (Number) cl.getParsedOptionValue(OPT_FEATURE_MAX_AGE);
+            if (featureMaxAge != null) {
+                config.setFeatureMaxAge(featureMaxAge.longValue());
+            }
+
+            final Optional<String> snapshotPolicy = extractValueFromOption(cl, OPT_SNAPSHOT_POLICY);
+            if (snapshotPolicy.isPresent()) {
+                try {
+                    config.setSnapshotPolicy(SnapshotPolicy.parse(snapshotPolicy.get()));
+                } catch (final IllegalArgumentException iae) {
+                    throw new ParseException(iae.getMessage());
+                }
+            }
+
+            if (cl.hasOption(OPT_SERVE_IN_PLACE)) {
+                config.setServeInPlace(true);
+            }
+
+            if (cl.hasOption(OPT_LOCALIZE)) {
+                config.setLocalize(true);
+            }
+
+            final Number cacheMaxSize = (Number) cl.getParsedOptionValue(OPT_CACHE_MAX_SIZE);
+            if (cacheMaxSize != null) {
+                config.setCacheMaxSize(cacheMaxSize.longValue());
+            }
+
+            if (cl.hasOption(OPT_CACHE_REPORT)) {
+                config.setCacheReport(true);
+            }
+
+            if (cl.hasOption(OPT_CACHE_COMPACT)) {
+                config.setCacheCompact(true);
+            }
+
+            final Optional<String> cacheValidation = extractValueFromOption(cl, OPT_CACHE_VALIDATION);
+            if (cacheValidation.isPresent()) {
+                try {
+                    config.setCacheValidation(ArtifactValidator.Level.parse(cacheValidation.get()));
+                } catch (final IllegalArgumentException iae) {
+                    throw new ParseException(iae.getMessage());
+                }
+            }
+
             extractValuesFromOption(cl, OPT_FEATURE_FILES)
                     .orElseGet(ArrayList::new)
                     .forEach(config::addFeatureFiles);
@@ -330,6 +641,14 @@ public class Main {
 
             extractValueFromOption(cl, OPT_HOME_DIR).map(File::new).ifPresent(config::setHomeDirectory);
 
+            extractValueFromOption(cl, OPT_BLOB_STORE).map(File::new).ifPresent(config::setBlobStoreDirectory);
+
+            extractValueFromOption(cl, OPT_BATCH_FILE).map(File::new).ifPresent(config::setBatchFile);
+
+            extractValueFromOption(cl, OPT_PREPARE_DIR).map(File::new).ifPresent(config::setPrepareDirectory);
+
+            extractValueFromOption(cl, OPT_PREPARED_DIR).map(File::new).ifPresent(config::setPreparedDirectory);
+
             extractValuesFromOption(cl, OPT_EXTENSION_CONFIGURATION)
                     .ifPresent(values -> values.forEach(v -> {
                         Map.Entry<String, Map<String, String>> xc = splitMap2(v);
@@ -391,6 +710,21 @@ public class Main {
                 writer.println(" -" + OPT_EXTENSION_CONFIGURATION + "      -  EXTENSION_CONFIGURATION");
                 writer.println(" -" + OPT_FELIX_FRAMEWORK_VERSION + "      -  FELIX_FRAMEWORK_VERSION");
                 writer.println(" -" + OPT_OSGI_FRAMEWORK_ARTIFACT + "      -  OSGI_FRAMEWORK_ARTIFACT");
+                writer.println(" -" + OPT_RESOLVER_THREADS + "      -  RESOLVER_THREADS");
+                writer.println(" -" + OPT_MISSING_ARTIFACT_TTL + "      -  MISSING_ARTIFACT_TTL");
+                writer.println(" -" + OPT_REPOSITORY_MODE + "      -  REPOSITORY_MODE");
+                writer.println(" -" + OPT_REPOSITORY_HEDGE_DELAY + "      -  REPOSITORY_HEDGE_DELAY");
+                writer.println(" -" + OPT_REPOSITORY_CONNECTIONS + "      -  REPOSITORY_CONNECTIONS");
+                writer.println(" -" + OPT_DOWNLOAD_RETRIES + "      -  DOWNLOAD_RETRIES");
+                writer.println(" -" + OPT_DOWNLOAD_DEADLINE + "      -  DOWNLOAD_DEADLINE");
+                writer.println(" -" + OPT_FEATURE_MAX_AGE + "      -  FEATURE_MAX_AGE");
+                writer.println(" -" + OPT_SNAPSHOT_POLICY + "      -  SNAPSHOT_POLICY");
+                writer.println(" -" + OPT_BLOB_STORE + "      -  BLOB_STORE");
+                writer.println(" -" + OPT_CACHE_MAX_SIZE + "      -  CACHE_MAX_SIZE");
+                writer.println(" -" + OPT_CACHE_VALIDATION + "      -  CACHE_VALIDATION");
+                writer.println(" -" + OPT_BATCH_FILE + "      -  BATCH_FILE");
+                writer.println(" -" + OPT_PREPARE_DIR + "      -  PREPARE_DIR");
+                writer.println(" -" + OPT_PREPARED_DIR + "      -  PREPARED_DIR");
                 writer.println(" -" + OPT_VERBOSE + "       -  VERBOSE {trace, debug, info, warn, error, off}");
 
                 writer.println("");
@@ -422,6 +756,106 @@ public class Main {
 
         parseArgs(launcherConfig, args);
         final Bootstrap bootstrap = new Bootstrap(launcherConfig, Main.LOG());
-        bootstrap.run();
+        if (launcherConfig.getBatchFile() != null) {
+            bootstrap.runBatch(parseBatch(launcherConfig.getBatchFile(), args));
+        } else {
+            bootstrap.run();
+        }
+    }
+
+    /**
+     * Read the applications of a batch. Each line of the file holds the options
+     * of one application, separated by whitespace, which are added to the
+     * command line parameters. Values containing whitespace can be enclosed in
+     * single or double quotes. Empty lines and lines starting with {@code #} are ignored.
+     * The repositories and how artifacts are placed into the cache are shared
+     * by all applications and can only be set on the command line.
+     *
+     * @param file The batch file
+     * @param args Command line parameters
+     * @return The configurations of the applications
+     */
+    static List<LauncherConfig> parseBatch(final File file, final String[] args) {
+        final List<LauncherConfig> applications = new ArrayList<>();
+        try {
+            for (final String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                final String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                final List<String> lineArgs = splitBatchLine(trimmed);
+                final List<String> applicationArgs = new ArrayList<>(Arrays.asList(args));
+                applicationArgs.addAll(lineArgs);
+                final LauncherConfig config = new LauncherConfig();
+                parseArgs(config, applicationArgs.toArray(new String[0]));
+                checkBatchLine(lineArgs);
+                config.setBatchFile(null);
+                applications.add(config);
+            }
+        } catch (final IOException ioe) {
+            Main.LOG().error("Unable to read batch file {}: {}", file, ioe.getMessage(), ioe);
+            System.exit(1);
+        }
+        if (applications.isEmpty()) {
+            Main.LOG().error("No applications found in batch file {}", file);
+            System.exit(1);
+        }
+        return applications;
+    }
+
+    /**
+     * Split a line of a batch file into arguments at whitespace outside of quotes
+     * @param line The line
+     * @return The arguments
+     */
+    static List<String> splitBatchLine(final String line) {
+        final List<String> result = new ArrayList<>();
+        final StringBuilder current = new StringBuilder();
+        boolean inArgument = false;
+        char quote = 0;
+        for (final char c : line.toCharArray()) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inArgument = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inArgument) {
+                    result.add(current.toString());
+                    current.setLength(0);
+                    inArgument = false;
+                }
+            } else {
+                current.append(c);
+                inArgument = true;
+            }
+        }
+        if (inArgument) {
+            result.add(current.toString());
+        }
+        return result;
+    }
+
+    /**
+     * The artifacts of all applications of a batch are resolved with the same
+     * resolver, options changing it can't be set per application
+     */
+    private static void checkBatchLine(final List<String> lineArgs) {
+        try {
+            final CommandLine cl = new DefaultParser().parse(options, lineArgs.toArray(new String[0]));
+            for (final String name : new String[] {OPT_REPOSITORY_URLS, OPT_SERVE_IN_PLACE, OPT_LOCALIZE}) {
+                if (cl.hasOption(name)) {
+                    throw new ParseException(
+                            "Option -" + name + " can't be set per application in a batch file, use the command line");
+                }
+            }
+        } catch (final ParseException pe) {
+            Main.LOG().error("Unable to parse batch file: {}", pe.getMessage(), pe);
+            System.exit(1);
+        }
     }
 }
@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.launcher.impl.artifacts.CacheFiles;
+import org.apache.sling.feature.launcher.impl.artifacts.Localizer;
+
+/**
+ * A directory prepared for launching without assembly and network access. It
+ * contains the assembled {@code application.json}, all artifacts of the
+ * application in maven layout below {@code artifacts}, and the launch plan
+ * listing the framework, the artifacts with their sizes and the fingerprint
+ * of the inputs the directory has been prepared from.
+ */
+public class PreparedLaunch {
+
+    /** The name of the launch plan file. */
+    public static final String PLAN_FILE = "launch.plan";
+
+    /** The name of the assembled application file. */
+    public static final String APPLICATION_FILE = "application.json";
+
+    /** The name of the directory holding the artifacts. */
+    public static final String ARTIFACTS_DIR = "artifacts";
+
+    private static final String HEADER = "# launcher launch plan 1";
+
+    private static final String FINGERPRINT = "fingerprint";
+
+    private static final String FRAMEWORK = "framework";
+
+    private static final String ARTIFACT = "artifact";
+
+    private final File directory;
+
+    private final String fingerprint;
+
+    private final ArtifactId framework;
+
+    private final Map<ArtifactId, Long> artifacts;
+
+    private PreparedLaunch(
+            final File directory,
+            final String fingerprint,
+            final ArtifactId framework,
+            final Map<ArtifactId, Long> artifacts) {
+        this.directory = directory;
+        this.fingerprint = fingerprint;
+        this.framework = framework;
+        this.artifacts = artifacts;
+    }
+
+    /**
+     * Read the launch plan of a prepared directory
+     * @param directory The directory
+     * @return The prepared launch or {@code null} if the directory has no valid launch plan
+     * @throws IOException If reading fails
+     */
+    public static PreparedLaunch read(final File directory) throws IOException {
+        String fingerprint = null;
+        ArtifactId framework = null;
+        final Map<ArtifactId, Long> artifacts = new LinkedHashMap<>();
+        try {
+            for (final String[] parts : CacheFiles.read(new File(directory, PLAN_FILE).toPath(), HEADER)) {
+                if (parts.length == 2 && FINGERPRINT.equals(parts[0])) {
+                    fingerprint = parts[1];
+                } else if (parts.length == 2 && FRAMEWORK.equals(parts[0])) {
+                    framework = ArtifactId.parse(parts[1]);
+                } else if (parts.length == 3 && ARTIFACT.equals(parts[0])) {
+                    artifacts.put(ArtifactId.parse(parts[1]), Long.parseLong(parts[2]));
+                }
+            }
+        } catch (final IllegalArgumentException iae) {
+            return null;
+        }
+        if (fingerprint == null || framework == null) {
+            return null;
+        }
+        return new PreparedLaunch(directory, fingerprint, framework, artifacts);
+    }
+
+    /**
+     * Prepare a directory. The launch plan is written last, so an interrupted
+     * preparation leaves a directory without a valid plan.
+     * @param directory The directory
+     * @param fingerprint The fingerprint of the inputs
+     * @param application The file of the assembled application
+     * @param framework The framework artifact
+     * @param artifacts The artifacts with their local urls, including the framework
+     * @param localizer The localizer used to place the artifacts into the directory
+     * @return The prepared launch
+     * @throws IOException If writing fails
+     */
+    public static PreparedLaunch write(
+            final File directory,
+            final String fingerprint,
+            final File application,
+            final ArtifactId framework,
+            final Map<ArtifactId, URL> artifacts,
+            final Localizer localizer)
+            throws IOException {
+        final Path plan = new File(directory, PLAN_FILE).toPath();
+        Files.deleteIfExists(plan);
+        final Path artifactsDir = new File(directory, ARTIFACTS_DIR).toPath();
+        CacheFiles.deleteRecursively(artifactsDir);
+
+        final Map<ArtifactId, Long> sizes = new LinkedHashMap<>();
+        for (final Map.Entry<ArtifactId, URL> entry : artifacts.entrySet()) {
+            final Path target = artifactsDir.resolve(entry.getKey().toMvnPath().replace('/', File.separatorChar));
+            Files.createDirectories(target.getParent());
+            place(entry.getValue(), target, localizer);
+            sizes.put(entry.getKey(), Files.size(target));
+        }
+
+        final Path target = new File(directory, APPLICATION_FILE).toPath();
+        final Path tmp = CacheFiles.newTempFile(target);
+        try {
+            Files.copy(application.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+            CacheFiles.publish(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        final List<String[]> lines = new ArrayList<>();
+        lines.add(new String[] {FINGERPRINT, fingerprint});
+        lines.add(new String[] {FRAMEWORK, framework.toMvnId()});
+        for (final Map.Entry<ArtifactId, Long> entry : sizes.entrySet()) {
+            lines.add(new String[] {ARTIFACT, entry.getKey().toMvnId(), String.valueOf(entry.getValue())});
+        }
+        CacheFiles.write(plan, HEADER, lines);
+        return new PreparedLaunch(directory, fingerprint, framework, sizes);
+    }
+
+    private static void place(final URL url, final Path target, final Localizer localizer) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                localizer.localize(Paths.get(url.toURI()), target);
+                return;
+            } catch (final URISyntaxException | IllegalArgumentException e) {
+                // copy from the url
+            }
+        }
+        final URLConnection connection = url.openConnection();
+        connection.setUseCaches(false);
+        try (final InputStream in = connection.getInputStream()) {
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Check that all artifacts of the plan exist with their recorded size
+     * @return A description of the first problem or {@code null} if the directory is complete
+     */
+    public String verify() {
+        if (!new File(this.directory, APPLICATION_FILE).isFile()) {
+            return APPLICATION_FILE + " is missing";
+        }
+        for (final Map.Entry<ArtifactId, Long> entry : this.artifacts.entrySet()) {
+            final File file = this.getArtifactFile(entry.getKey());
+            if (!file.isFile() || file.length() != entry.getValue()) {
+                return "artifact " + entry.getKey().toMvnId() + " is missing or has changed";
+            }
+        }
+        return null;
+    }
+
+    private File getArtifactFile(final ArtifactId id) {
+        return new File(new File(this.directory, ARTIFACTS_DIR), id.toMvnPath().replace('/', File.separatorChar));
+    }
+
+    /**
+     * The fingerprint of the inputs the directory has been prepared from
+     * @return The fingerprint
+     */
+    public String getFingerprint() {
+        return this.fingerprint;
+    }
+
+    /**
+     * The framework artifact
+     * @return The artifact id
+     */
+    public ArtifactId getFramework() {
+        return this.framework;
+    }
+
+    /**
+     * The artifacts with their sizes
+     * @return The artifacts
+     */
+    public Map<ArtifactId, Long> getArtifacts() {
+        return Collections.unmodifiableMap(this.artifacts);
+    }
+
+    /**
+     * The assembled application file
+     * @return The file
+     */
+    public File getApplicationFile() {
+        return new File(this.directory, APPLICATION_FILE);
+    }
+
+    /**
+     * The url of the repository holding the artifacts
+     * @return The url
+     */
+    public String getRepositoryUrl() {
+        return new File(this.directory, ARTIFACTS_DIR).toURI().toString();
+    }
+}
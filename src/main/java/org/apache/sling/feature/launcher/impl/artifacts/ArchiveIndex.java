@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Index of the entries of a zip archive like a feature archive or a jar
+ * containing a maven repository. Artifacts in the archive are served in place
+ * through {@code jar:} urls instead of being extracted into the cache.
+ * <p>
+ * The index is built from the central directory of the archive, which
+ * {@link ZipFile} reads with random access, so the size of the archive does
+ * not matter.
+ */
+public class ArchiveIndex {
+
+    private final Path archive;
+
+    private final String prefix;
+
+    private final String baseURL;
+
+    private final Map<String, Long> entries = new HashMap<>();
+
+    private ArchiveIndex(final Path archive, final String prefix) {
+        this.archive = archive;
+        this.prefix = prefix;
+        this.baseURL = "jar:" + archive.toUri() + "!/" + prefix;
+    }
+
+    /**
+     * Create the index for an archive
+     * @param archive The archive
+     * @param prefix The path inside the archive the maven paths are relative to, either empty or ending with a slash
+     * @return The index
+     * @throws IOException If the archive can't be read
+     */
+    public static ArchiveIndex open(final Path archive, final String prefix) throws IOException {
+        final ArchiveIndex index = new ArchiveIndex(archive.toAbsolutePath().normalize(), prefix);
+        try (final ZipFile zip = new ZipFile(index.archive.toFile())) {
+            final Enumeration<? extends ZipEntry> e = zip.entries();
+            while (e.hasMoreElements()) {
+                final ZipEntry entry = e.nextElement();
+                if (!entry.isDirectory() && entry.getName().startsWith(prefix)) {
+                    index.entries.put(entry.getName().substring(prefix.length()), entry.getSize());
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Get the archive
+     * @return The archive
+     */
+    public Path getArchive() {
+        return this.archive;
+    }
+
+    /**
+     * Get the url of an artifact in the archive
+     * @param path The maven path of the artifact
+     * @return The {@code jar:} url or {@code null} if the archive does not contain the artifact
+     * @throws IOException If the url can't be created
+     */
+    public URL getURL(final String path) throws IOException {
+        if (!this.entries.containsKey(path)) {
+            return null;
+        }
+        return new URL(this.baseURL + path);
+    }
+
+    /**
+     * Get the number of entries in the index
+     * @return The number of entries
+     */
+    public int size() {
+        return this.entries.size();
+    }
+}
@@ -0,0 +1,925 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.builder.ArtifactProvider;
+import org.apache.sling.feature.builder.FeatureProvider;
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+import org.apache.sling.feature.io.artifacts.ArtifactManager;
+import org.apache.sling.feature.io.json.FeatureJSONReader;
+import org.apache.sling.feature.launcher.impl.ConcurrentTasks;
+import org.apache.sling.feature.launcher.impl.LauncherConfig;
+
+/**
+ * Thread safe facade for artifact lookups through the {@link ArtifactManager}.
+ * Resolved artifacts are remembered for the lifetime of the resolver, and
+ * concurrent requests for the same artifact wait for a single resolution.
+ * Failed lookups are not remembered.
+ * <p>
+ * If the resolver is created for a launcher configuration, maven artifacts are
+ * first looked up in the persistent {@link ResolutionIndex}. Otherwise each
+ * configured repository is queried on its own, skipping repositories in which
+ * the artifact is known to be missing according to the {@link MissingArtifactCache}.
+ * Depending on the {@link LauncherConfig.RepositoryMode}, the remote repositories
+ * are asked in the configured order, in the order learned by the
+ * {@link RepositoryStatistics}, or raced against each other. Documents referenced
+ * by an http url are kept in the {@link RemoteDocumentCache}. SNAPSHOT artifacts are
+ * looked up in remote repositories according to the {@link SnapshotPolicy}.
+ * If a {@link BlobStore} is configured, resolved artifacts are moved into it and
+ * served from it. Artifacts from local file repositories are placed into the cache
+ * directory by the {@link Localizer} if localization is enabled. Several processes
+ * can share the cache directory, the {@link CacheLocks} make sure that an artifact
+ * is only downloaded once. The use of the artifacts is recorded in the
+ * {@link CacheUsage}.
+ * <p>
+ * If artifacts are served in place, feature archives added with
+ * {@link #addArchive(ArchiveIndex)} and repositories inside a jar file
+ * ({@code jar:file:...!/path}) are used through an {@link ArchiveIndex}
+ * without copying their artifacts into the cache.
+ */
+public class ArtifactResolver implements ArtifactProvider, AutoCloseable {
+
+    /** Directory inside the cache metadata directory for copies of artifacts served in place. */
+    private static final String IN_PLACE_DIR = "jars";
+
+    private final ArtifactManager artifactManager;
+
+    private final LauncherConfig config;
+
+    private final Set<String> offlineMissing = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentMap<String, CompletableFuture<ArtifactHandler>> handlers = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, ArtifactManager> repositoryManagers = new ConcurrentHashMap<>();
+
+    private final ResolutionIndex index;
+
+    private final MissingArtifactCache missingArtifacts;
+
+    private final RepositoryStatistics statistics;
+
+    private final RemoteDocumentCache documents;
+
+    private final SnapshotIndex snapshots;
+
+    private final BlobStore blobs;
+
+    private final CacheLocks locks;
+
+    private final CacheUsage usage;
+
+    private final List<ArchiveIndex> archives = new CopyOnWriteArrayList<>();
+
+    private final ConcurrentMap<String, ArchiveIndex> jarRepositories = new ConcurrentHashMap<>();
+
+    private final AtomicInteger inPlaceArtifacts = new AtomicInteger();
+
+    private final Localizer localizer = new Localizer();
+
+    private final ConcurrentMap<String, Localizer.Strategy> localizations = new ConcurrentHashMap<>();
+
+    private ExecutorService probeExecutor;
+
+    /**
+     * Create a resolver without persistent state
+     * @param artifactManager The artifact manager
+     */
+    public ArtifactResolver(final ArtifactManager artifactManager) {
+        this.artifactManager = artifactManager;
+        this.config = null;
+        this.index = null;
+        this.missingArtifacts = null;
+        this.statistics = null;
+        this.documents = null;
+        this.snapshots = null;
+        this.blobs = null;
+        this.locks = null;
+        this.usage = null;
+    }
+
+    /**
+     * Create a resolver using the persistent state in the cache directory
+     * @param artifactManager The artifact manager
+     * @param config The launcher configuration
+     */
+    public ArtifactResolver(final ArtifactManager artifactManager, final LauncherConfig config) {
+        this.artifactManager = artifactManager;
+        this.config = config;
+        this.index = ResolutionIndex.load(config.getCacheMetadataDirectory());
+        this.missingArtifacts =
+                MissingArtifactCache.load(config.getCacheMetadataDirectory(), config.getMissingArtifactTtl() * 1000L);
+        this.statistics = RepositoryStatistics.load(config.getCacheMetadataDirectory());
+        this.documents =
+                RemoteDocumentCache.load(config.getCacheMetadataDirectory(), config.getFeatureMaxAge() * 1000L);
+        this.snapshots = SnapshotIndex.load(config.getCacheMetadataDirectory());
+        this.blobs = config.getBlobStoreDirectory() != null
+                ? BlobStore.load(config.getBlobStoreDirectory().toPath())
+                : null;
+        this.locks = CacheLocks.get(config.getCacheMetadataDirectory().toPath());
+        this.usage = CacheUsage.load(config.getCacheDirectory(), config.getCacheMetadataDirectory());
+    }
+
+    /**
+     * Get the handler for an artifact url or path
+     * @param url The artifact url or path
+     * @return The artifact handler
+     * @throws IOException If the artifact can't be found
+     * @see ArtifactManager#getArtifactHandler(String)
+     */
+    public ArtifactHandler getArtifactHandler(final String url) throws IOException {
+        final CompletableFuture<ArtifactHandler> future = new CompletableFuture<>();
+        final CompletableFuture<ArtifactHandler> existing = this.handlers.putIfAbsent(url, future);
+        if (existing != null) {
+            return ConcurrentTasks.get(existing);
+        }
+        try {
+            final ArtifactHandler handler = this.resolve(url);
+            if (this.usage != null) {
+                this.usage.touch(handler);
+            }
+            future.complete(handler);
+            return handler;
+        } catch (final IOException | RuntimeException e) {
+            this.handlers.remove(url, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private ArtifactHandler resolve(final String url) throws IOException {
+        final String path = this.config != null ? getMvnPath(url) : null;
+        if (path == null) {
+            if (this.config != null && RemoteDocumentCache.isRemote(url)) {
+                if (this.config.isOffline()) {
+                    final ArtifactHandler handler = this.documents.getCached(url, this.config);
+                    if (handler == null) {
+                        throw this.missingOffline(url);
+                    }
+                    return handler;
+                }
+                try (final CacheLocks.Lock lock = this.locks.lock(url)) {
+                    return this.documents.get(url, HttpDownloader.get(this.config), this.config);
+                }
+            }
+            return this.artifactManager.getArtifactHandler(url);
+        }
+        if (this.config.isServeInPlace()) {
+            for (final ArchiveIndex archive : this.archives) {
+                final ArtifactHandler handler = this.getInPlace(archive, url, path);
+                if (handler != null) {
+                    return handler;
+                }
+            }
+        }
+        final boolean indexed = !isSnapshot(path);
+        if (indexed) {
+            ArtifactHandler handler = this.index.get(path);
+            if (handler == null && this.blobs != null) {
+                handler = this.blobs.get(url, path);
+                if (handler != null) {
+                    this.index.put(path, handler);
+                }
+            }
+            if (handler != null) {
+                return handler;
+            }
+        }
+        ArtifactHandler handler;
+        // only one thread of all processes sharing the cache resolves the artifact
+        try (final CacheLocks.Lock lock = this.locks.lock(path)) {
+            final Path cacheDir = this.config.getCacheDirectory().toPath();
+            // another process might have stored the artifact while this one waited for the lock
+            handler = indexed && this.blobs != null ? this.blobs.find(url, path, cacheDir) : null;
+            if (handler == null) {
+                handler = this.resolveFromRepositories(url, path);
+                if (indexed && this.blobs != null) {
+                    handler = this.blobs.put(path, handler, cacheDir);
+                }
+            }
+        }
+        if (indexed) {
+            this.index.put(path, handler, this.localizations.remove(path));
+        }
+        return handler;
+    }
+
+    private ArtifactHandler resolveFromRepositories(final String url, final String path) throws IOException {
+        final String groupId = getGroupId(path);
+        final LauncherConfig.RepositoryMode mode = this.config.getRepositoryMode();
+        final List<String> repositories = mode == LauncherConfig.RepositoryMode.ORDERED
+                ? Arrays.asList(this.config.getRepositoryUrls())
+                : this.statistics.order(this.config.getRepositoryUrls(), groupId);
+
+        // in ordered mode, local repositories configured after a remote one
+        // keep their position, otherwise they are always asked first
+        final List<String> remote = new ArrayList<>();
+        for (final String repository : repositories) {
+            if (this.isLocal(repository)) {
+                if (mode == LauncherConfig.RepositoryMode.ORDERED && !remote.isEmpty()) {
+                    remote.add(repository);
+                    continue;
+                }
+                final ArtifactHandler handler = this.resolveLocal(repository, url, path);
+                if (handler != null) {
+                    return handler;
+                }
+            } else if (!this.config.isOffline() && !this.missingArtifacts.isMissing(repository, path)) {
+                remote.add(repository);
+            }
+        }
+        if (this.config.isOffline()) {
+            return this.resolveOffline(url, path);
+        }
+
+        final boolean snapshot = isSnapshot(path);
+        if (snapshot) {
+            // local repositories are always checked, remote ones only according to the policy
+            final ArtifactHandler handler = this.snapshots.get(path, this.config.getSnapshotPolicy());
+            if (handler != null) {
+                return handler;
+            }
+        }
+
+        // repositories probed by the race already recorded their statistics for this lookup
+        final Set<String> probed = ConcurrentHashMap.newKeySet();
+        if (mode == LauncherConfig.RepositoryMode.HEDGED && remote.size() > 1 && !snapshot) {
+            final String winner = this.race(remote, path, groupId, probed);
+            if (winner != null) {
+                remote.remove(winner);
+                remote.add(0, winner);
+            }
+        }
+
+        for (final String repository : remote) {
+            if (this.isLocal(repository)) {
+                final ArtifactHandler handler = this.resolveLocal(repository, url, path);
+                if (handler != null) {
+                    return handler;
+                }
+                continue;
+            }
+            if (this.missingArtifacts.isMissing(repository, path)) {
+                continue;
+            }
+            final long start = System.nanoTime();
+            try {
+                final ArtifactHandler handler = snapshot
+                        ? this.getSnapshot(repository, path)
+                        : this.getRepositoryManager(repository).getArtifactHandler(":" + path);
+                if (!probed.contains(repository)) {
+                    this.statistics.record(repository, groupId, true, elapsedMillis(start));
+                }
+                if (snapshot) {
+                    this.snapshots.put(path, handler);
+                }
+                return handler;
+            } catch (final IOException notFound) {
+                if (!probed.contains(repository)) {
+                    this.statistics.record(repository, groupId, false, elapsedMillis(start));
+                }
+                final DownloadScheduler scheduler =
+                        HttpDownloader.get(this.config).getScheduler();
+                scheduler.checkDeadline();
+                // only remember the artifact as missing if the repository answered
+                if (!scheduler.hasFailed(repository + '/' + path)) {
+                    this.missingArtifacts.add(repository, path);
+                }
+            }
+        }
+        if (snapshot) {
+            // use the last version found if the repositories can't be reached
+            final ArtifactHandler handler = this.snapshots.getLast(path);
+            if (handler != null) {
+                return handler;
+            }
+        }
+        if (url.startsWith("mvn:") && this.config.isUseMvn()) {
+            return this.artifactManager.getArtifactHandler(url);
+        }
+        throw new IOException("Artifact " + url + " not found in any repository.");
+    }
+
+    private boolean isLocal(final String repository) {
+        return repository.startsWith("file:") || (repository.startsWith("jar:file:") && this.config.isServeInPlace());
+    }
+
+    /**
+     * Get an artifact from a local file or jar repository
+     * @return The handler or {@code null} if the repository does not contain the artifact
+     */
+    private ArtifactHandler resolveLocal(final String repository, final String url, final String path)
+            throws IOException {
+        if (repository.startsWith("jar:file:")) {
+            return this.getInPlace(this.getJarRepository(repository), url, path);
+        }
+        final ArtifactHandler handler;
+        try {
+            handler = this.getRepositoryManager(repository).getArtifactHandler(":" + path);
+        } catch (final IOException notFound) {
+            return null;
+        }
+        return this.config.isLocalize() ? this.localize(path, handler) : handler;
+    }
+
+    /**
+     * Resolve an artifact from the cache directory without asking remote repositories
+     * @throws IOException If the artifact is not in the cache
+     */
+    private ArtifactHandler resolveOffline(final String url, final String path) throws IOException {
+        if (isSnapshot(path)) {
+            final ArtifactHandler handler = this.snapshots.getLast(path);
+            if (handler != null) {
+                return handler;
+            }
+        } else {
+            final Path cacheFile =
+                    this.config.getCacheDirectory().toPath().resolve(path.replace('/', File.separatorChar));
+            if (Files.isRegularFile(cacheFile)) {
+                this.config.incCachedArtifacts();
+                return new ArtifactHandler(url, cacheFile.toUri().toURL());
+            }
+        }
+        throw this.missingOffline(url);
+    }
+
+    private IOException missingOffline(final String url) {
+        final String path = getMvnPath(url);
+        String name = url;
+        if (path != null) {
+            try {
+                name = ArtifactId.fromMvnPath(path).toMvnId();
+            } catch (final IllegalArgumentException iae) {
+                // use the url
+            }
+        }
+        this.offlineMissing.add(name);
+        return new IOException("Artifact " + name + " is not available offline.");
+    }
+
+    /**
+     * Get the artifacts which could not be resolved in offline mode
+     * @return The sorted artifacts
+     */
+    public Set<String> getOfflineMissing() {
+        return new TreeSet<>(this.offlineMissing);
+    }
+
+    /**
+     * Place an artifact from a local repository into the cache directory
+     * @throws IOException If the artifact can't be placed
+     */
+    private ArtifactHandler localize(final String path, final ArtifactHandler handler) throws IOException {
+        final Path source;
+        try {
+            source = Paths.get(handler.getLocalURL().toURI());
+        } catch (final URISyntaxException | IllegalArgumentException e) {
+            return handler;
+        }
+        final Path target = this.config.getCacheDirectory().toPath().resolve(path.replace('/', File.separatorChar));
+        if (!Files.isRegularFile(target) || Files.size(target) != Files.size(source)) {
+            this.localizations.put(path, this.localizer.localize(source, target));
+        }
+        return new ArtifactHandler(handler.getUrl(), target.toUri().toURL());
+    }
+
+    private ArtifactHandler getInPlace(final ArchiveIndex archive, final String url, final String path)
+            throws IOException {
+        final URL entry = archive.getURL(path);
+        if (entry == null) {
+            return null;
+        }
+        this.inPlaceArtifacts.incrementAndGet();
+        return new ArtifactHandler(url, entry);
+    }
+
+    private ArchiveIndex getJarRepository(final String repository) throws IOException {
+        ArchiveIndex archive = this.jarRepositories.get(repository);
+        if (archive == null) {
+            final int sep = repository.indexOf('!');
+            if (sep == -1) {
+                throw new IOException("Invalid jar repository " + repository);
+            }
+            String prefix = repository.substring(sep + 1);
+            if (prefix.startsWith("/")) {
+                prefix = prefix.substring(1);
+            }
+            if (!prefix.isEmpty() && !prefix.endsWith("/")) {
+                prefix = prefix.concat("/");
+            }
+            try {
+                archive = ArchiveIndex.open(Paths.get(new URL(repository.substring(4, sep)).toURI()), prefix);
+            } catch (final URISyntaxException | IllegalArgumentException e) {
+                throw new IOException("Invalid jar repository " + repository, e);
+            }
+            final ArchiveIndex existing = this.jarRepositories.putIfAbsent(repository, archive);
+            if (existing != null) {
+                archive = existing;
+            }
+        }
+        return archive;
+    }
+
+    /**
+     * Add an archive from which artifacts are served in place. Archives are
+     * asked before any repository in the order they are added.
+     * @param archive The archive index
+     */
+    public synchronized void addArchive(final ArchiveIndex archive) {
+        for (final ArchiveIndex a : this.archives) {
+            if (a.getArchive().equals(archive.getArchive())) {
+                return;
+            }
+        }
+        this.archives.add(archive);
+    }
+
+    /**
+     * Get a file for an artifact url. Artifacts served in place from an archive
+     * are copied into the cache metadata directory, for uses which require a
+     * file like the class path of the framework. The copy is kept per archive
+     * and entry, and copied again whenever the size or modification time of the
+     * archive changes.
+     * @param url The artifact url
+     * @return The url itself if it is a file url, otherwise the url of the copy
+     * @throws IOException If the artifact can't be copied
+     */
+    public URL getLocalFile(final URL url) throws IOException {
+        if ("file".equals(url.getProtocol()) || this.config == null) {
+            return url;
+        }
+        final String value = url.toString();
+        final int sep = value.indexOf("!/");
+        final String source = sep != -1 ? value.substring(0, sep) : value;
+        final String entry = sep != -1 ? value.substring(sep + 2) : value.substring(value.lastIndexOf('/') + 1);
+        final Path directory = this.config
+                .getCacheMetadataDirectory()
+                .toPath()
+                .resolve(IN_PLACE_DIR)
+                .resolve(Checksums.toHex(
+                        Checksums.newDigest("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8))));
+        final Path file = directory.resolve(entry).normalize();
+        if (!file.startsWith(directory) || entry.isEmpty()) {
+            throw new IOException("Invalid artifact url " + url);
+        }
+        final Path stampFile = file.resolveSibling(file.getFileName() + ".stamp");
+        final String stamp = getStamp(source);
+        if (!Files.isRegularFile(file) || (stamp != null && !stamp.equals(readStamp(stampFile)))) {
+            final Path tmp = CacheFiles.newTempFile(file);
+            try {
+                // don't use a cached archive, it might have changed
+                final URLConnection connection = url.openConnection();
+                connection.setUseCaches(false);
+                try (final InputStream in = connection.getInputStream()) {
+                    Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                CacheFiles.publish(tmp, file);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            if (stamp != null) {
+                Files.write(stampFile, stamp.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return file.toUri().toURL();
+    }
+
+    /**
+     * Get size and modification time of the archive of a jar url
+     * @return The stamp or {@code null} if the archive is not a local file
+     */
+    private static String getStamp(final String source) {
+        if (!source.startsWith("jar:file:")) {
+            return null;
+        }
+        try {
+            final Path archive = Paths.get(new URL(source.substring(4)).toURI());
+            return Files.size(archive) + " "
+                    + Files.getLastModifiedTime(archive).toMillis();
+        } catch (final IOException | URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String readStamp(final Path file) {
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the number of artifacts served in place from archives
+     * @return The number of artifacts
+     */
+    public int getInPlaceArtifacts() {
+        return this.inPlaceArtifacts.get();
+    }
+
+    /**
+     * Get the latest version of a SNAPSHOT artifact from a remote repository.
+     * Unlike the artifact manager which never updates an artifact once it is
+     * in the cache, the maven metadata is always downloaded. The artifact is stored
+     * in the cache with its unique version, so a new version never replaces a
+     * file which might be in use.
+     * @throws IOException If the artifact can't be found
+     */
+    private ArtifactHandler getSnapshot(final String repository, final String path) throws IOException {
+        if (!RemoteDocumentCache.isRemote(repository)) {
+            return this.getRepositoryManager(repository).getArtifactHandler(":" + path);
+        }
+        final HttpDownloader downloader = HttpDownloader.get(this.config);
+        final Path cacheDir = this.config.getCacheDirectory().toPath();
+        final int lastSlash = path.lastIndexOf('/');
+        final String directory = path.substring(0, lastSlash);
+        final String name = path.substring(lastSlash + 1);
+
+        String uniquePath = path;
+        final Path metadata = cacheDir.resolve(directory.replace('/', File.separatorChar))
+                .resolve("maven-metadata-"
+                        + Checksums.toHex(Checksums.newDigest("SHA-256")
+                                        .digest(repository.getBytes(StandardCharsets.UTF_8)))
+                                .substring(0, 16)
+                        + ".xml");
+        if (downloader.download(new URL(repository + '/' + directory + "/maven-metadata.xml"), metadata)) {
+            final String latest =
+                    ArtifactManager.getLatestSnapshot(new String(Files.readAllBytes(metadata), StandardCharsets.UTF_8));
+            if (latest != null) {
+                uniquePath = directory + '/' + name.replace("SNAPSHOT", latest);
+            }
+        }
+        final Path local = cacheDir.resolve(uniquePath.replace('/', File.separatorChar));
+        if (!uniquePath.equals(path) && Files.isRegularFile(local)) {
+            this.config.incCachedArtifacts();
+        } else if (downloader.download(new URL(repository + '/' + uniquePath), local)) {
+            this.config.incDownloadedArtifacts();
+        } else {
+            throw new IOException("Artifact " + path + " not found in " + repository);
+        }
+        return new ArtifactHandler(repository + '/' + path, local.toUri().toURL());
+    }
+
+    /**
+     * Ask the repositories whether they have the artifact. The first repository is
+     * asked immediately, each further repository is asked after the hedge delay
+     * passed without an answer or as soon as the previous repository answered
+     * that it does not have the artifact.
+     * @return The first repository having the artifact or {@code null}
+     */
+    private String race(
+            final List<String> repositories, final String path, final String groupId, final Set<String> probed) {
+        final CompletionService<String> completion = new ExecutorCompletionService<>(this.getProbeExecutor());
+        final List<Future<String>> futures = new ArrayList<>();
+        try {
+            int next = 0;
+            int pending = 0;
+            while (next < repositories.size() || pending > 0) {
+                if (next < repositories.size()) {
+                    final String repository = repositories.get(next++);
+                    futures.add(
+                            completion.submit(() -> this.probe(repository, path, groupId, probed) ? repository : null));
+                    pending++;
+                }
+                final Future<String> done = next < repositories.size()
+                        ? completion.poll(this.config.getRepositoryHedgeDelay(), TimeUnit.MILLISECONDS)
+                        : completion.take();
+                if (done != null) {
+                    pending--;
+                    final String repository = ConcurrentTasks.get(done);
+                    if (repository != null) {
+                        return repository;
+                    }
+                }
+            }
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (final IOException | RuntimeException ignore) {
+            // fall back to asking the repositories in order
+        } finally {
+            for (final Future<String> f : futures) {
+                f.cancel(true);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check whether a remote repository has an artifact without downloading it
+     * @return {@code true} if the repository has the artifact
+     */
+    private boolean probe(final String repository, final String path, final String groupId, final Set<String> probed) {
+        final long start = System.nanoTime();
+        try {
+            final URL url = new URL(repository + '/' + path);
+            if (!url.getProtocol().startsWith("http")) {
+                // can't probe, let the artifact manager decide
+                return true;
+            }
+            final int status = HttpDownloader.get(this.config).head(url);
+            if (Thread.currentThread().isInterrupted()) {
+                // the answer of a cancelled probe arrived too late to be used
+                return false;
+            }
+            final boolean found = status == HttpURLConnection.HTTP_OK;
+            this.statistics.record(repository, groupId, found, elapsedMillis(start));
+            probed.add(repository);
+            if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+                this.missingArtifacts.add(repository, path);
+            }
+            return found;
+        } catch (final IOException e) {
+            // a probe cancelled as another repository answered first says nothing about the repository
+            final boolean cancelled = Thread.currentThread().isInterrupted()
+                    || (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException));
+            if (!cancelled) {
+                this.statistics.record(repository, groupId, false, elapsedMillis(start));
+                probed.add(repository);
+            }
+            return false;
+        }
+    }
+
+    private ExecutorService getProbeExecutor() {
+        synchronized (this.repositoryManagers) {
+            if (this.probeExecutor == null) {
+                this.probeExecutor = Executors.newCachedThreadPool(ConcurrentTasks.newThreadFactory("launcher-probe"));
+            }
+            return this.probeExecutor;
+        }
+    }
+
+    private static long elapsedMillis(final long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    static String getGroupId(final String path) {
+        try {
+            return ArtifactId.fromMvnPath(path).getGroupId();
+        } catch (final IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
+    private ArtifactManager getRepositoryManager(final String repository) throws IOException {
+        ArtifactManager manager = this.repositoryManagers.get(repository);
+        if (manager == null) {
+            synchronized (this.repositoryManagers) {
+                manager = this.repositoryManagers.get(repository);
+                if (manager == null) {
+                    manager = ArtifactManager.getArtifactManager(new RepositoryConfig(this.config, repository));
+                    this.repositoryManagers.put(repository, manager);
+                }
+            }
+        }
+        return manager;
+    }
+
+    /**
+     * Get the maven path for an url
+     * @param url The artifact url
+     * @return The path or {@code null} if the url is not a maven url or repository path
+     */
+    static String getMvnPath(final String url) {
+        if (url.startsWith("mvn:")) {
+            try {
+                return ArtifactId.fromMvnUrl(url).toMvnPath();
+            } catch (final IllegalArgumentException iae) {
+                return null;
+            }
+        } else if (url.startsWith(":")) {
+            return url.substring(1);
+        }
+        return null;
+    }
+
+    static boolean isSnapshot(final String path) {
+        return path.contains("-SNAPSHOT");
+    }
+
+    /**
+     * Get the local url for an artifact
+     * @param id The artifact id
+     * @return The local url
+     * @throws IOException If the artifact can't be found
+     */
+    public URL getArtifactFile(final ArtifactId id) throws IOException {
+        return this.getArtifactHandler(id.toMvnUrl()).getLocalURL();
+    }
+
+    /**
+     * Resolve an artifact again, bypassing the handler resolved before and the
+     * resolution index. Used after the resolved file turned out to be invalid.
+     * @param id The artifact id
+     * @return The local url
+     * @throws IOException If the artifact can't be found
+     */
+    public URL refetch(final ArtifactId id) throws IOException {
+        this.handlers.remove(id.toMvnUrl());
+        if (this.index != null) {
+            this.index.remove(id.toMvnPath());
+        }
+        return this.getArtifactFile(id);
+    }
+
+    @Override
+    public URL provide(final ArtifactId id) {
+        try {
+            return this.getArtifactFile(id);
+        } catch (final IOException e) {
+            // ignore
+            return null;
+        }
+    }
+
+    /**
+     * Return a feature provider based on this resolver
+     * @return A feature provider
+     */
+    public FeatureProvider toFeatureProvider() {
+        return id -> {
+            try {
+                final ArtifactHandler handler = this.getArtifactHandler(id.toMvnUrl());
+                try (final Reader r =
+                        new InputStreamReader(handler.getLocalURL().openStream(), "UTF-8")) {
+                    return FeatureJSONReader.read(r, handler.getUrl());
+                }
+            } catch (final IOException e) {
+                // ignore
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Get the resolution index
+     * @return The index or {@code null}
+     */
+    public ResolutionIndex getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Get the cache for missing artifacts
+     * @return The cache or {@code null}
+     */
+    public MissingArtifactCache getMissingArtifacts() {
+        return this.missingArtifacts;
+    }
+
+    /**
+     * Get the cache for documents referenced by an http url
+     * @return The cache or {@code null}
+     */
+    public RemoteDocumentCache getDocuments() {
+        return this.documents;
+    }
+
+    /**
+     * Get the index of the checks for SNAPSHOT artifacts
+     * @return The index or {@code null}
+     */
+    public SnapshotIndex getSnapshots() {
+        return this.snapshots;
+    }
+
+    /**
+     * Get the localizer placing artifacts from local repositories into the cache
+     * @return The localizer
+     */
+    public Localizer getLocalizer() {
+        return this.localizer;
+    }
+
+    /**
+     * Get the accounting of the cache directory
+     * @return The accounting or {@code null}
+     */
+    public CacheUsage getUsage() {
+        return this.usage;
+    }
+
+    /**
+     * Get the locks of the cache directory
+     * @return The locks or {@code null}
+     */
+    public CacheLocks getLocks() {
+        return this.locks;
+    }
+
+    /**
+     * Get the blob store
+     * @return The store or {@code null}
+     */
+    public BlobStore getBlobs() {
+        return this.blobs;
+    }
+
+    /**
+     * Get the underlying artifact manager
+     * @return The artifact manager
+     */
+    public ArtifactManager getArtifactManager() {
+        return this.artifactManager;
+    }
+
+    /**
+     * Write the persistent state back to the cache directory
+     * @throws IOException If writing fails
+     */
+    public void persist() throws IOException {
+        if (this.index != null) {
+            this.index.save();
+        }
+        if (this.missingArtifacts != null) {
+            this.missingArtifacts.save();
+        }
+        if (this.statistics != null) {
+            this.statistics.save();
+        }
+        if (this.documents != null) {
+            this.documents.save();
+        }
+        if (this.snapshots != null) {
+            this.snapshots.save();
+        }
+        if (this.blobs != null) {
+            this.blobs.save();
+        }
+        if (this.usage != null) {
+            this.usage.save();
+        }
+    }
+
+    /**
+     * Get the repository statistics
+     * @return The statistics or {@code null}
+     */
+    public RepositoryStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this.repositoryManagers) {
+            if (this.probeExecutor != null) {
+                this.probeExecutor.shutdownNow();
+                this.probeExecutor = null;
+            }
+        }
+        for (final Map.Entry<String, ArtifactManager> entry : this.repositoryManagers.entrySet()) {
+            entry.getValue().shutdown();
+        }
+        this.repositoryManagers.clear();
+    }
+}
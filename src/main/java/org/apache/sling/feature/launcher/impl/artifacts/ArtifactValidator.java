@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipFile;
+
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.launcher.impl.ConcurrentTasks;
+import org.apache.sling.feature.launcher.impl.LauncherConfig;
+import org.slf4j.Logger;
+
+/**
+ * Validates the resolved artifacts of a launch before the framework is started,
+ * so a truncated or corrupted file in the cache is detected upfront instead of
+ * failing the installation of a bundle. A bad file is moved into the
+ * {@code quarantine} directory inside the cache metadata directory and the
+ * artifact is fetched again; the rest of the cache is left untouched.
+ * Artifacts from local repositories are never moved, a bad file there fails
+ * the validation.
+ */
+public class ArtifactValidator {
+
+    /** The name of the quarantine directory. */
+    public static final String QUARANTINE_DIR = "quarantine";
+
+    /**
+     * The validation level
+     */
+    public enum Level {
+        /** No validation. */
+        NONE,
+        /** The file must exist and have the size recorded in the resolution index. */
+        SIZE,
+        /** Additionally, the recorded digest or the zip central directory must be valid. */
+        DIGEST;
+
+        /**
+         * Parse a level
+         * @param value The name of the level, case insensitive
+         * @return The level
+         * @throws IllegalArgumentException If the value is not a level
+         */
+        public static Level parse(final String value) {
+            try {
+                return valueOf(value.toUpperCase(Locale.ENGLISH));
+            } catch (final IllegalArgumentException iae) {
+                throw new IllegalArgumentException("Invalid cache validation level: " + value);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    private final ArtifactResolver resolver;
+
+    private final LauncherConfig config;
+
+    private final Logger logger;
+
+    private final AtomicInteger checked = new AtomicInteger();
+
+    private final AtomicInteger quarantined = new AtomicInteger();
+
+    /**
+     * Create a validator
+     * @param resolver The resolver
+     * @param config The launcher configuration
+     * @param logger The logger
+     */
+    public ArtifactValidator(final ArtifactResolver resolver, final LauncherConfig config, final Logger logger) {
+        this.resolver = resolver;
+        this.config = config;
+        this.logger = logger;
+    }
+
+    /**
+     * Validate the artifacts concurrently, fetching bad artifacts again
+     * @param ids The ids of the artifacts
+     * @throws IOException If an artifact is still invalid after fetching it again
+     */
+    public void validate(final Collection<ArtifactId> ids) throws IOException {
+        if (this.config.getCacheValidation() == Level.NONE) {
+            return;
+        }
+        final List<ArtifactId> distinct = new ArrayList<>(new LinkedHashSet<>(ids));
+        ConcurrentTasks.map("launcher-validate", distinct, this.config.getResolverThreads(), id -> {
+            this.validate(id);
+            return null;
+        });
+    }
+
+    private void validate(final ArtifactId id) throws IOException {
+        final Path file = toFile(this.resolver.getArtifactFile(id));
+        if (file == null) {
+            // served in place from an archive
+            return;
+        }
+        this.checked.incrementAndGet();
+        final String path = id.toMvnPath();
+        final String problem = this.check(path, file);
+        if (problem == null) {
+            return;
+        }
+        this.quarantine(id, file, problem);
+        final Path refetched = toFile(this.resolver.refetch(id));
+        if (refetched != null) {
+            final String again = this.check(path, refetched);
+            if (again != null) {
+                throw new IOException("Artifact " + id.toMvnId() + " is invalid: " + again);
+            }
+        }
+    }
+
+    private static Path toFile(final URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return Paths.get(url.toURI());
+        } catch (final URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check a file
+     * @return A description of the problem or {@code null} if the file is valid
+     */
+    String check(final String path, final Path file) {
+        if (!Files.isRegularFile(file)) {
+            return "file " + file + " is missing";
+        }
+        final ResolutionIndex index = this.resolver.getIndex();
+        ResolutionIndex.Entry entry = index != null ? index.getEntry(path) : null;
+        final ResolutionIndex.Entry changed = index != null ? index.getChangedEntry(path) : null;
+        if (changed != null && changed.getLocalFile().equals(file) && this.isManaged(file)) {
+            // files written by the launcher never change, unlike files in local repositories
+            entry = changed;
+        }
+        final boolean recorded = entry != null && entry.getLocalFile().equals(file);
+        try {
+            final long size = Files.size(file);
+            if (recorded ? size != entry.getSize() : size == 0) {
+                return "file " + file + " has a size of " + size + " bytes";
+            }
+            if (this.config.getCacheValidation() != Level.DIGEST) {
+                return null;
+            }
+            String digest = recorded ? entry.getDigest() : null;
+            if (digest == null) {
+                digest = Checksums.readDigest(file);
+            }
+            if (digest == null) {
+                digest = BlobStore.getDigest(file);
+            }
+            if (digest != null) {
+                final String actual = Checksums.computeDigest(file);
+                return digest.equals(actual)
+                        ? null
+                        : "file " + file + " has digest " + actual + " instead of " + digest;
+            }
+            final String name = file.getFileName().toString();
+            if (name.endsWith(".jar") || name.endsWith(".zip") || name.endsWith(".far")) {
+                try (final ZipFile zip = new ZipFile(file.toFile())) {
+                    if (zip.size() == 0) {
+                        return "file " + file + " is an empty archive";
+                    }
+                }
+            }
+            return null;
+        } catch (final IOException ioe) {
+            return "file " + file + " can't be read: " + ioe.getMessage();
+        }
+    }
+
+    /**
+     * Move a bad file into the quarantine directory and remove the artifact from the cache
+     * @throws IOException If the file is not managed by the launcher or can't be moved
+     */
+    private void quarantine(final ArtifactId id, final Path file, final String problem) throws IOException {
+        if (!this.isManaged(file)) {
+            throw new IOException("Artifact " + id.toMvnId() + " in a local repository is invalid: " + problem);
+        }
+        final Path target = this.config
+                .getCacheMetadataDirectory()
+                .toPath()
+                .resolve(QUARANTINE_DIR)
+                .resolve(id.toMvnPath().replace('/', File.separatorChar) + "." + System.currentTimeMillis());
+        Files.createDirectories(target.getParent());
+        if (Files.exists(file)) {
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        // the cache might still have a hard link to the same contents
+        final Path cached =
+                this.config.getCacheDirectory().toPath().resolve(id.toMvnPath().replace('/', File.separatorChar));
+        Files.deleteIfExists(cached);
+        Files.deleteIfExists(cached.resolveSibling(cached.getFileName() + Checksums.SHA256));
+        this.quarantined.incrementAndGet();
+        this.logger.warn("Quarantined artifact {}: {}", id.toMvnId(), problem);
+    }
+
+    /**
+     * Check whether a file has been written by the launcher, either into the cache directory or the blob store
+     */
+    private boolean isManaged(final Path file) {
+        final Path normalized = file.toAbsolutePath().normalize();
+        final File blobStore = this.config.getBlobStoreDirectory();
+        return normalized.startsWith(this.config
+                        .getCacheDirectory()
+                        .toPath()
+                        .toAbsolutePath()
+                        .normalize())
+                || (blobStore != null
+                        && normalized.startsWith(
+                                blobStore.toPath().toAbsolutePath().normalize()));
+    }
+
+    /**
+     * The number of validated artifacts
+     * @return The number of artifacts
+     */
+    public int getChecked() {
+        return this.checked.get();
+    }
+
+    /**
+     * The number of artifacts moved into quarantine
+     * @return The number of artifacts
+     */
+    public int getQuarantined() {
+        return this.quarantined.get();
+    }
+}
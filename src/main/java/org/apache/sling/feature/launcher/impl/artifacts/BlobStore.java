@@ -0,0 +1,354 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+
+/**
+ * Content addressed store for artifacts. Each artifact is stored once as a blob
+ * named after the SHA-256 digest of its contents, keeping the extension of the
+ * artifact: {@code sha256/<first two digits>/<digest>.<extension>}. The maven
+ * path view onto the blobs is kept in the index file {@code blobs.index} inside
+ * the store, mapping each maven path to a digest.
+ * <p>
+ * Artifacts with the same contents under different coordinates share a single
+ * blob, and several launcher homes can use the same store. Artifacts resolved
+ * into the cache directory are moved into the store and replaced by a hard link
+ * to the blob, so other processes using the same cache directory still find
+ * them; if the store is on a different file system, they are removed from the
+ * cache directory and only their digest file is kept as a pointer to the blob.
+ * Artifacts from local repositories are left untouched.
+ */
+public class BlobStore {
+
+    /** The name of the index file. */
+    public static final String FILE_NAME = "blobs.index";
+
+    /** The name of the directory holding the blobs. */
+    public static final String DIRECTORY = "sha256";
+
+    private static final String HEADER = "# launcher blob store 1";
+
+    private final Path directory;
+
+    private final ConcurrentMap<String, String> paths = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong stored = new AtomicLong();
+
+    private final AtomicLong deduplicated = new AtomicLong();
+
+    private volatile boolean modified;
+
+    private BlobStore(final Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Load the store from the directory. If no index exists yet or the index
+     * can't be read, the store starts with an empty index.
+     * @param directory The directory of the store
+     * @return The store
+     */
+    public static BlobStore load(final Path directory) {
+        final BlobStore store = new BlobStore(directory.toAbsolutePath().normalize());
+        store.paths.putAll(store.readIndex());
+        return store;
+    }
+
+    private Map<String, String> readIndex() {
+        final Map<String, String> result = new TreeMap<>();
+        try {
+            for (final String[] parts : CacheFiles.read(this.directory.resolve(FILE_NAME), HEADER)) {
+                if (parts.length == 2) {
+                    result.put(parts[0], parts[1]);
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            // start with an empty index
+            result.clear();
+        }
+        return result;
+    }
+
+    /**
+     * Get the directory of the store
+     * @return The directory
+     */
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Get the blob for a digest
+     * @param digest The SHA-256 digest
+     * @param path The maven path of an artifact with that digest, used for the extension
+     * @return The path of the blob, which might not exist
+     */
+    public Path getBlob(final String digest, final String path) {
+        final String name = path.substring(path.lastIndexOf('/') + 1);
+        final int dot = name.lastIndexOf('.');
+        return this.directory
+                .resolve(DIRECTORY)
+                .resolve(digest.substring(0, 2))
+                .resolve(dot == -1 ? digest : digest.concat(name.substring(dot)));
+    }
+
+    /**
+     * Get the digest of a blob from its file name
+     * @param file The file
+     * @return The digest or {@code null} if the file is not a blob
+     */
+    public static String getDigest(final Path file) {
+        final Path parent = file.getParent();
+        if (parent == null
+                || parent.getParent() == null
+                || !DIRECTORY.equals(parent.getParent().getFileName().toString())) {
+            return null;
+        }
+        final String name = file.getFileName().toString();
+        final int dot = name.indexOf('.');
+        return Checksums.parse(dot == -1 ? name : name.substring(0, dot), 64);
+    }
+
+    /**
+     * Check whether the store has an artifact
+     * @param path The maven path of the artifact
+     * @return {@code true} if the blob for the artifact exists
+     */
+    public boolean contains(final String path) {
+        final String digest = this.paths.get(path);
+        return digest != null && Files.isRegularFile(this.getBlob(digest, path));
+    }
+
+    /**
+     * Get the handler for an artifact from the store
+     * @param url The url of the artifact
+     * @param path The maven path of the artifact
+     * @return The handler or {@code null} if the store does not have the artifact
+     */
+    public ArtifactHandler get(final String url, final String path) {
+        final String digest = this.paths.get(path);
+        if (digest != null) {
+            final Path blob = this.getBlob(digest, path);
+            if (Files.isRegularFile(blob)) {
+                try {
+                    final ArtifactHandler handler =
+                            new ArtifactHandler(url, blob.toUri().toURL());
+                    this.hits.incrementAndGet();
+                    return handler;
+                } catch (final IOException ignore) {
+                    // fall through and remove entry
+                }
+            }
+            if (this.paths.remove(path, digest)) {
+                this.modified = true;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find an artifact stored by another process which has not written its index
+     * yet. Such an artifact is found through the digest file next to the artifact
+     * in the cache directory.
+     * @param url The url of the artifact
+     * @param path The maven path of the artifact
+     * @param cacheDir The cache directory
+     * @return The handler or {@code null} if the store does not have the artifact
+     */
+    public ArtifactHandler find(final String url, final String path, final Path cacheDir) {
+        final ArtifactHandler handler = this.get(url, path);
+        if (handler != null) {
+            return handler;
+        }
+        final String digest = Checksums.readDigest(cacheDir.resolve(path.replace('/', File.separatorChar)));
+        if (digest != null) {
+            final Path blob = this.getBlob(digest, path);
+            if (Files.isRegularFile(blob)) {
+                try {
+                    final ArtifactHandler stored =
+                            new ArtifactHandler(url, blob.toUri().toURL());
+                    this.record(path, digest);
+                    this.hits.incrementAndGet();
+                    return stored;
+                } catch (final IOException ignore) {
+                    // not found
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Move a resolved artifact into the store. Only artifacts resolved to a file
+     * inside the cache directory are moved, the file in the cache directory is
+     * replaced by a hard link to the blob or removed if linking is not possible.
+     * @param path The maven path of the artifact
+     * @param handler The handler of the resolved artifact
+     * @param cacheDir The cache directory
+     * @return The handler for the blob, or the passed handler if the artifact is not stored
+     * @throws IOException If storing fails
+     */
+    public ArtifactHandler put(final String path, final ArtifactHandler handler, final Path cacheDir)
+            throws IOException {
+        final URL localURL = handler.getLocalURL();
+        if (localURL == null || !"file".equals(localURL.getProtocol())) {
+            return handler;
+        }
+        final Path file;
+        try {
+            file = Paths.get(localURL.toURI()).toAbsolutePath().normalize();
+        } catch (final URISyntaxException | IllegalArgumentException e) {
+            return handler;
+        }
+        if (!file.startsWith(cacheDir.toAbsolutePath().normalize()) || !Files.isRegularFile(file)) {
+            return handler;
+        }
+        String digest = Checksums.readDigest(file);
+        if (digest == null) {
+            digest = Checksums.computeDigest(file);
+        }
+        final Path blob = this.getBlob(digest, path);
+        if (Files.isRegularFile(blob)) {
+            if (Files.isSameFile(file, blob)) {
+                // already linked, for example by another process
+                this.record(path, digest);
+                return new ArtifactHandler(handler.getUrl(), blob.toUri().toURL());
+            }
+            this.deduplicated.incrementAndGet();
+        } else {
+            final Path tmp = CacheFiles.newTempFile(blob);
+            try {
+                try {
+                    Files.move(file, tmp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (final AtomicMoveNotSupportedException differentFileSystem) {
+                    Files.copy(file, tmp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                CacheFiles.publish(tmp, blob);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            this.stored.incrementAndGet();
+        }
+        if (!Localizer.link(blob, file)) {
+            // keep the digest file, other processes find the blob through it
+            Files.deleteIfExists(file);
+            Checksums.writeDigest(file, digest);
+        }
+        this.record(path, digest);
+        return new ArtifactHandler(handler.getUrl(), blob.toUri().toURL());
+    }
+
+    private void record(final String path, final String digest) {
+        if (!digest.equals(this.paths.put(path, digest))) {
+            this.modified = true;
+        }
+    }
+
+    /**
+     * The number of artifacts served from the store
+     * @return The number of hits
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * The number of blobs added to the store
+     * @return The number of blobs
+     */
+    public long getStored() {
+        return this.stored.get();
+    }
+
+    /**
+     * The number of artifacts for which the store already had a blob with the same contents
+     * @return The number of artifacts
+     */
+    public long getDeduplicated() {
+        return this.deduplicated.get();
+    }
+
+    /**
+     * Get the size of the blobs in the store
+     * @return The size in bytes
+     * @throws IOException If the store can't be read
+     */
+    public long getSize() throws IOException {
+        final long[] size = new long[1];
+        if (Files.isDirectory(this.directory)) {
+            Files.walkFileTree(this.directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                    if (!file.getFileName().toString().equals(FILE_NAME)) {
+                        size[0] += attrs.size();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return size[0];
+    }
+
+    /**
+     * Write the index back to the store. Entries added by other launchers
+     * using the same store in the meantime are kept.
+     * @throws IOException If writing fails
+     */
+    public void save() throws IOException {
+        if (!this.modified) {
+            return;
+        }
+        final Map<String, String> merged = this.readIndex();
+        merged.putAll(this.paths);
+        final List<String[]> lines = new ArrayList<>();
+        for (final Map.Entry<String, String> e : merged.entrySet()) {
+            lines.add(new String[] {e.getKey(), e.getValue()});
+        }
+        CacheFiles.write(this.directory.resolve(FILE_NAME), HEADER, lines);
+        this.modified = false;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Helper methods for the line based metadata files the launcher keeps in its cache.
+ * Each file starts with a header line identifying the format. Files are always
+ * written to a temporary file first and then moved into place atomically.
+ */
+public final class CacheFiles {
+
+    /** Separator for the columns of a line. */
+    public static final String SEPARATOR = "\t";
+
+    /** Suffix of temporary files which are not published yet. */
+    public static final String TEMP_SUFFIX = ".tmp";
+
+    private CacheFiles() {
+        // no instances
+    }
+
+    /**
+     * Read the lines of a metadata file
+     * @param file The file
+     * @param header The expected header
+     * @return The lines without the header. If the file does not exist or has a
+     *         different header, an empty list is returned
+     * @throws IOException If reading fails
+     */
+    public static List<String[]> read(final Path file, final String header) throws IOException {
+        try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (!header.equals(line)) {
+                return Collections.emptyList();
+            }
+            final List<String[]> result = new ArrayList<>();
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    result.add(line.split(SEPARATOR, -1));
+                }
+            }
+            return result;
+        } catch (final NoSuchFileException ignore) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Atomically write a metadata file
+     * @param file The file
+     * @param header The header
+     * @param lines The lines, each line given by its columns
+     * @throws IOException If writing fails
+     */
+    public static void write(final Path file, final String header, final Collection<String[]> lines)
+            throws IOException {
+        Files.createDirectories(file.getParent());
+        final Path tmp = newTempFile(file);
+        try {
+            try (final Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writer.write(header);
+                writer.write('\n');
+                for (final String[] columns : lines) {
+                    writer.write(String.join(SEPARATOR, columns));
+                    writer.write('\n');
+                }
+            }
+            publish(tmp, file);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Create a new empty temporary file next to a target file. Unlike
+     * {@link Files#createTempFile(Path, String, String)}, the file is created
+     * with the default permissions so it can be published as is.
+     * @param file The target file
+     * @return The temporary file
+     * @throws IOException If the file can't be created
+     */
+    public static Path newTempFile(final Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        while (true) {
+            final Path tmp = file.resolveSibling(file.getFileName().toString()
+                    + '.'
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE)
+                    + TEMP_SUFFIX);
+            try {
+                return Files.createFile(tmp);
+            } catch (final FileAlreadyExistsException retry) {
+                // try another name
+            }
+        }
+    }
+
+    /**
+     * Atomically move a temporary file to its target, replacing an existing file
+     * @param tmp The temporary file
+     * @param file The target file
+     * @throws IOException If the file can't be moved
+     */
+    public static void publish(final Path tmp, final Path file) throws IOException {
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Delete a directory with all its contents
+     * @param dir The directory
+     * @throws IOException If deleting fails
+     */
+    public static void deleteRecursively(final Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (final Stream<Path> paths = Files.walk(dir)) {
+            final List<Path> files = paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            for (final Path p : files) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+}
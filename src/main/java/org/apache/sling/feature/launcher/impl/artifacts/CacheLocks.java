@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks for artifacts in a cache directory shared by several launcher
+ * processes. Each artifact path is mapped to one of a fixed number of stripes.
+ * A stripe is guarded by a lock within this process and by an exclusive file
+ * lock on {@code locks/<stripe>.lock} in the cache metadata directory, so only
+ * one thread of all processes using the cache works on an artifact at a time.
+ * <p>
+ * File locks are held by the process, therefore the locks are shared by all
+ * users of the same cache directory within a process, see {@link #get(Path)}.
+ */
+public class CacheLocks {
+
+    /** The name of the directory holding the lock files. */
+    public static final String DIRECTORY = "locks";
+
+    /** The number of stripes. */
+    static final int STRIPES = 64;
+
+    private static final ConcurrentMap<Path, CacheLocks> INSTANCES = new ConcurrentHashMap<>();
+
+    private final Path directory;
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    private CacheLocks(final Path directory) {
+        this.directory = directory;
+        for (int i = 0; i < STRIPES; i++) {
+            this.locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Get the locks for a cache metadata directory
+     * @param metadataDirectory The cache metadata directory
+     * @return The locks
+     */
+    public static CacheLocks get(final Path metadataDirectory) {
+        return INSTANCES.computeIfAbsent(
+                metadataDirectory.toAbsolutePath().normalize(), dir -> new CacheLocks(dir.resolve(DIRECTORY)));
+    }
+
+    static int getStripe(final String path) {
+        return (path.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    /**
+     * Lock the stripe of an artifact, waiting until the lock is available
+     * @param path The maven path of the artifact or the name of a file in the cache
+     * @return The lock which must be closed to release it
+     * @throws IOException If the lock can't be acquired
+     */
+    public Lock lock(final String path) throws IOException {
+        final int stripe = getStripe(path);
+        final ReentrantLock local = this.locks[stripe];
+        try {
+            local.lockInterruptibly();
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for lock on " + path);
+        }
+        if (local.getHoldCount() > 1) {
+            // already holding the file lock
+            return new Lock(local, null, null);
+        }
+        FileChannel channel = null;
+        try {
+            Files.createDirectories(this.directory);
+            channel = FileChannel.open(
+                    this.directory.resolve(stripe + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            return new Lock(local, channel, channel.lock());
+        } catch (final IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            local.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * A lock on a stripe
+     */
+    public static final class Lock implements Closeable {
+
+        private final ReentrantLock local;
+
+        private final FileChannel channel;
+
+        private final FileLock fileLock;
+
+        Lock(final ReentrantLock local, final FileChannel channel, final FileLock fileLock) {
+            this.local = local;
+            this.channel = channel;
+            this.fileLock = fileLock;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (this.fileLock != null) {
+                    this.fileLock.release();
+                }
+            } finally {
+                try {
+                    if (this.channel != null) {
+                        this.channel.close();
+                    }
+                } finally {
+                    this.local.unlock();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.launcher.impl.ConcurrentTasks;
+
+/**
+ * The manifest of a cache prepared with {@code --cacheOnly}. It lists every
+ * artifact needed to launch together with its size, SHA-256 digest and local
+ * url, so the contents of a prepared cache can be audited.
+ */
+public class CacheManifest {
+
+    /** The name of the manifest file in the cache metadata directory. */
+    public static final String FILE_NAME = "cache.manifest";
+
+    private static final String HEADER = "# launcher cache manifest 1";
+
+    /**
+     * An artifact listed in the manifest
+     */
+    public static final class Item {
+
+        private final ArtifactId id;
+
+        private final long size;
+
+        private final String digest;
+
+        private final URL url;
+
+        Item(final ArtifactId id, final long size, final String digest, final URL url) {
+            this.id = id;
+            this.size = size;
+            this.digest = digest;
+            this.url = url;
+        }
+
+        /**
+         * The artifact id
+         * @return The id
+         */
+        public ArtifactId getId() {
+            return this.id;
+        }
+
+        /**
+         * The size of the artifact
+         * @return The size in bytes
+         */
+        public long getSize() {
+            return this.size;
+        }
+
+        /**
+         * The SHA-256 digest of the artifact
+         * @return The lower case hex digest
+         */
+        public String getDigest() {
+            return this.digest;
+        }
+
+        /**
+         * The local url of the artifact
+         * @return The url
+         */
+        public URL getUrl() {
+            return this.url;
+        }
+    }
+
+    private CacheManifest() {}
+
+    /**
+     * Create the items of a manifest. The size and digest of the artifacts are
+     * computed concurrently, digests recorded next to a file are reused.
+     * @param artifacts The artifacts with their local urls
+     * @param threads The maximum number of concurrent computations
+     * @return The items in the order of the artifacts
+     * @throws IOException If an artifact can't be read
+     */
+    public static List<Item> create(final Map<ArtifactId, URL> artifacts, final int threads) throws IOException {
+        return ConcurrentTasks.map(
+                "launcher-manifest",
+                new ArrayList<>(artifacts.entrySet()),
+                threads,
+                e -> createItem(e.getKey(), e.getValue()));
+    }
+
+    private static Item createItem(final ArtifactId id, final URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                final Path file = Paths.get(url.toURI());
+                String digest = Checksums.readDigest(file);
+                if (digest == null) {
+                    digest = BlobStore.getDigest(file);
+                }
+                if (digest == null) {
+                    digest = Checksums.computeDigest(file);
+                }
+                return new Item(id, Files.size(file), digest, url);
+            } catch (final URISyntaxException | IllegalArgumentException e) {
+                // read through the url
+            }
+        }
+        final URLConnection connection = url.openConnection();
+        connection.setUseCaches(false);
+        try (final CountingInputStream in = new CountingInputStream(connection.getInputStream())) {
+            final String digest = Checksums.computeDigest(in);
+            return new Item(id, in.count, digest, url);
+        }
+    }
+
+    /**
+     * Atomically write the manifest
+     * @param file The manifest file
+     * @param items The items
+     * @throws IOException If writing fails
+     */
+    public static void write(final Path file, final List<Item> items) throws IOException {
+        final List<String[]> lines = new ArrayList<>();
+        for (final Item item : items) {
+            lines.add(new String[] {
+                item.getId().toMvnId(),
+                String.valueOf(item.getSize()),
+                item.getDigest(),
+                item.getUrl().toString()
+            });
+        }
+        CacheFiles.write(file, HEADER, lines);
+    }
+
+    /**
+     * Read a manifest
+     * @param file The manifest file
+     * @return The items, empty if the manifest does not exist
+     * @throws IOException If reading fails
+     */
+    public static List<Item> read(final Path file) throws IOException {
+        final List<Item> items = new ArrayList<>();
+        for (final String[] parts : CacheFiles.read(file, HEADER)) {
+            if (parts.length == 4) {
+                items.add(new Item(ArtifactId.parse(parts[0]), Long.parseLong(parts[1]), parts[2], new URL(parts[3])));
+            }
+        }
+        return items;
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                this.count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int l = super.read(b, off, len);
+            if (l > 0) {
+                this.count += l;
+            }
+            return l;
+        }
+    }
+}
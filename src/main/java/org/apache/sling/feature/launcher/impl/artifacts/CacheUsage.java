@@ -0,0 +1,399 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+
+/**
+ * Accounting for the files in the cache directory. The time each artifact
+ * has last been used by a launch is recorded in the index file
+ * {@code access.index}. If the cache exceeds its size budget, the least recently
+ * used artifacts are evicted, except the artifacts used by the current launch.
+ * Files in the cache metadata directory are never evicted. Files with further
+ * hard links, like the links to a blob store, don't count against the budget
+ * and are not evicted, as removing them frees no space.
+ */
+public class CacheUsage {
+
+    /** The name of the index file. */
+    public static final String FILE_NAME = "access.index";
+
+    private static final String HEADER = "# launcher cache access 1";
+
+    /** Temporary files older than this are left over from a crashed process. */
+    private static final long STALE_TEMP_FILE_AGE = 60 * 60 * 1000L;
+
+    private final Path cacheDir;
+
+    private final Path metadataDir;
+
+    private final ConcurrentMap<String, Long> access = new ConcurrentHashMap<>();
+
+    private final Set<String> used = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> removed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A file in the cache
+     */
+    public static final class Item {
+
+        private final String path;
+
+        private final long size;
+
+        private final long lastAccess;
+
+        private final boolean linked;
+
+        Item(final String path, final long size, final long lastAccess, final boolean linked) {
+            this.path = path;
+            this.size = size;
+            this.lastAccess = lastAccess;
+            this.linked = linked;
+        }
+
+        /**
+         * The path relative to the cache directory
+         * @return The path using slashes
+         */
+        public String getPath() {
+            return this.path;
+        }
+
+        /**
+         * The size of the file including its checksum files
+         * @return The size in bytes
+         */
+        public long getSize() {
+            return this.size;
+        }
+
+        /**
+         * The time the artifact has last been used
+         * @return The time in milliseconds
+         */
+        public long getLastAccess() {
+            return this.lastAccess;
+        }
+
+        /**
+         * Whether the file has further hard links, like a blob in a blob store,
+         * so removing it from the cache frees no space
+         * @return {@code true} if the file is linked
+         */
+        public boolean isLinked() {
+            return this.linked;
+        }
+    }
+
+    private CacheUsage(final Path cacheDir, final Path metadataDir) {
+        this.cacheDir = cacheDir.toAbsolutePath().normalize();
+        this.metadataDir = metadataDir.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Load the accounting for a cache directory. If no index exists yet or the
+     * index can't be read, the modification time of the files is used instead.
+     * @param cacheDir The cache directory
+     * @param metadataDir The cache metadata directory
+     * @return The accounting
+     */
+    public static CacheUsage load(final File cacheDir, final File metadataDir) {
+        final CacheUsage usage = new CacheUsage(cacheDir.toPath(), metadataDir.toPath());
+        usage.access.putAll(usage.readIndex());
+        return usage;
+    }
+
+    private Map<String, Long> readIndex() {
+        final Map<String, Long> result = new TreeMap<>();
+        try {
+            for (final String[] parts : CacheFiles.read(this.metadataDir.resolve(FILE_NAME), HEADER)) {
+                if (parts.length == 2) {
+                    result.put(parts[0], Long.parseLong(parts[1]));
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            // fall back to the modification time
+            result.clear();
+        }
+        return result;
+    }
+
+    /**
+     * Record that an artifact is used by the current launch. Artifacts outside
+     * of the cache directory are ignored.
+     * @param handler The handler of the artifact
+     */
+    public void touch(final ArtifactHandler handler) {
+        final URL localURL = handler.getLocalURL();
+        if (localURL == null || !"file".equals(localURL.getProtocol())) {
+            return;
+        }
+        try {
+            final String path = this.getPath(Paths.get(localURL.toURI()));
+            if (path != null) {
+                this.used.add(path);
+                this.access.put(path, System.currentTimeMillis());
+                this.removed.remove(path);
+            }
+        } catch (final URISyntaxException | IllegalArgumentException ignore) {
+            // not a file in the cache
+        }
+    }
+
+    private String getPath(final Path file) {
+        final Path normalized = file.toAbsolutePath().normalize();
+        if (!normalized.startsWith(this.cacheDir) || normalized.startsWith(this.metadataDir)) {
+            return null;
+        }
+        return this.cacheDir.relativize(normalized).toString().replace(File.separatorChar, '/');
+    }
+
+    private static boolean isChecksum(final String name) {
+        return name.endsWith(Checksums.SHA1) || name.endsWith(Checksums.SHA256);
+    }
+
+    /**
+     * Scan the cache directory
+     * @return The files in the cache, the least recently used first
+     * @throws IOException If the cache directory can't be read
+     */
+    public List<Item> scan() throws IOException {
+        final Map<String, long[]> files = new TreeMap<>();
+        if (Files.isDirectory(this.cacheDir)) {
+            Files.walkFileTree(this.cacheDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                    return dir.toAbsolutePath().normalize().equals(metadataDir)
+                            ? FileVisitResult.SKIP_SUBTREE
+                            : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                    final String path = getPath(file);
+                    final String name = file.getFileName().toString();
+                    if (path != null && attrs.isRegularFile() && !name.endsWith(CacheFiles.TEMP_SUFFIX)) {
+                        // checksum files are accounted to their artifact
+                        final String key = isChecksum(name) ? path.substring(0, path.lastIndexOf('.')) : path;
+                        final long[] values = files.computeIfAbsent(key, k -> new long[3]);
+                        values[0] += attrs.size();
+                        if (!isChecksum(name)) {
+                            values[1] = attrs.lastModifiedTime().toMillis();
+                            values[2] = getLinkCount(file);
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                    // removed concurrently
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        final List<Item> items = new ArrayList<>();
+        for (final Map.Entry<String, long[]> e : files.entrySet()) {
+            final Long lastAccess = this.access.get(e.getKey());
+            items.add(new Item(
+                    e.getKey(),
+                    e.getValue()[0],
+                    lastAccess != null ? Math.max(lastAccess, e.getValue()[1]) : e.getValue()[1],
+                    e.getValue()[2] > 1));
+        }
+        items.sort(Comparator.comparingLong(Item::getLastAccess));
+        return items;
+    }
+
+    /**
+     * Get the number of hard links of a file
+     * @return The number of links, {@code 1} if the file system doesn't tell
+     */
+    private static long getLinkCount(final Path file) {
+        try {
+            return ((Number) Files.getAttribute(file, "unix:nlink")).longValue();
+        } catch (final IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Get the size of the files in the cache metadata directory
+     * @return The size in bytes
+     * @throws IOException If the directory can't be read
+     */
+    public long getMetadataSize() throws IOException {
+        final long[] size = new long[1];
+        if (Files.isDirectory(this.metadataDir)) {
+            Files.walkFileTree(this.metadataDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                    size[0] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        return size[0];
+    }
+
+    /**
+     * Evict the least recently used artifacts which are not used by the current
+     * launch until the cache fits into the budget. Linked files are neither
+     * counted nor evicted.
+     * @param budget The maximum size of the artifacts in the cache in bytes
+     * @param locks The locks of the cache
+     * @return The evicted files
+     * @throws IOException If the cache can't be read
+     */
+    public List<Item> evict(final long budget, final CacheLocks locks) throws IOException {
+        final List<Item> items = this.scan();
+        long size = 0;
+        for (final Item item : items) {
+            if (!item.isLinked()) {
+                size += item.getSize();
+            }
+        }
+        final List<Item> evicted = new ArrayList<>();
+        for (final Item item : items) {
+            if (size <= budget) {
+                break;
+            }
+            if (item.isLinked() || this.used.contains(item.getPath())) {
+                continue;
+            }
+            // another process might be downloading the artifact right now
+            try (final CacheLocks.Lock lock = locks.lock(item.getPath())) {
+                final Path file = this.cacheDir.resolve(item.getPath().replace('/', File.separatorChar));
+                Files.deleteIfExists(file);
+                Files.deleteIfExists(file.resolveSibling(file.getFileName() + Checksums.SHA1));
+                Files.deleteIfExists(file.resolveSibling(file.getFileName() + Checksums.SHA256));
+            }
+            this.access.remove(item.getPath());
+            this.removed.add(item.getPath());
+            size -= item.getSize();
+            evicted.add(item);
+        }
+        return evicted;
+    }
+
+    /**
+     * Compact the cache: remove temporary files left over by crashed processes,
+     * empty directories and access records of files which no longer exist.
+     * @return The number of removed temporary files
+     * @throws IOException If the cache can't be read
+     */
+    public int compact() throws IOException {
+        final int[] removed = new int[1];
+        final long staleBefore = System.currentTimeMillis() - STALE_TEMP_FILE_AGE;
+        if (Files.isDirectory(this.cacheDir)) {
+            Files.walkFileTree(this.cacheDir, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    if (file.getFileName().toString().endsWith(CacheFiles.TEMP_SUFFIX)
+                            && attrs.lastModifiedTime().toMillis() < staleBefore) {
+                        Files.deleteIfExists(file);
+                        removed[0]++;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException {
+                    if (!dir.equals(cacheDir) && isEmpty(dir)) {
+                        Files.deleteIfExists(dir);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        final Set<String> existing = ConcurrentHashMap.newKeySet();
+        for (final Item item : this.scan()) {
+            existing.add(item.getPath());
+        }
+        for (final String path : this.access.keySet()) {
+            if (!existing.contains(path)) {
+                this.access.remove(path);
+                this.removed.add(path);
+            }
+        }
+        return removed[0];
+    }
+
+    private static boolean isEmpty(final Path dir) {
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            return !stream.iterator().hasNext();
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the artifacts used by the current launch
+     * @return The paths relative to the cache directory
+     */
+    public Set<String> getUsed() {
+        return Collections.unmodifiableSet(this.used);
+    }
+
+    /**
+     * Write the index back. Access times recorded by other launchers using the
+     * same cache in the meantime are kept.
+     * @throws IOException If writing fails
+     */
+    public void save() throws IOException {
+        final Map<String, Long> merged = this.readIndex();
+        for (final Map.Entry<String, Long> e : this.access.entrySet()) {
+            merged.merge(e.getKey(), e.getValue(), Math::max);
+        }
+        merged.keySet().removeAll(this.removed);
+        final List<String[]> lines = new ArrayList<>();
+        for (final Map.Entry<String, Long> e : merged.entrySet()) {
+            lines.add(new String[] {e.getKey(), String.valueOf(e.getValue())});
+        }
+        CacheFiles.write(this.metadataDir.resolve(FILE_NAME), HEADER, lines);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+
+/**
+ * Helper methods for artifact checksums. The SHA-256 digest of a downloaded
+ * artifact is stored next to it in the cache in a file with the additional
+ * extension {@code .sha256}, the same layout a maven repository uses.
+ */
+public final class Checksums {
+
+    /** Extension of SHA-1 checksum files. */
+    public static final String SHA1 = ".sha1";
+
+    /** Extension of SHA-256 checksum files. */
+    public static final String SHA256 = ".sha256";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Checksums() {
+        // no instances
+    }
+
+    /**
+     * Create a message digest
+     * @param algorithm The algorithm
+     * @return The message digest
+     */
+    public static MessageDigest newDigest(final String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (final NoSuchAlgorithmException e) {
+            // every java platform supports SHA-1 and SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Convert a digest into its hex representation
+     * @param digest The digest
+     * @return The lower case hex string
+     */
+    public static String toHex(final byte[] digest) {
+        final StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (final byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compute the SHA-256 digest of a file
+     * @param file The file
+     * @return The lower case hex digest
+     * @throws IOException If reading fails
+     */
+    public static String computeDigest(final Path file) throws IOException {
+        try (final InputStream in = Files.newInputStream(file)) {
+            return computeDigest(in);
+        }
+    }
+
+    /**
+     * Compute the SHA-256 digest of a stream
+     * @param in The stream, which is read until its end but not closed
+     * @return The lower case hex digest
+     * @throws IOException If reading fails
+     */
+    public static String computeDigest(final InputStream in) throws IOException {
+        final MessageDigest digest = newDigest("SHA-256");
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int l;
+        while ((l = in.read(buffer)) > 0) {
+            digest.update(buffer, 0, l);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Parse the contents of a checksum file. Besides the plain checksum, the
+     * format of the {@code sha1sum} tool with the file name after the checksum is supported.
+     * @param contents The contents
+     * @param length The expected length of the hex string
+     * @return The lower case checksum or {@code null} if the contents is not a valid checksum
+     */
+    public static String parse(final String contents, final int length) {
+        final String trimmed = contents.trim();
+        final int end = trimmed.indexOf(' ');
+        final String value = (end == -1 ? trimmed : trimmed.substring(0, end)).toLowerCase(Locale.ENGLISH);
+        if (value.length() != length) {
+            return null;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.digit(value.charAt(i), 16) == -1) {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Read the recorded SHA-256 digest of a file
+     * @param file The file
+     * @return The digest or {@code null} if no valid digest is recorded
+     */
+    public static String readDigest(final Path file) {
+        try {
+            final byte[] contents = Files.readAllBytes(file.resolveSibling(file.getFileName() + SHA256));
+            return parse(new String(contents, StandardCharsets.US_ASCII), 64);
+        } catch (final IOException ignore) {
+            return null;
+        }
+    }
+
+    /**
+     * Atomically record the SHA-256 digest of a file
+     * @param file The file
+     * @param digest The digest
+     * @throws IOException If writing fails
+     */
+    public static void writeDigest(final Path file, final String digest) throws IOException {
+        final Path target = file.resolveSibling(file.getFileName() + SHA256);
+        final Path tmp = CacheFiles.newTempFile(target);
+        try {
+            try (final Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.US_ASCII)) {
+                writer.write(digest);
+            }
+            CacheFiles.publish(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
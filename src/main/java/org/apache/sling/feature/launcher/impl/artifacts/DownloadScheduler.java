@@ -0,0 +1,371 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.PortUnreachableException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules the requests to remote repositories.
+ * <ul>
+ *   <li>The number of concurrent requests to a single repository host is limited.</li>
+ *   <li>Failed requests are retried with an exponential backoff using full jitter,
+ *       unless the failure is permanent like a missing artifact.</li>
+ *   <li>Once the optional deadline passed, no further requests are started.</li>
+ *   <li>The number of requests, retries, failures, bytes and the time spent is
+ *       recorded for each repository host.</li>
+ * </ul>
+ */
+public class DownloadScheduler {
+
+    /** The maximum delay between two attempts. */
+    private static final long MAX_RETRY_DELAY = 10_000;
+
+    /**
+     * A single attempt of a request.
+     * @param <T> The result type
+     */
+    @FunctionalInterface
+    public interface Attempt<T> {
+
+        /**
+         * Execute the attempt
+         * @param timeout The timeout to use for connecting and reading in milliseconds
+         * @return The result
+         * @throws IOException If the attempt fails
+         */
+        T execute(int timeout) throws IOException;
+    }
+
+    /**
+     * Exception for an unexpected http response status.
+     */
+    public static class StatusException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        private final long retryAfter;
+
+        /**
+         * Create a new exception
+         * @param url The url
+         * @param status The response status
+         * @param retryAfter The delay requested by the server in milliseconds or {@code -1}
+         */
+        public StatusException(final URL url, final int status, final long retryAfter) {
+            super("Unexpected response " + status + " for " + url);
+            this.status = status;
+            this.retryAfter = retryAfter;
+        }
+
+        public int getStatus() {
+            return this.status;
+        }
+
+        public long getRetryAfter() {
+            return this.retryAfter;
+        }
+
+        /**
+         * Whether the request might succeed when repeated later
+         * @return {@code true} for timeouts, throttling and server errors
+         */
+        public boolean isTransient() {
+            return this.status == 408 || this.status == 429 || this.status >= 500;
+        }
+    }
+
+    /**
+     * Accounting for a single repository host.
+     */
+    public static class Statistic {
+
+        private long requests;
+
+        private long retries;
+
+        private long failures;
+
+        private long bytes;
+
+        private long time;
+
+        public synchronized long getRequests() {
+            return this.requests;
+        }
+
+        public synchronized long getRetries() {
+            return this.retries;
+        }
+
+        public synchronized long getFailures() {
+            return this.failures;
+        }
+
+        public synchronized long getBytes() {
+            return this.bytes;
+        }
+
+        /**
+         * Get the time spent in requests
+         * @return The time in milliseconds
+         */
+        public synchronized long getTime() {
+            return this.time;
+        }
+
+        synchronized void record(final boolean retry, final boolean failure, final long millis) {
+            this.requests++;
+            if (retry) {
+                this.retries++;
+            }
+            if (failure) {
+                this.failures++;
+            }
+            this.time += millis;
+        }
+
+        synchronized void addBytes(final long count) {
+            this.bytes += count;
+        }
+    }
+
+    private final int maxConnections;
+
+    private final int retries;
+
+    private final long retryDelay;
+
+    private final long deadline;
+
+    private final long deadlineMillis;
+
+    private final ConcurrentMap<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Statistic> statistics = new ConcurrentHashMap<>();
+
+    private final Set<String> failed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Create a new scheduler
+     * @param maxConnections The maximum number of concurrent requests per repository host
+     * @param retries The number of retries for a failed request
+     * @param retryDelay The initial delay between two attempts in milliseconds, doubled for each retry
+     * @param deadlineMillis The time in milliseconds from now after which no requests are started,
+     *        {@code 0} for no deadline
+     */
+    public DownloadScheduler(
+            final int maxConnections, final int retries, final long retryDelay, final long deadlineMillis) {
+        this.maxConnections = Math.max(1, maxConnections);
+        this.retries = Math.max(0, retries);
+        this.retryDelay = Math.max(1, retryDelay);
+        this.deadlineMillis = Math.max(0, deadlineMillis);
+        this.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.deadlineMillis);
+    }
+
+    /**
+     * Execute a request to a url
+     * @param url The url
+     * @param timeout The timeout for a single attempt in milliseconds
+     * @param attempt The attempt, called once for each try
+     * @param <T> The result type
+     * @return The result of the first successful attempt
+     * @throws IOException If the last attempt failed, the failure is not transient or the deadline passed
+     */
+    public <T> T execute(final URL url, final int timeout, final Attempt<T> attempt) throws IOException {
+        final String key = getKey(url);
+        final Semaphore semaphore = this.permits.computeIfAbsent(key, k -> new Semaphore(this.maxConnections, true));
+        final Statistic statistic = this.getStatistic(key);
+        for (int count = 0; ; count++) {
+            this.acquire(semaphore, url);
+            final long start = System.nanoTime();
+            final IOException failure;
+            try {
+                final T result = attempt.execute(this.getTimeout(timeout));
+                statistic.record(count > 0, false, elapsedMillis(start));
+                this.failed.remove(url.toString());
+                return result;
+            } catch (final IOException e) {
+                statistic.record(count > 0, true, elapsedMillis(start));
+                if (!isTransient(e)) {
+                    // the repository did not answer, so the artifact is not known to be missing
+                    if (isUnreachable(e)) {
+                        this.failed.add(url.toString());
+                    }
+                    throw e;
+                }
+                if (count >= this.retries) {
+                    this.failed.add(url.toString());
+                    throw e;
+                }
+                failure = e;
+            } finally {
+                semaphore.release();
+            }
+            // don't keep the permit while waiting
+            this.sleep(getRetryDelay(failure, count), url);
+        }
+    }
+
+    private void acquire(final Semaphore semaphore, final URL url) throws IOException {
+        try {
+            if (this.deadlineMillis == 0) {
+                semaphore.acquire();
+            } else if (!semaphore.tryAcquire(this.getRemaining(url), TimeUnit.MILLISECONDS)) {
+                throw this.deadlineExceeded(url);
+            }
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to download " + url);
+        }
+    }
+
+    private void sleep(final long delay, final URL url) throws IOException {
+        if (this.deadlineMillis != 0 && delay >= this.getRemaining(url)) {
+            throw this.deadlineExceeded(url);
+        }
+        try {
+            Thread.sleep(delay);
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to download " + url);
+        }
+    }
+
+    private long getRetryDelay(final IOException e, final int count) {
+        if (e instanceof StatusException && ((StatusException) e).getRetryAfter() >= 0) {
+            return Math.min(MAX_RETRY_DELAY, ((StatusException) e).getRetryAfter());
+        }
+        final long max = Math.min(MAX_RETRY_DELAY, this.retryDelay << Math.min(count, 20));
+        return ThreadLocalRandom.current().nextLong(max + 1);
+    }
+
+    private int getTimeout(final int timeout) {
+        if (this.deadlineMillis == 0) {
+            return timeout;
+        }
+        final long remaining = TimeUnit.NANOSECONDS.toMillis(this.deadline - System.nanoTime());
+        return (int) Math.max(1, Math.min(timeout, remaining));
+    }
+
+    private long getRemaining(final URL url) throws IOException {
+        final long remaining = TimeUnit.NANOSECONDS.toMillis(this.deadline - System.nanoTime());
+        if (remaining <= 0) {
+            throw this.deadlineExceeded(url);
+        }
+        return remaining;
+    }
+
+    private IOException deadlineExceeded(final URL url) {
+        return new InterruptedIOException(
+                "Download deadline of " + this.deadlineMillis + " ms exceeded, not downloading " + url);
+    }
+
+    /**
+     * Check whether the deadline passed
+     * @throws IOException If the deadline passed
+     */
+    public void checkDeadline() throws IOException {
+        if (this.deadlineMillis != 0 && this.deadline - System.nanoTime() <= 0) {
+            throw new InterruptedIOException("Download deadline of " + this.deadlineMillis + " ms exceeded");
+        }
+    }
+
+    /**
+     * Check whether the last request to a url failed with a transient failure
+     * after all retries, as opposed to the resource not being there
+     * @param url The url
+     * @return {@code true} if the request failed
+     */
+    public boolean hasFailed(final String url) {
+        return this.failed.contains(url);
+    }
+
+    /**
+     * Record the bytes transferred from a url
+     * @param url The url
+     * @param count The number of bytes
+     */
+    public void addBytes(final URL url, final long count) {
+        this.getStatistic(getKey(url)).addBytes(count);
+    }
+
+    private Statistic getStatistic(final String key) {
+        return this.statistics.computeIfAbsent(key, k -> new Statistic());
+    }
+
+    /**
+     * Get the accounting per repository host
+     * @return A sorted map with the repository host as key
+     */
+    public Map<String, Statistic> getStatistics() {
+        return new TreeMap<>(this.statistics);
+    }
+
+    /**
+     * Check whether a failure is worth a retry: timeouts, connections reset or
+     * closed before the response was complete and the transient status codes.
+     * Unknown hosts, refused connections and failed verifications are permanent.
+     */
+    static boolean isTransient(final IOException e) {
+        if (e instanceof StatusException) {
+            return ((StatusException) e).isTransient();
+        }
+        if (isUnreachable(e)) {
+            return false;
+        }
+        return e instanceof SocketTimeoutException || e instanceof SocketException || e instanceof EOFException;
+    }
+
+    /**
+     * Check whether a failure means the repository could not be reached at all
+     */
+    static boolean isUnreachable(final IOException e) {
+        return e instanceof UnknownHostException
+                || e instanceof ConnectException
+                || e instanceof NoRouteToHostException
+                || e instanceof PortUnreachableException;
+    }
+
+    static String getKey(final URL url) {
+        return url.getProtocol() + "://" + url.getHost() + (url.getPort() != -1 ? ":" + url.getPort() : "");
+    }
+
+    private static long elapsedMillis(final long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import aQute.bnd.annotation.spi.ServiceProvider;
+import org.apache.sling.feature.io.artifacts.spi.ArtifactProvider;
+import org.apache.sling.feature.io.artifacts.spi.ArtifactProviderContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Artifact provider downloading remote artifacts with the {@link HttpDownloader}.
+ * Artifacts are stored in the cache directory at their relative path, just like
+ * the default provider of the artifact manager does. The downloader configured
+ * in the {@link org.apache.sling.feature.launcher.impl.LauncherConfig} is used
+ * if the artifact manager is created for the launcher.
+ */
+@ServiceProvider(value = ArtifactProvider.class)
+public class HttpArtifactProvider implements ArtifactProvider {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    private final String protocol;
+
+    private final HttpDownloader fixedDownloader;
+
+    private volatile HttpDownloader downloader;
+
+    private volatile ArtifactProviderContext context;
+
+    private volatile Path cacheDir;
+
+    private volatile boolean isNewlyCreatedCacheDir;
+
+    public HttpArtifactProvider() {
+        this("http", null);
+    }
+
+    /**
+     * Create a provider
+     * @param protocol The protocol
+     * @param downloader The downloader to use or {@code null} to use the one
+     *        configured for the launcher
+     */
+    protected HttpArtifactProvider(final String protocol, final HttpDownloader downloader) {
+        this.protocol = protocol;
+        this.fixedDownloader = downloader;
+    }
+
+    @Override
+    public String getProtocol() {
+        return this.protocol;
+    }
+
+    @Override
+    public void init(final ArtifactProviderContext context) throws IOException {
+        final File dir = context.getCacheDirectory();
+        if (dir != null) {
+            this.cacheDir = dir.toPath();
+        } else {
+            this.cacheDir = Files.createTempDirectory("slingfeature");
+            this.isNewlyCreatedCacheDir = true;
+        }
+        this.downloader = this.fixedDownloader != null ? this.fixedDownloader : HttpDownloader.get(context);
+        this.context = context;
+    }
+
+    @Override
+    public void shutdown() {
+        if (this.isNewlyCreatedCacheDir) {
+            try {
+                CacheFiles.deleteRecursively(this.cacheDir);
+            } catch (final IOException e) {
+                logger.warn("Could not remove temp directory at " + this.cacheDir, e);
+            }
+        }
+        this.context = null;
+        this.cacheDir = null;
+    }
+
+    @Override
+    public URL getArtifact(final String url, final String relativeCachePath) {
+        final ArtifactProviderContext ctx = this.context;
+        if (ctx == null) {
+            return null;
+        }
+        String path = relativeCachePath;
+        // For Windows we need to remove the drive name from the path
+        final int pos = path.indexOf(":/");
+        if (pos >= 0) {
+            path = path.substring(pos + 2);
+        }
+        final Path cacheFile = this.cacheDir.resolve(path.replace("/", File.separator));
+        try {
+            if (Files.exists(cacheFile)) {
+                ctx.incCachedArtifacts();
+            } else {
+                logger.debug("Downloading {}", url);
+                if (!this.downloader.download(new URL(url), cacheFile)) {
+                    logger.debug("Artifact not found at {}", url);
+                    return null;
+                }
+                ctx.incDownloadedArtifacts();
+            }
+            return cacheFile.toUri().toURL();
+        } catch (final IOException e) {
+            logger.info("Unable to download artifact from " + url, e);
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HttpArtifactProvider(" + this.protocol + ")";
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.apache.sling.feature.io.artifacts.spi.ArtifactProviderContext;
+import org.apache.sling.feature.launcher.impl.LauncherConfig;
+
+/**
+ * Download engine for artifacts from remote repositories.
+ * <p>
+ * Connections are reused through the keep-alive cache of the JDK: every response,
+ * including error responses, is read completely and closed so the underlying
+ * connection goes back to the pool instead of being torn down. The size of the
+ * pool per destination is controlled by the {@code http.maxConnections} system
+ * property. Copy buffers are pooled as well, and downloads are streamed into a
+ * temporary file next to the target which is then moved into place atomically,
+ * so a partially downloaded file is never visible in the cache. While streaming,
+ * the SHA-1 and SHA-256 digests are computed and verified against the checksum
+ * published by the repository before the file is moved into place. The SHA-256
+ * digest is recorded next to the file, see {@link Checksums}.
+ * <p>
+ * All requests are run through a {@link DownloadScheduler} which limits the number
+ * of concurrent requests per repository and retries transient failures.
+ */
+public class HttpDownloader {
+
+    /** Size of the pooled copy buffers. */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Default connect and read timeout. */
+    public static final int DEFAULT_TIMEOUT = 30_000;
+
+    private static final HttpDownloader DEFAULT = new HttpDownloader(
+            new DownloadScheduler(
+                    LauncherConfig.DEFAULT_REPOSITORY_CONNECTIONS,
+                    LauncherConfig.DEFAULT_DOWNLOAD_RETRIES,
+                    LauncherConfig.DEFAULT_DOWNLOAD_RETRY_DELAY,
+                    0),
+            16,
+            DEFAULT_TIMEOUT);
+
+    /**
+     * The outcome of a conditional download.
+     */
+    public static final class Response {
+
+        private final int status;
+
+        private final String etag;
+
+        private final String lastModified;
+
+        Response(final int status, final String etag, final String lastModified) {
+            this.status = status;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * The status of the response
+         * @return {@code 200}, {@code 304} or {@code 404}
+         */
+        public int getStatus() {
+            return this.status;
+        }
+
+        /**
+         * The entity tag of the resource
+         * @return The entity tag or {@code null}
+         */
+        public String getETag() {
+            return this.etag;
+        }
+
+        /**
+         * The last modified header of the resource
+         * @return The last modified header or {@code null}
+         */
+        public String getLastModified() {
+            return this.lastModified;
+        }
+    }
+
+    private final DownloadScheduler scheduler;
+
+    private final BlockingQueue<byte[]> buffers;
+
+    private final int timeout;
+
+    /**
+     * Create a new downloader
+     * @param scheduler The scheduler for the requests
+     * @param maxPooledBuffers The maximum number of idle buffers kept for reuse
+     * @param timeout The connect and read timeout in milliseconds
+     */
+    public HttpDownloader(final DownloadScheduler scheduler, final int maxPooledBuffers, final int timeout) {
+        this.scheduler = scheduler;
+        this.buffers = new ArrayBlockingQueue<>(Math.max(1, maxPooledBuffers));
+        this.timeout = timeout;
+    }
+
+    /**
+     * Get the downloader used if the launcher did not configure one
+     * @return The shared downloader
+     */
+    public static HttpDownloader getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Get the downloader for an artifact manager configuration
+     * @param context The configuration passed to an artifact provider
+     * @return The downloader configured for the launcher or the default downloader
+     */
+    public static HttpDownloader get(final ArtifactProviderContext context) {
+        final ArtifactProviderContext config =
+                context instanceof RepositoryConfig ? ((RepositoryConfig) context).getParent() : context;
+        if (config instanceof LauncherConfig && ((LauncherConfig) config).getDownloader() != null) {
+            return ((LauncherConfig) config).getDownloader();
+        }
+        return DEFAULT;
+    }
+
+    /**
+     * Get the scheduler for the requests of this downloader
+     * @return The scheduler
+     */
+    public DownloadScheduler getScheduler() {
+        return this.scheduler;
+    }
+
+    /**
+     * Open a connection, adding basic authentication for user info in the url
+     * @param url The url
+     * @param method The request method
+     * @param timeout The connect and read timeout in milliseconds
+     * @return The connection, not connected yet
+     * @throws IOException If the connection can't be opened
+     */
+    public HttpURLConnection open(final URL url, final String method, final int timeout) throws IOException {
+        final URLConnection con = url.openConnection();
+        if (!(con instanceof HttpURLConnection)) {
+            throw new IOException("Not an http url " + url);
+        }
+        final HttpURLConnection http = (HttpURLConnection) con;
+        http.setRequestMethod(method);
+        http.setConnectTimeout(timeout);
+        http.setReadTimeout(timeout);
+        if (url.getUserInfo() != null) {
+            try {
+                http.addRequestProperty(
+                        "Authorization",
+                        "Basic "
+                                + Base64.getEncoder()
+                                        .encodeToString(
+                                                url.toURI().getUserInfo().getBytes(StandardCharsets.UTF_8)));
+            } catch (final URISyntaxException e) {
+                throw new IOException("Invalid url " + url, e);
+            }
+        }
+        return http;
+    }
+
+    /**
+     * Check whether a resource exists without downloading it
+     * @param url The url
+     * @return The response status
+     * @throws IOException If the request fails
+     */
+    public int head(final URL url) throws IOException {
+        return this.scheduler.execute(url, this.timeout, timeout -> {
+            final HttpURLConnection con = this.open(url, "HEAD", timeout);
+            final int status = con.getResponseCode();
+            this.release(con, status);
+            checkTransient(url, con, status);
+            return status;
+        });
+    }
+
+    /**
+     * Download a resource into a file
+     * @param url The url
+     * @param target The target file, an existing file is replaced
+     * @return {@code true} if the resource was downloaded, {@code false} if it does not exist
+     * @throws IOException If the download fails
+     */
+    public boolean download(final URL url, final Path target) throws IOException {
+        return this.download(url, target, null, null).getStatus() == HttpURLConnection.HTTP_OK;
+    }
+
+    /**
+     * Download a resource into a file unless it has not been modified
+     * @param url The url
+     * @param target The target file, an existing file is replaced
+     * @param etag The entity tag of the existing file or {@code null}
+     * @param lastModified The last modified header of the existing file or {@code null}
+     * @return The response, with status {@code 200} if the resource was downloaded,
+     *         {@code 304} if the resource was not modified and {@code 404} if it does not exist
+     * @throws IOException If the download fails
+     */
+    public Response download(final URL url, final Path target, final String etag, final String lastModified)
+            throws IOException {
+        return this.scheduler.execute(
+                url, this.timeout, timeout -> this.download(url, target, etag, lastModified, timeout));
+    }
+
+    private Response download(
+            final URL url, final Path target, final String etag, final String lastModified, final int timeout)
+            throws IOException {
+        final HttpURLConnection con = this.open(url, "GET", timeout);
+        if (etag != null) {
+            con.setRequestProperty("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            con.setRequestProperty("If-Modified-Since", lastModified);
+        }
+        final int status = con.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            this.release(con, status);
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && (etag != null || lastModified != null)) {
+                return new Response(status, etag, lastModified);
+            }
+            if (status == HttpURLConnection.HTTP_NOT_FOUND || status == HttpURLConnection.HTTP_GONE) {
+                return new Response(HttpURLConnection.HTTP_NOT_FOUND, null, null);
+            }
+            throw new DownloadScheduler.StatusException(url, status, getRetryAfter(con));
+        }
+        final Path tmp = CacheFiles.newTempFile(target);
+        try {
+            final MessageDigest sha1 = Checksums.newDigest("SHA-1");
+            final MessageDigest sha256 = Checksums.newDigest("SHA-256");
+            long length = 0;
+            try (final InputStream in = con.getInputStream();
+                    final OutputStream out =
+                            new DigestOutputStream(new DigestOutputStream(Files.newOutputStream(tmp), sha1), sha256)) {
+                length = this.copy(in, out);
+                final long expected = con.getContentLengthLong();
+                if (expected != -1 && expected != length) {
+                    // the connection has been closed early, this is worth a retry
+                    throw new EOFException(
+                            "Incomplete download of " + url + ", got " + length + " of " + expected + " bytes");
+                }
+            } finally {
+                this.scheduler.addBytes(url, length);
+            }
+            final String digest = Checksums.toHex(sha256.digest());
+            this.verify(url, Checksums.toHex(sha1.digest()), digest, timeout);
+            // record the digest before the artifact becomes visible
+            Checksums.writeDigest(target, digest);
+            CacheFiles.publish(tmp, target);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return new Response(status, con.getHeaderField("ETag"), con.getHeaderField("Last-Modified"));
+    }
+
+    /**
+     * Verify the digests of a download against the checksum published by the repository.
+     * The SHA-1 checksum is used if present, the SHA-256 checksum otherwise. If the
+     * repository has no checksum for the url, the download is not verified.
+     * @throws IOException If a checksum does not match or can't be fetched
+     */
+    private void verify(final URL url, final String sha1, final String sha256, final int timeout) throws IOException {
+        if (url.getQuery() != null) {
+            return;
+        }
+        String expected = this.fetchChecksum(url, Checksums.SHA1, 40, timeout);
+        String actual = sha1;
+        if (expected == null) {
+            expected = this.fetchChecksum(url, Checksums.SHA256, 64, timeout);
+            actual = sha256;
+        }
+        if (expected != null && !expected.equals(actual)) {
+            throw new IOException("Checksum mismatch for " + url + ", expected " + expected + " but got " + actual);
+        }
+    }
+
+    private String fetchChecksum(final URL url, final String extension, final int length, final int timeout)
+            throws IOException {
+        final URL checksumURL = new URL(url.toString() + extension);
+        final HttpURLConnection con = this.open(checksumURL, "GET", timeout);
+        final int status = con.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            this.release(con, status);
+            checkTransient(checksumURL, con, status);
+            return null;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final InputStream in = con.getInputStream()) {
+            this.copy(in, out);
+        }
+        this.scheduler.addBytes(url, out.size());
+        return Checksums.parse(new String(out.toByteArray(), StandardCharsets.US_ASCII), length);
+    }
+
+    private static void checkTransient(final URL url, final HttpURLConnection con, final int status)
+            throws IOException {
+        final DownloadScheduler.StatusException e =
+                new DownloadScheduler.StatusException(url, status, getRetryAfter(con));
+        if (e.isTransient()) {
+            throw e;
+        }
+    }
+
+    /**
+     * Get the delay requested with a Retry-After header
+     * @return The delay in milliseconds or {@code -1}
+     */
+    private static long getRetryAfter(final HttpURLConnection con) {
+        final String value = con.getHeaderField("Retry-After");
+        if (value != null) {
+            try {
+                return Math.max(0, Long.parseLong(value.trim()) * 1000);
+            } catch (final NumberFormatException ignore) {
+                // http dates are not supported
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copy a stream using a pooled buffer
+     * @param in The input stream
+     * @param out The output stream
+     * @return The number of bytes copied
+     * @throws IOException If copying fails
+     */
+    public long copy(final InputStream in, final OutputStream out) throws IOException {
+        final byte[] buffer = this.acquire();
+        try {
+            long count = 0;
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                count += n;
+            }
+            return count;
+        } finally {
+            this.buffers.offer(buffer);
+        }
+    }
+
+    private byte[] acquire() {
+        final byte[] buffer = this.buffers.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Consume the body of a response which is not used, this allows the
+     * connection to be reused for the next request
+     */
+    private void release(final HttpURLConnection con, final int status) {
+        try (final InputStream in =
+                status >= HttpURLConnection.HTTP_BAD_REQUEST ? con.getErrorStream() : con.getInputStream()) {
+            if (in != null) {
+                final byte[] buffer = this.acquire();
+                try {
+                    while (in.read(buffer) != -1) {
+                        // discard
+                    }
+                } finally {
+                    this.buffers.offer(buffer);
+                }
+            }
+        } catch (final IOException e) {
+            con.disconnect();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Places a file from a local repository into the cache directory. A hard link
+ * is tried first, then a copy-on-write clone if the file system supports it, and
+ * finally the file is copied. Clones are created with the {@code cp} tool
+ * ({@code --reflink=always} on Linux, {@code -c} on macOS) as java has no API
+ * for them; once cloning failed, it is not tried again.
+ * <p>
+ * The target is created under a temporary name and moved into place, so a
+ * partially copied file is never visible in the cache.
+ */
+public class Localizer {
+
+    /**
+     * The strategy used to place a file
+     */
+    public enum Strategy {
+        HARDLINK,
+        REFLINK,
+        COPY;
+
+        /**
+         * Parse a strategy
+         * @param value The name of the strategy, case insensitive
+         * @return The strategy or {@code null} if the value is empty
+         * @throws IllegalArgumentException If the value is not a strategy
+         */
+        public static Strategy parse(final String value) {
+            return value == null || value.isEmpty() ? null : valueOf(value.toUpperCase(Locale.ENGLISH));
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    private final String[] cloneCommand;
+
+    private volatile boolean cloneSupported;
+
+    private final ConcurrentMap<Strategy, AtomicLong> counts = new ConcurrentHashMap<>();
+
+    /**
+     * Create a localizer for the current platform
+     */
+    public Localizer() {
+        this(getCloneCommand(System.getProperty("os.name", "")));
+    }
+
+    /**
+     * Create a localizer
+     * @param cloneCommand The command to clone a file, the source and target are appended, or {@code null}
+     */
+    Localizer(final String[] cloneCommand) {
+        this.cloneCommand = cloneCommand;
+        this.cloneSupported = cloneCommand != null;
+    }
+
+    static String[] getCloneCommand(final String osName) {
+        final String os = osName.toLowerCase(Locale.ENGLISH);
+        if (os.contains("linux")) {
+            return new String[] {"cp", "--reflink=always"};
+        } else if (os.contains("mac")) {
+            return new String[] {"cp", "-c"};
+        }
+        return null;
+    }
+
+    /**
+     * Place a file at the target location
+     * @param source The source file
+     * @param target The target file
+     * @return The strategy used
+     * @throws IOException If the file can't be placed
+     */
+    public Strategy localize(final Path source, final Path target) throws IOException {
+        final Path tmp = CacheFiles.newTempFile(target);
+        try {
+            Strategy strategy = Strategy.HARDLINK;
+            if (!linkTemp(source, tmp)) {
+                strategy = Strategy.REFLINK;
+                if (!clone(source, tmp)) {
+                    strategy = Strategy.COPY;
+                    try (final InputStream in = Files.newInputStream(source)) {
+                        Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+            }
+            CacheFiles.publish(tmp, target);
+            this.counts.computeIfAbsent(strategy, s -> new AtomicLong()).incrementAndGet();
+            return strategy;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Atomically replace the target with a hard link to the source
+     * @param source The source file
+     * @param target The target file
+     * @return {@code true} if the link has been created
+     * @throws IOException If the temporary file can't be created
+     */
+    static boolean link(final Path source, final Path target) throws IOException {
+        final Path tmp = CacheFiles.newTempFile(target);
+        try {
+            if (linkTemp(source, tmp)) {
+                CacheFiles.publish(tmp, target);
+                return true;
+            }
+            return false;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static boolean linkTemp(final Path source, final Path tmp) {
+        try {
+            Files.delete(tmp);
+            Files.createLink(tmp, source);
+            return true;
+        } catch (final IOException | UnsupportedOperationException | SecurityException e) {
+            // different file system or not supported
+            return false;
+        }
+    }
+
+    private boolean clone(final Path source, final Path tmp) throws IOException {
+        if (!this.cloneSupported) {
+            return false;
+        }
+        final String[] command = new String[this.cloneCommand.length + 2];
+        System.arraycopy(this.cloneCommand, 0, command, 0, this.cloneCommand.length);
+        command[command.length - 2] = source.toString();
+        command[command.length - 1] = tmp.toString();
+        try {
+            final Process process =
+                    new ProcessBuilder(command).redirectErrorStream(true).start();
+            try (final InputStream out = process.getInputStream()) {
+                while (out.read() != -1) {
+                    // discard the output
+                }
+            }
+            if (process.waitFor() == 0) {
+                return true;
+            }
+        } catch (final InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while cloning " + source, ie);
+        } catch (final IOException notAvailable) {
+            // tool not available
+        }
+        this.cloneSupported = false;
+        return false;
+    }
+
+    /**
+     * Get the number of files placed per strategy
+     * @return The counts
+     */
+    public Map<Strategy, Long> getCounts() {
+        final Map<Strategy, Long> result = new TreeMap<>();
+        for (final Map.Entry<Strategy, AtomicLong> e : this.counts.entrySet()) {
+            result.put(e.getKey(), e.getValue().get());
+        }
+        return result;
+    }
+}
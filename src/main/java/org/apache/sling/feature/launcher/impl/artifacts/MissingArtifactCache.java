@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for artifacts known to be missing in a repository. Entries expire after
+ * a configurable time to live and are persisted in the cache directory, so a
+ * missing artifact is only probed once per repository within that time.
+ */
+public class MissingArtifactCache {
+
+    /** The name of the cache file. */
+    public static final String FILE_NAME = "missing.index";
+
+    private static final String HEADER = "# launcher missing artifacts 1";
+
+    private final File file;
+
+    private final long ttl;
+
+    private final ConcurrentMap<String, Long> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private volatile boolean modified;
+
+    private MissingArtifactCache(final File file, final long ttl) {
+        this.file = file;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Load the cache from the directory. Expired entries are dropped.
+     * @param directory The directory
+     * @param ttl The time to live of an entry in milliseconds, {@code 0} disables the cache
+     * @return The cache
+     */
+    public static MissingArtifactCache load(final File directory, final long ttl) {
+        final MissingArtifactCache cache = new MissingArtifactCache(new File(directory, FILE_NAME), ttl);
+        if (ttl > 0) {
+            final long now = System.currentTimeMillis();
+            try {
+                for (final String[] parts : CacheFiles.read(cache.file.toPath(), HEADER)) {
+                    if (parts.length == 3) {
+                        final long timestamp = Long.parseLong(parts[0]);
+                        if (now - timestamp < ttl) {
+                            cache.entries.put(key(parts[1], parts[2]), timestamp);
+                        } else {
+                            cache.modified = true;
+                        }
+                    }
+                }
+            } catch (final IOException | RuntimeException e) {
+                cache.entries.clear();
+                cache.modified = true;
+            }
+        }
+        return cache;
+    }
+
+    private static String key(final String repository, final String path) {
+        return repository.concat(CacheFiles.SEPARATOR).concat(path);
+    }
+
+    /**
+     * Check whether an artifact is known to be missing in a repository
+     * @param repository The repository url
+     * @param path The maven path of the artifact
+     * @return {@code true} if the artifact is known to be missing
+     */
+    public boolean isMissing(final String repository, final String path) {
+        if (this.ttl <= 0) {
+            return false;
+        }
+        final String key = key(repository, path);
+        final Long timestamp = this.entries.get(key);
+        if (timestamp != null) {
+            if (System.currentTimeMillis() - timestamp < this.ttl) {
+                this.hits.incrementAndGet();
+                return true;
+            }
+            this.entries.remove(key, timestamp);
+            this.modified = true;
+        }
+        return false;
+    }
+
+    /**
+     * Record that an artifact is missing in a repository
+     * @param repository The repository url
+     * @param path The maven path of the artifact
+     */
+    public void add(final String repository, final String path) {
+        this.misses.incrementAndGet();
+        if (this.ttl > 0) {
+            this.entries.put(key(repository, path), System.currentTimeMillis());
+            this.modified = true;
+        }
+    }
+
+    /**
+     * Remove all entries for an artifact, for example after it has been found.
+     * @param path The maven path of the artifact
+     */
+    public void remove(final String path) {
+        if (this.entries.keySet().removeIf(key -> key.endsWith(CacheFiles.SEPARATOR.concat(path)))) {
+            this.modified = true;
+        }
+    }
+
+    /**
+     * Get the number of repository lookups avoided by the cache
+     * @return The number of hits
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Get the number of lookups which did not find an artifact in a repository
+     * @return The number of misses
+     */
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Write the cache back if it has been modified
+     * @throws IOException If writing fails
+     */
+    public void save() throws IOException {
+        if (!this.modified) {
+            return;
+        }
+        final List<String[]> lines = new ArrayList<>();
+        for (final Map.Entry<String, Long> entry : new TreeMap<>(this.entries).entrySet()) {
+            final String[] key = entry.getKey().split(CacheFiles.SEPARATOR, 2);
+            lines.add(new String[] {String.valueOf(entry.getValue()), key[0], key[1]});
+        }
+        CacheFiles.write(this.file.toPath(), HEADER, lines);
+        this.modified = false;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+import org.apache.sling.feature.io.artifacts.spi.ArtifactProviderContext;
+
+/**
+ * Cache for documents like feature files which are referenced by an http url
+ * instead of a maven coordinate. Such documents might change at any time, therefore
+ * a cached copy is revalidated with a conditional request using the entity tag and
+ * last modified date sent by the server. Within the configured max age, the cached
+ * copy is used without asking the server.
+ */
+public class RemoteDocumentCache {
+
+    /** The name of the cache file. */
+    public static final String FILE_NAME = "documents.index";
+
+    /** The name of the directory holding the cached documents. */
+    public static final String DIRECTORY = "documents";
+
+    private static final String HEADER = "# launcher remote documents 1";
+
+    private final File file;
+
+    private final Path directory;
+
+    private final long maxAge;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong revalidations = new AtomicLong();
+
+    private final AtomicLong downloads = new AtomicLong();
+
+    private volatile boolean modified;
+
+    private static final class Entry {
+
+        final long fetched;
+
+        final String etag;
+
+        final String lastModified;
+
+        Entry(final long fetched, final String etag, final String lastModified) {
+            this.fetched = fetched;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private RemoteDocumentCache(final File directory, final long maxAge) {
+        this.file = new File(directory, FILE_NAME);
+        this.directory = new File(directory, DIRECTORY).toPath();
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Load the cache from the directory
+     * @param directory The directory
+     * @param maxAge The time in milliseconds a cached document is used without revalidation
+     * @return The cache
+     */
+    public static RemoteDocumentCache load(final File directory, final long maxAge) {
+        final RemoteDocumentCache cache = new RemoteDocumentCache(directory, maxAge);
+        try {
+            for (final String[] parts : CacheFiles.read(cache.file.toPath(), HEADER)) {
+                if (parts.length == 4) {
+                    cache.entries.put(
+                            parts[0],
+                            new Entry(
+                                    Long.parseLong(parts[1]),
+                                    parts[2].isEmpty() ? null : parts[2],
+                                    parts[3].isEmpty() ? null : parts[3]));
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            cache.entries.clear();
+            cache.modified = true;
+        }
+        return cache;
+    }
+
+    /**
+     * Check whether an url is handled by this cache
+     * @param url The url
+     * @return {@code true} for http and https urls
+     */
+    public static boolean isRemote(final String url) {
+        return url.startsWith("http://") || url.startsWith("https://");
+    }
+
+    /**
+     * Get a document, downloading or revalidating it if required
+     * @param url The url of the document
+     * @param downloader The downloader
+     * @param context The context the artifact statistics are reported to
+     * @return The handler for the local copy
+     * @throws IOException If the document can't be found or downloaded
+     */
+    public ArtifactHandler get(final String url, final HttpDownloader downloader, final ArtifactProviderContext context)
+            throws IOException {
+        final Path local = this.directory.resolve(
+                Checksums.toHex(Checksums.newDigest("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8))));
+        Entry entry = this.entries.get(url);
+        if (entry != null && !Files.isRegularFile(local)) {
+            entry = null;
+        }
+        if (entry != null && System.currentTimeMillis() - entry.fetched < this.maxAge) {
+            this.hits.incrementAndGet();
+            context.incCachedArtifacts();
+            return new ArtifactHandler(url, local.toUri().toURL());
+        }
+        final HttpDownloader.Response response = downloader.download(
+                new URL(url), local, entry != null ? entry.etag : null, entry != null ? entry.lastModified : null);
+        if (response.getStatus() == HttpURLConnection.HTTP_NOT_FOUND) {
+            if (this.entries.remove(url) != null) {
+                this.modified = true;
+            }
+            Files.deleteIfExists(local);
+            throw new IOException("Artifact " + url + " not found.");
+        }
+        if (response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            this.revalidations.incrementAndGet();
+            context.incCachedArtifacts();
+        } else {
+            this.downloads.incrementAndGet();
+            context.incDownloadedArtifacts();
+        }
+        this.entries.put(url, new Entry(System.currentTimeMillis(), response.getETag(), response.getLastModified()));
+        this.modified = true;
+        return new ArtifactHandler(url, local.toUri().toURL());
+    }
+
+    /**
+     * Get a document from the cache only, regardless of its age
+     * @param url The url of the document
+     * @param context The context the artifact statistics are reported to
+     * @return The handler for the local copy or {@code null} if the document is not cached
+     * @throws IOException If the url is invalid
+     */
+    public ArtifactHandler getCached(final String url, final ArtifactProviderContext context) throws IOException {
+        final Path local = this.directory.resolve(
+                Checksums.toHex(Checksums.newDigest("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8))));
+        if (!this.entries.containsKey(url) || !Files.isRegularFile(local)) {
+            return null;
+        }
+        this.hits.incrementAndGet();
+        context.incCachedArtifacts();
+        return new ArtifactHandler(url, local.toUri().toURL());
+    }
+
+    /**
+     * Get the number of documents used without asking the server
+     * @return The number of hits
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Get the number of documents the server confirmed as not modified
+     * @return The number of revalidations
+     */
+    public long getRevalidations() {
+        return this.revalidations.get();
+    }
+
+    /**
+     * Get the number of documents downloaded
+     * @return The number of downloads
+     */
+    public long getDownloads() {
+        return this.downloads.get();
+    }
+
+    /**
+     * Write the cache back if it has been modified
+     * @throws IOException If writing fails
+     */
+    public void save() throws IOException {
+        if (!this.modified) {
+            return;
+        }
+        final List<String[]> lines = new ArrayList<>();
+        for (final Map.Entry<String, Entry> e : new TreeMap<>(this.entries).entrySet()) {
+            final Entry entry = e.getValue();
+            lines.add(new String[] {
+                e.getKey(),
+                String.valueOf(entry.fetched),
+                entry.etag != null ? entry.etag : "",
+                entry.lastModified != null ? entry.lastModified : ""
+            });
+        }
+        CacheFiles.write(this.file.toPath(), HEADER, lines);
+        this.modified = false;
+    }
+}
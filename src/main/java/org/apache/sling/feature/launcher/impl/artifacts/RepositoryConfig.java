@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+
+import org.apache.sling.feature.io.artifacts.ArtifactManagerConfig;
+
+/**
+ * Artifact manager configuration for a single repository. The cache directory
+ * is shared with the launcher configuration and all statistics are reported to it.
+ */
+class RepositoryConfig extends ArtifactManagerConfig {
+
+    private final ArtifactManagerConfig parent;
+
+    RepositoryConfig(final ArtifactManagerConfig parent, final String repositoryUrl) {
+        this.parent = parent;
+        this.setRepositoryUrls(new String[] {repositoryUrl});
+        this.setCacheDirectory(parent.getCacheDirectory());
+    }
+
+    ArtifactManagerConfig getParent() {
+        return this.parent;
+    }
+
+    @Override
+    public File getCacheDirectory() {
+        return this.parent.getCacheDirectory();
+    }
+
+    @Override
+    public void incCachedArtifacts() {
+        this.parent.incCachedArtifacts();
+    }
+
+    @Override
+    public void incDownloadedArtifacts() {
+        this.parent.incDownloadedArtifacts();
+    }
+
+    @Override
+    public void incLocalArtifacts() {
+        this.parent.incLocalArtifacts();
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Statistics about the configured repositories. For each repository the number
+ * of lookups, the number of successful lookups and the average latency is
+ * recorded. In addition, the repository an artifact of a group was last found in
+ * is remembered. The statistics are persisted in the cache directory and are used
+ * to order the repositories for a lookup.
+ */
+public class RepositoryStatistics {
+
+    /** The name of the statistics file. */
+    public static final String FILE_NAME = "repositories.index";
+
+    private static final String HEADER = "# launcher repository statistics 1";
+
+    private static final String TYPE_REPOSITORY = "R";
+
+    private static final String TYPE_GROUP = "G";
+
+    /** Weight of a new latency sample for the moving average. */
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final File file;
+
+    private final ConcurrentMap<String, Statistic> repositories = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, String> groups = new ConcurrentHashMap<>();
+
+    private volatile boolean modified;
+
+    /**
+     * The statistic for a single repository
+     */
+    public static final class Statistic {
+
+        private long requests;
+
+        private long successes;
+
+        private double latency;
+
+        public synchronized long getRequests() {
+            return this.requests;
+        }
+
+        public synchronized long getSuccesses() {
+            return this.successes;
+        }
+
+        /**
+         * The moving average of the latency
+         * @return The latency in milliseconds
+         */
+        public synchronized double getLatency() {
+            return this.latency;
+        }
+
+        synchronized void record(final boolean success, final long latencyMillis) {
+            this.latency = this.requests == 0
+                    ? latencyMillis
+                    : (1 - LATENCY_WEIGHT) * this.latency + LATENCY_WEIGHT * latencyMillis;
+            this.requests++;
+            if (success) {
+                this.successes++;
+            }
+        }
+
+        /**
+         * The expected cost of a lookup: the latency divided by the success ratio.
+         * A repository without any requests has no cost, so it is tried early
+         * @return The cost
+         */
+        synchronized double getCost() {
+            if (this.requests == 0) {
+                return 0;
+            }
+            final double ratio = Math.max(0.01, (double) this.successes / this.requests);
+            return Math.max(1, this.latency) / ratio;
+        }
+    }
+
+    private RepositoryStatistics(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the statistics from the directory
+     * @param directory The directory
+     * @return The statistics
+     */
+    public static RepositoryStatistics load(final File directory) {
+        final RepositoryStatistics stats = new RepositoryStatistics(new File(directory, FILE_NAME));
+        try {
+            for (final String[] parts : CacheFiles.read(stats.file.toPath(), HEADER)) {
+                if (parts.length == 5 && TYPE_REPOSITORY.equals(parts[0])) {
+                    final Statistic s = new Statistic();
+                    s.requests = Long.parseLong(parts[2]);
+                    s.successes = Long.parseLong(parts[3]);
+                    s.latency = Double.parseDouble(parts[4]);
+                    stats.repositories.put(parts[1], s);
+                } else if (parts.length == 3 && TYPE_GROUP.equals(parts[0])) {
+                    stats.groups.put(parts[1], parts[2]);
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            stats.repositories.clear();
+            stats.groups.clear();
+            stats.modified = true;
+        }
+        return stats;
+    }
+
+    /**
+     * Get the statistic for a repository
+     * @param repository The repository url
+     * @return The statistic
+     */
+    public Statistic get(final String repository) {
+        return this.repositories.computeIfAbsent(repository, key -> new Statistic());
+    }
+
+    /**
+     * Record the outcome of a lookup
+     * @param repository The repository url
+     * @param groupId The group id of the artifact or {@code null}
+     * @param success Whether the artifact has been found
+     * @param latencyMillis The time the lookup took
+     */
+    public void record(final String repository, final String groupId, final boolean success, final long latencyMillis) {
+        this.get(repository).record(success, latencyMillis);
+        if (success && groupId != null) {
+            this.groups.put(groupId, repository);
+        }
+        this.modified = true;
+    }
+
+    /**
+     * Get the repository an artifact of the group has last been found in
+     * @param groupId The group id
+     * @return The repository url or {@code null}
+     */
+    public String getAffinity(final String groupId) {
+        return groupId == null ? null : this.groups.get(groupId);
+    }
+
+    /**
+     * Order the repositories for a lookup. Local file repositories are always
+     * asked first and in the configured order. They are followed by the remote
+     * repository the group has last been found in and by the remaining remote
+     * repositories, ordered by their expected cost.
+     * @param configured The configured repositories
+     * @param groupId The group id of the artifact or {@code null}
+     * @return The ordered list of repositories
+     */
+    public List<String> order(final String[] configured, final String groupId) {
+        final List<String> result = new ArrayList<>();
+        final List<String> remote = new ArrayList<>();
+        for (final String repository : configured) {
+            if (repository.startsWith("file:")) {
+                result.add(repository);
+            } else {
+                remote.add(repository);
+            }
+        }
+        remote.sort(
+                Comparator.comparingDouble(repository -> this.get(repository).getCost()));
+        final String affinity = this.getAffinity(groupId);
+        if (affinity != null && remote.remove(affinity)) {
+            remote.add(0, affinity);
+        }
+        result.addAll(remote);
+        return result;
+    }
+
+    /**
+     * Write the statistics back if they have been modified
+     * @throws IOException If writing fails
+     */
+    public void save() throws IOException {
+        if (!this.modified) {
+            return;
+        }
+        final List<String[]> lines = new ArrayList<>();
+        for (final Map.Entry<String, Statistic> entry : new TreeMap<>(this.repositories).entrySet()) {
+            final Statistic s = entry.getValue();
+            if (s.getRequests() > 0) {
+                lines.add(new String[] {
+                    TYPE_REPOSITORY,
+                    entry.getKey(),
+                    String.valueOf(s.getRequests()),
+                    String.valueOf(s.getSuccesses()),
+                    String.valueOf(Math.round(s.getLatency()))
+                });
+            }
+        }
+        for (final Map.Entry<String, String> entry : new TreeMap<>(this.groups).entrySet()) {
+            lines.add(new String[] {TYPE_GROUP, entry.getKey(), entry.getValue()});
+        }
+        CacheFiles.write(this.file.toPath(), HEADER, lines);
+        this.modified = false;
+    }
+}
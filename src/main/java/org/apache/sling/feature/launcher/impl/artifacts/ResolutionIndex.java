@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+
+/**
+ * Persistent index of resolved artifacts. The index maps the maven path of an
+ * artifact to the local file it was resolved to, together with the size and the
+ * last modification time of that file. An entry is only used if the file still
+ * has the recorded size and modification time. If the SHA-256 digest of the
+ * file is known, see {@link Checksums}, it is recorded as well, together with the
+ * {@link Localizer.Strategy} if the file has been placed into the cache from a
+ * local repository.
+ */
+public class ResolutionIndex {
+
+    /** The name of the index file. */
+    public static final String FILE_NAME = "resolution.index";
+
+    private static final String HEADER = "# launcher resolution index 3";
+
+    private final File file;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Entry> changed = new ConcurrentHashMap<>();
+
+    private final Set<String> removed = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private volatile boolean modified;
+
+    /**
+     * An entry of the index
+     */
+    public static final class Entry {
+
+        private final String url;
+
+        private final String localFile;
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final String digest;
+
+        private final Localizer.Strategy localization;
+
+        Entry(
+                final String url,
+                final String localFile,
+                final long size,
+                final long lastModified,
+                final String digest,
+                final Localizer.Strategy localization) {
+            this.url = url;
+            this.localFile = localFile;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+            this.localization = localization;
+        }
+
+        /**
+         * The url the artifact was resolved from
+         * @return The url
+         */
+        public String getUrl() {
+            return this.url;
+        }
+
+        /**
+         * The local file
+         * @return The local file
+         */
+        public Path getLocalFile() {
+            return Paths.get(this.localFile);
+        }
+
+        /**
+         * The size of the local file at the time it was recorded
+         * @return The size
+         */
+        public long getSize() {
+            return this.size;
+        }
+
+        /**
+         * The last modification time of the local file at the time it was recorded
+         * @return The last modification time in milliseconds
+         */
+        public long getLastModified() {
+            return this.lastModified;
+        }
+
+        /**
+         * The SHA-256 digest of the local file
+         * @return The digest as lower case hex string or {@code null} if unknown
+         */
+        public String getDigest() {
+            return this.digest;
+        }
+
+        /**
+         * The strategy used to place the local file into the cache
+         * @return The strategy or {@code null} if the file has not been placed from a local repository
+         */
+        public Localizer.Strategy getLocalization() {
+            return this.localization;
+        }
+
+        /**
+         * Check whether the local file still matches this entry
+         * @return {@code true} if the file exists with the recorded size and modification time
+         */
+        boolean isValid() {
+            try {
+                final BasicFileAttributes attrs = Files.readAttributes(getLocalFile(), BasicFileAttributes.class);
+                return attrs.isRegularFile()
+                        && attrs.size() == this.size
+                        && attrs.lastModifiedTime().toMillis() == this.lastModified;
+            } catch (final IOException e) {
+                return false;
+            }
+        }
+    }
+
+    private ResolutionIndex(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the index from the directory. If no index exists yet or the index
+     * can't be read, an empty index is returned.
+     * @param directory The directory
+     * @return The index
+     */
+    public static ResolutionIndex load(final File directory) {
+        final ResolutionIndex index = new ResolutionIndex(new File(directory, FILE_NAME));
+        try {
+            index.entries.putAll(index.readIndex());
+        } catch (final IOException | RuntimeException e) {
+            // start with an empty index
+            index.modified = true;
+        }
+        return index;
+    }
+
+    private Map<String, Entry> readIndex() throws IOException {
+        final Map<String, Entry> result = new TreeMap<>();
+        for (final String[] parts : CacheFiles.read(this.file.toPath(), HEADER)) {
+            if (parts.length == 7) {
+                result.put(
+                        parts[0],
+                        new Entry(
+                                parts[3],
+                                parts[4],
+                                Long.parseLong(parts[1]),
+                                Long.parseLong(parts[2]),
+                                parts[5].isEmpty() ? null : parts[5],
+                                Localizer.Strategy.parse(parts[6])));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the handler for an artifact from the index
+     * @param path The maven path of the artifact
+     * @return The handler or {@code null} if the index has no valid entry for the path
+     */
+    public ArtifactHandler get(final String path) {
+        final Entry entry = this.entries.get(path);
+        if (entry != null) {
+            if (entry.isValid()) {
+                try {
+                    final ArtifactHandler handler = new ArtifactHandler(
+                            entry.getUrl(), entry.getLocalFile().toUri().toURL());
+                    this.hits.incrementAndGet();
+                    return handler;
+                } catch (final IOException ignore) {
+                    // fall through and remove entry
+                }
+            }
+            if (this.entries.remove(path, entry)) {
+                this.changed.put(path, entry);
+                this.removed.add(path);
+                this.modified = true;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the entry which has been removed by this launch because its file changed
+     * @param path The maven path of the artifact
+     * @return The entry or {@code null}
+     */
+    public Entry getChangedEntry(final String path) {
+        return this.changed.get(path);
+    }
+
+    /**
+     * Get the raw entry for a path without validating it
+     * @param path The maven path of the artifact
+     * @return The entry or {@code null}
+     */
+    public Entry getEntry(final String path) {
+        return this.entries.get(path);
+    }
+
+    /**
+     * Record a resolved artifact. Only artifacts resolved to a local file are recorded.
+     * @param path The maven path of the artifact
+     * @param handler The handler of the resolved artifact
+     */
+    public void put(final String path, final ArtifactHandler handler) {
+        this.put(path, handler, null);
+    }
+
+    /**
+     * Record a resolved artifact. Only artifacts resolved to a local file are recorded.
+     * @param path The maven path of the artifact
+     * @param handler The handler of the resolved artifact
+     * @param localization The strategy used to place the file into the cache or {@code null}
+     */
+    public void put(final String path, final ArtifactHandler handler, final Localizer.Strategy localization) {
+        final URL localURL = handler.getLocalURL();
+        if (localURL == null || !"file".equals(localURL.getProtocol())) {
+            return;
+        }
+        try {
+            final Path localFile = Paths.get(localURL.toURI());
+            final BasicFileAttributes attrs = Files.readAttributes(localFile, BasicFileAttributes.class);
+            this.entries.put(
+                    path,
+                    new Entry(
+                            handler.getUrl(),
+                            localFile.toString(),
+                            attrs.size(),
+                            attrs.lastModifiedTime().toMillis(),
+                            getDigest(localFile),
+                            localization));
+            this.removed.remove(path);
+            this.modified = true;
+        } catch (final IOException | URISyntaxException | RuntimeException ignore) {
+            // not indexable
+        }
+    }
+
+    private static String getDigest(final Path localFile) {
+        final String digest = Checksums.readDigest(localFile);
+        return digest != null ? digest : BlobStore.getDigest(localFile);
+    }
+
+    /**
+     * Remove an entry from the index
+     * @param path The maven path of the artifact
+     */
+    public void remove(final String path) {
+        // another launcher might have recorded the path in the meantime
+        this.entries.remove(path);
+        this.removed.add(path);
+        this.modified = true;
+    }
+
+    /**
+     * Get the number of lookups answered from the index
+     * @return The number of hits
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Write the index back if it has been modified. Entries recorded by other
+     * launchers using the same cache in the meantime are kept, entries of this
+     * index take precedence.
+     * @throws IOException If writing fails
+     */
+    public void save() throws IOException {
+        if (!this.modified) {
+            return;
+        }
+        try (final CacheLocks.Lock lock =
+                CacheLocks.get(this.file.getParentFile().toPath()).lock(FILE_NAME)) {
+            Map<String, Entry> merged;
+            try {
+                merged = this.readIndex();
+            } catch (final IOException | RuntimeException e) {
+                merged = new TreeMap<>();
+            }
+            merged.keySet().removeAll(this.removed);
+            merged.putAll(this.entries);
+            this.write(merged);
+        }
+        this.modified = false;
+    }
+
+    private void write(final Map<String, Entry> merged) throws IOException {
+        final List<String[]> lines = new ArrayList<>();
+        for (final Map.Entry<String, Entry> e : merged.entrySet()) {
+            final Entry entry = e.getValue();
+            lines.add(new String[] {
+                e.getKey(),
+                String.valueOf(entry.getSize()),
+                String.valueOf(entry.getLastModified()),
+                entry.getUrl(),
+                entry.localFile,
+                entry.getDigest() != null ? entry.getDigest() : "",
+                entry.getLocalization() != null ? entry.getLocalization().toString() : ""
+            });
+        }
+        CacheFiles.write(this.file.toPath(), HEADER, lines);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+
+/**
+ * Persistent record of the last time the remote repositories were checked for
+ * a SNAPSHOT artifact, together with the local file the artifact was resolved to.
+ * Depending on the {@link SnapshotPolicy}, the recorded file is used without
+ * checking the remote repositories again.
+ */
+public class SnapshotIndex {
+
+    /** The name of the index file. */
+    public static final String FILE_NAME = "snapshots.index";
+
+    private static final String HEADER = "# launcher snapshot checks 1";
+
+    private final File file;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private volatile boolean modified;
+
+    private static final class Entry {
+
+        final long lastCheck;
+
+        final String url;
+
+        final String localFile;
+
+        Entry(final long lastCheck, final String url, final String localFile) {
+            this.lastCheck = lastCheck;
+            this.url = url;
+            this.localFile = localFile;
+        }
+
+        ArtifactHandler toHandler() {
+            final Path local = Paths.get(this.localFile);
+            if (Files.isRegularFile(local)) {
+                try {
+                    return new ArtifactHandler(this.url, local.toUri().toURL());
+                } catch (final IOException ignore) {
+                    // not usable
+                }
+            }
+            return null;
+        }
+    }
+
+    private SnapshotIndex(final File file) {
+        this.file = file;
+    }
+
+    /**
+     * Load the index from the directory
+     * @param directory The directory
+     * @return The index
+     */
+    public static SnapshotIndex load(final File directory) {
+        final SnapshotIndex index = new SnapshotIndex(new File(directory, FILE_NAME));
+        try {
+            for (final String[] parts : CacheFiles.read(index.file.toPath(), HEADER)) {
+                if (parts.length == 4) {
+                    index.entries.put(parts[0], new Entry(Long.parseLong(parts[1]), parts[2], parts[3]));
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            index.entries.clear();
+            index.modified = true;
+        }
+        return index;
+    }
+
+    /**
+     * Get the recorded handler for a SNAPSHOT artifact if the last check is recent
+     * enough for the policy
+     * @param path The maven path of the artifact
+     * @param policy The update policy
+     * @return The handler or {@code null} if the repositories need to be checked
+     */
+    public ArtifactHandler get(final String path, final SnapshotPolicy policy) {
+        final Entry entry = this.entries.get(path);
+        if (entry != null && policy.isUpToDate(entry.lastCheck, System.currentTimeMillis())) {
+            final ArtifactHandler handler = entry.toHandler();
+            if (handler != null) {
+                this.hits.incrementAndGet();
+                return handler;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the recorded handler for a SNAPSHOT artifact regardless of the time of the last check
+     * @param path The maven path of the artifact
+     * @return The handler or {@code null} if there is no usable local file
+     */
+    public ArtifactHandler getLast(final String path) {
+        final Entry entry = this.entries.get(path);
+        return entry != null ? entry.toHandler() : null;
+    }
+
+    /**
+     * Record that the remote repositories have been checked for an artifact
+     * @param path The maven path of the artifact
+     * @param handler The handler of the resolved artifact
+     */
+    public void put(final String path, final ArtifactHandler handler) {
+        final URL localURL = handler.getLocalURL();
+        if (localURL == null || !"file".equals(localURL.getProtocol())) {
+            return;
+        }
+        try {
+            this.entries.put(
+                    path,
+                    new Entry(
+                            System.currentTimeMillis(),
+                            handler.getUrl(),
+                            Paths.get(localURL.toURI()).toString()));
+            this.modified = true;
+        } catch (final URISyntaxException | RuntimeException ignore) {
+            // not recordable
+        }
+    }
+
+    /**
+     * Get the number of SNAPSHOT lookups answered without checking the repositories
+     * @return The number of hits
+     */
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    /**
+     * Write the index back if it has been modified
+     * @throws IOException If writing fails
+     */
+    public void save() throws IOException {
+        if (!this.modified) {
+            return;
+        }
+        final List<String[]> lines = new ArrayList<>();
+        for (final Map.Entry<String, Entry> e : new TreeMap<>(this.entries).entrySet()) {
+            final Entry entry = e.getValue();
+            lines.add(new String[] {e.getKey(), String.valueOf(entry.lastCheck), entry.url, entry.localFile});
+        }
+        CacheFiles.write(this.file.toPath(), HEADER, lines);
+        this.modified = false;
+    }
+}
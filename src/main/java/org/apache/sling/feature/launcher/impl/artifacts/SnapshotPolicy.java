@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * Policy defining how often remote repositories are checked for a newer
+ * version of a SNAPSHOT artifact, following the update policies of maven:
+ * {@code always}, {@code daily}, {@code interval:N} with N in minutes, or {@code never}.
+ */
+public final class SnapshotPolicy {
+
+    /** Always check for a newer version. */
+    public static final SnapshotPolicy ALWAYS = new SnapshotPolicy("always", 0);
+
+    /** Check once a day. */
+    public static final SnapshotPolicy DAILY = new SnapshotPolicy("daily", -1);
+
+    /** Never check for a newer version once the artifact is in the cache. */
+    public static final SnapshotPolicy NEVER = new SnapshotPolicy("never", Long.MAX_VALUE);
+
+    private static final String INTERVAL = "interval:";
+
+    private final String name;
+
+    /** The interval in milliseconds, {@code -1} for daily. */
+    private final long interval;
+
+    private SnapshotPolicy(final String name, final long interval) {
+        this.name = name;
+        this.interval = interval;
+    }
+
+    /**
+     * Parse a policy
+     * @param value The policy
+     * @return The policy
+     * @throws IllegalArgumentException If the value is not a valid policy
+     */
+    public static SnapshotPolicy parse(final String value) {
+        final String policy = value.trim().toLowerCase(Locale.ENGLISH);
+        if (ALWAYS.name.equals(policy)) {
+            return ALWAYS;
+        } else if (DAILY.name.equals(policy)) {
+            return DAILY;
+        } else if (NEVER.name.equals(policy)) {
+            return NEVER;
+        } else if (policy.startsWith(INTERVAL)) {
+            try {
+                final long minutes = Long.parseLong(policy.substring(INTERVAL.length()));
+                if (minutes >= 0) {
+                    return new SnapshotPolicy(policy, minutes * 60_000);
+                }
+            } catch (final NumberFormatException ignore) {
+                // invalid
+            }
+        }
+        throw new IllegalArgumentException("Invalid snapshot policy: " + value);
+    }
+
+    /**
+     * Check whether a check at the given time is recent enough
+     * @param lastCheck The time of the last check in milliseconds
+     * @param now The current time in milliseconds
+     * @return {@code true} if the repositories need not be checked again
+     */
+    public boolean isUpToDate(final long lastCheck, final long now) {
+        if (this.interval == -1) {
+            final Calendar midnight = Calendar.getInstance();
+            midnight.setTimeInMillis(now);
+            midnight.set(Calendar.HOUR_OF_DAY, 0);
+            midnight.set(Calendar.MINUTE, 0);
+            midnight.set(Calendar.SECOND, 0);
+            midnight.set(Calendar.MILLISECOND, 0);
+            return lastCheck >= midnight.getTimeInMillis();
+        }
+        return now - lastCheck < this.interval;
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
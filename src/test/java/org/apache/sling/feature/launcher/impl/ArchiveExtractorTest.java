@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+
+import org.apache.sling.feature.Artifact;
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.Feature;
+import org.apache.sling.feature.io.archive.ArchiveWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ArchiveExtractorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testExtract() throws Exception {
+        final Map<ArtifactId, URL> artifacts = new HashMap<>();
+        final Feature feature = new Feature(ArtifactId.parse("g:feature:1"));
+        for (int i = 1; i <= 3; i++) {
+            final ArtifactId id = ArtifactId.parse("g:bundle" + i + ":1");
+            final byte[] contents = new byte[i * 100_000];
+            contents[0] = (byte) i;
+            final File file = folder.newFile("bundle" + i + ".jar");
+            Files.write(file.toPath(), contents);
+            artifacts.put(id, file.toURI().toURL());
+            feature.getBundles().add(new Artifact(id));
+        }
+        final File archive = folder.newFile("feature.far");
+        try (final OutputStream out = new FileOutputStream(archive);
+                final JarOutputStream jos = ArchiveWriter.write(out, null, artifacts::get, feature)) {
+            jos.finish();
+        }
+
+        final File cacheDir = folder.newFolder("cache");
+        // a truncated file from an earlier run is replaced
+        final File truncated = new File(cacheDir, "g/bundle2/1/bundle2-1.jar");
+        truncated.getParentFile().mkdirs();
+        Files.write(truncated.toPath(), new byte[10]);
+
+        final List<Feature> features = ArchiveExtractor.extract(archive.toPath(), cacheDir.toPath(), 4);
+        assertEquals(1, features.size());
+        assertEquals(feature.getId(), features.get(0).getId());
+        for (int i = 1; i <= 3; i++) {
+            final File extracted = new File(cacheDir, "g/bundle" + i + "/1/bundle" + i + "-1.jar");
+            assertArrayEquals(
+                    Files.readAllBytes(new File(folder.getRoot(), "bundle" + i + ".jar").toPath()),
+                    Files.readAllBytes(extracted.toPath()));
+            // no temporary files are left behind
+            assertEquals(1, extracted.getParentFile().list().length);
+        }
+        assertEquals(1, new File(cacheDir, "g/feature/1").list().length);
+
+        // extracting again keeps the files in the cache
+        final File bundle1 = new File(cacheDir, "g/bundle1/1/bundle1-1.jar");
+        bundle1.setLastModified(1000);
+        ArchiveExtractor.extract(archive.toPath(), cacheDir.toPath(), 4);
+        assertEquals(1000, bundle1.lastModified());
+    }
+}
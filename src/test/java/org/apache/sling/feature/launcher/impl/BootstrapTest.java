@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl;
+
+import java.io.File;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.feature.Artifact;
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.Feature;
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+import org.apache.sling.feature.io.artifacts.ArtifactManager;
+import org.apache.sling.feature.io.json.FeatureJSONWriter;
+import org.apache.sling.feature.launcher.impl.artifacts.ArtifactResolver;
+import org.apache.sling.feature.launcher.impl.artifacts.ArtifactValidator;
+import org.apache.sling.feature.launcher.spi.Launcher;
+import org.apache.sling.feature.launcher.spi.LauncherPrepareContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BootstrapTest {
+
+    private static final ArtifactId FRAMEWORK = ArtifactId.parse("org.apache.felix:org.apache.felix.framework:7.0.0");
+
+    private static final ArtifactId BUNDLE = ArtifactId.parse("g:bundle:1");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LauncherConfig config;
+
+    private Map<ArtifactId, URL> artifacts;
+
+    @Before
+    public void setUp() throws Exception {
+        this.config = new LauncherConfig();
+        this.config.setHomeDirectory(folder.newFolder("home"));
+        this.config.setFrameworkArtifact(FRAMEWORK.toMvnId());
+
+        final Feature app = new Feature(ArtifactId.parse("g:app:1"));
+        app.getBundles().add(new Artifact(BUNDLE));
+        writeFeature(Bootstrap.getApplicationFeatureFile(this.config), app);
+
+        this.artifacts = new LinkedHashMap<>();
+        this.artifacts.put(FRAMEWORK, folder.newFile("framework.jar").toURI().toURL());
+        this.artifacts.put(BUNDLE, folder.newFile("bundle.jar").toURI().toURL());
+    }
+
+    private static void writeFeature(final File file, final Feature feature) throws Exception {
+        file.getParentFile().mkdirs();
+        try (final Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            FeatureJSONWriter.write(writer, feature);
+        }
+    }
+
+    private void writeSnapshot(final String key) throws Exception {
+        final Installation installation = new Installation();
+        installation.addBundle(20, this.artifacts.get(BUNDLE));
+        LaunchSnapshot.create(key, this.artifacts, installation, Bootstrap.getApplicationFeatureFile(this.config))
+                .write(Bootstrap.getLaunchSnapshotFile(this.config));
+    }
+
+    @Test
+    public void testWarmLaunch() throws Exception {
+        writeSnapshot("key");
+        final Launcher launcher = Mockito.mock(Launcher.class);
+        final Bootstrap bootstrap = new Bootstrap(this.config, LoggerFactory.getLogger(BootstrapTest.class));
+        assertFalse(bootstrap.launchFromSnapshot(launcher, Bootstrap.getLaunchSnapshotFile(this.config), "other"));
+        Mockito.verifyNoInteractions(launcher);
+
+        assertTrue(bootstrap.launchFromSnapshot(launcher, Bootstrap.getLaunchSnapshotFile(this.config), "key"));
+        Mockito.verify(launcher)
+                .prepare(Mockito.any(LauncherPrepareContext.class), Mockito.eq(FRAMEWORK), Mockito.any(Feature.class));
+        final List<URL> bundles = this.config.getInstallation().getBundleMap().get(20);
+        assertEquals(1, bundles.size());
+        assertEquals(this.artifacts.get(BUNDLE), bundles.get(0));
+    }
+
+    @Test
+    public void testNoWarmLaunchWithChecks() throws Exception {
+        writeSnapshot("key");
+        final Launcher launcher = Mockito.mock(Launcher.class);
+        final Bootstrap bootstrap = new Bootstrap(this.config, LoggerFactory.getLogger(BootstrapTest.class));
+
+        // offline mode and digest validation must check the artifacts
+        this.config.setOffline(true);
+        assertFalse(bootstrap.launchFromSnapshot(launcher, Bootstrap.getLaunchSnapshotFile(this.config), "key"));
+        this.config.setOffline(false);
+        this.config.setCacheValidation(ArtifactValidator.Level.DIGEST);
+        assertFalse(bootstrap.launchFromSnapshot(launcher, Bootstrap.getLaunchSnapshotFile(this.config), "key"));
+        Mockito.verifyNoInteractions(launcher);
+    }
+
+    @Test
+    public void testRestartAfterLaunchWithFeatureFiles() throws Exception {
+        final Feature app = new Feature(ArtifactId.parse("g:app:1"));
+        app.getBundles().add(new Artifact(BUNDLE));
+        this.config.getInstallation().addBundle(20, this.artifacts.get(BUNDLE));
+        final Bootstrap bootstrap = new Bootstrap(this.config, LoggerFactory.getLogger(BootstrapTest.class));
+        final Launcher launcher = Mockito.mock(Launcher.class);
+
+        // a launch with feature files writes both snapshots
+        bootstrap.writeSnapshots("key", "restart", this.artifacts, app);
+        assertTrue(bootstrap.launchFromSnapshot(launcher, Bootstrap.getRestartSnapshotFile(this.config), "restart"));
+
+        // a restart doesn't evict the snapshot of the launch with feature files
+        bootstrap.writeSnapshots(null, "other", this.artifacts, app);
+        assertTrue(bootstrap.launchFromSnapshot(launcher, Bootstrap.getLaunchSnapshotFile(this.config), "key"));
+        assertTrue(bootstrap.launchFromSnapshot(launcher, Bootstrap.getRestartSnapshotFile(this.config), "other"));
+        assertFalse(bootstrap.launchFromSnapshot(launcher, Bootstrap.getRestartSnapshotFile(this.config), "restart"));
+    }
+
+    /**
+     * Create a resolver reading the feature files from their urls
+     */
+    private static ArtifactResolver newResolver() throws Exception {
+        final ArtifactManager manager = Mockito.mock(ArtifactManager.class);
+        Mockito.when(manager.getArtifactHandler(Mockito.anyString())).thenAnswer(invocation -> {
+            final String url = invocation.getArgument(0);
+            return new ArtifactHandler(url, new URL(url));
+        });
+        return new ArtifactResolver(manager);
+    }
+
+    /**
+     * Assemble the application and wait until it has been written back
+     */
+    private Feature assemble(final Bootstrap bootstrap, final ArtifactResolver resolver) throws Exception {
+        final Feature app = bootstrap.assemble(resolver, new HashMap<>(), LaunchFingerprint.compute(this.config));
+        bootstrap.awaitApplicationWrite();
+        return app;
+    }
+
+    @Test
+    public void testReuseAssembledApplication() throws Exception {
+        final File featureFile = folder.newFile("feature.json");
+        final Feature feature = new Feature(ArtifactId.parse("g:feature:1"));
+        feature.getBundles().add(new Artifact(BUNDLE));
+        writeFeature(featureFile, feature);
+        this.config.addFeatureFiles(featureFile.toURI().toURL().toString());
+
+        // a reused application is read from the file it was written back to
+        final ArtifactId marker = ArtifactId.parse("g:marker:1");
+        final File application = Bootstrap.getApplicationFeatureFile(this.config);
+        final Bootstrap bootstrap = new Bootstrap(this.config, LoggerFactory.getLogger(BootstrapTest.class));
+        try (ArtifactResolver resolver = newResolver()) {
+            assertNotEquals(marker, assemble(bootstrap, resolver).getId());
+            writeFeature(application, new Feature(marker));
+            assertEquals(marker, assemble(bootstrap, resolver).getId());
+
+            // any change of the inputs assembles the application again
+            final Runnable[] changes = {
+                () -> this.config.getVariables().put("v", "1"),
+                () -> this.config.getArtifactClashOverrides().add(ArtifactId.parse("g:bundle:2")),
+                () -> this.config.getConfigClashOverrides().put("pid", "MERGE_LATEST"),
+                () -> this.config.getExtensionConfiguration().put("ext", Collections.singletonMap("k", "v")),
+                () -> {
+                    try {
+                        feature.getBundles().add(new Artifact(ArtifactId.parse("g:other:1")));
+                        writeFeature(featureFile, feature);
+                    } catch (final Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            for (final Runnable change : changes) {
+                writeFeature(application, new Feature(marker));
+                change.run();
+                assertNotEquals(marker, assemble(bootstrap, resolver).getId());
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshotAfterApplicationWrite() throws Exception {
+        final File featureFile = folder.newFile("feature.json");
+        final Feature feature = new Feature(ArtifactId.parse("g:feature:1"));
+        feature.getBundles().add(new Artifact(BUNDLE));
+        writeFeature(featureFile, feature);
+        this.config.addFeatureFiles(featureFile.toURI().toURL().toString());
+        this.config.getInstallation().addBundle(20, this.artifacts.get(BUNDLE));
+
+        final Bootstrap bootstrap = new Bootstrap(this.config, LoggerFactory.getLogger(BootstrapTest.class));
+        final Launcher launcher = Mockito.mock(Launcher.class);
+        try (ArtifactResolver resolver = newResolver()) {
+            final Feature app = bootstrap.assemble(resolver, new HashMap<>(), LaunchFingerprint.compute(this.config));
+
+            // the snapshot refers to the application written back, not the previous one
+            bootstrap.writeSnapshots("key", "restart", this.artifacts, app);
+            assertTrue(bootstrap.launchFromSnapshot(launcher, Bootstrap.getLaunchSnapshotFile(this.config), "key"));
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+
+import org.apache.sling.feature.Artifact;
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.Extension;
+import org.apache.sling.feature.ExtensionState;
+import org.apache.sling.feature.ExtensionType;
+import org.apache.sling.feature.Feature;
+import org.apache.sling.feature.Prototype;
+import org.apache.sling.feature.io.archive.ArchiveWriter;
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+import org.apache.sling.feature.io.artifacts.ArtifactManager;
+import org.apache.sling.feature.io.json.FeatureJSONWriter;
+import org.apache.sling.feature.launcher.impl.artifacts.ArtifactResolver;
+import org.apache.sling.feature.launcher.spi.LauncherPrepareContext;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FeatureProcessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResolveArtifactsKeepsOrder() throws Exception {
+        final LauncherPrepareContext ctx = Mockito.mock(LauncherPrepareContext.class);
+        final List<ArtifactId> ids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final ArtifactId id = ArtifactId.fromMvnId("g:a" + i + ":1");
+            ids.add(id);
+            final long delay = (20 - i) * 5;
+            Mockito.when(ctx.getArtifactFile(id)).thenAnswer(inv -> {
+                Thread.sleep(delay);
+                return new URL("file:/" + id.toMvnPath());
+            });
+        }
+
+        final Map<ArtifactId, URL> result = FeatureProcessor.resolveArtifacts(ctx, ids, 4);
+        assertEquals(ids, new ArrayList<>(result.keySet()));
+        for (final ArtifactId id : ids) {
+            assertEquals(new URL("file:/" + id.toMvnPath()), result.get(id));
+        }
+    }
+
+    @Test
+    public void testResolveArtifactsFailure() throws Exception {
+        final LauncherPrepareContext ctx = Mockito.mock(LauncherPrepareContext.class);
+        final ArtifactId a = ArtifactId.fromMvnId("g:a:1");
+        final ArtifactId b = ArtifactId.fromMvnId("g:b:1");
+        Mockito.when(ctx.getArtifactFile(a)).thenReturn(new URL("file:/a.jar"));
+        Mockito.when(ctx.getArtifactFile(b)).thenThrow(new IOException("b not found"));
+
+        try {
+            FeatureProcessor.resolveArtifacts(ctx, Arrays.asList(a, b), 2);
+            fail();
+        } catch (final IOException expected) {
+            assertEquals("b not found", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testClosureIds() throws Exception {
+        final ArtifactId prototype = ArtifactId.parse("g:p1:slingosgifeature:1");
+        final ArtifactId nested = ArtifactId.parse("g:p2:slingosgifeature:1");
+        final Feature feature = new Feature(ArtifactId.parse("g:f:slingosgifeature:1"));
+        feature.setPrototype(new Prototype(prototype));
+        final Feature p1 = new Feature(prototype);
+        p1.setPrototype(new Prototype(nested));
+        final Map<ArtifactId, Feature> provided = new HashMap<>();
+        provided.put(prototype, p1);
+
+        final Feature app = new Feature(ArtifactId.parse("g:app:1"));
+        app.getBundles().add(new Artifact(ArtifactId.parse("g:b:1")));
+        final Extension packages = new Extension(ExtensionType.ARTIFACTS, "content-packages", ExtensionState.REQUIRED);
+        packages.getArtifacts().add(new Artifact(ArtifactId.parse("g:c:zip:1")));
+        app.getExtensions().add(packages);
+        final Extension assembled =
+                new Extension(ExtensionType.ARTIFACTS, "assembled-features", ExtensionState.TRANSIENT);
+        assembled.getArtifacts().add(new Artifact(feature.getId()));
+        app.getExtensions().add(assembled);
+
+        final List<ArtifactId> ids =
+                FeatureProcessor.getClosureIds(app, Collections.singletonMap(feature.getId(), feature), provided::get);
+        assertEquals(Arrays.asList(ArtifactId.parse("g:b:1"), ArtifactId.parse("g:c:zip:1"), prototype, nested), ids);
+    }
+
+    private String writeFeature(final Feature feature) throws IOException {
+        final File file = folder.newFile(feature.getId().getArtifactId() + ".json");
+        try (final Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            FeatureJSONWriter.write(writer, feature);
+        }
+        return file.toURI().toString();
+    }
+
+    @Test
+    public void testCreateApplicationKeepsOrder() throws Exception {
+        final ArtifactId prototypeId = ArtifactId.parse("g:prototype:slingosgifeature:1");
+        final Feature prototype = new Feature(prototypeId);
+        prototype.getBundles().add(new Artifact(ArtifactId.parse("g:p:1")));
+        final Feature first = new Feature(ArtifactId.parse("g:first:1"));
+        first.getBundles().add(new Artifact(ArtifactId.parse("g:x:1")));
+        final Feature second = new Feature(ArtifactId.parse("g:second:1"));
+        second.getBundles().add(new Artifact(ArtifactId.parse("g:x:2")));
+        final Feature third = new Feature(ArtifactId.parse("g:third:1"));
+        third.setPrototype(new Prototype(prototypeId));
+        third.getBundles().add(new Artifact(ArtifactId.parse("g:y:1")));
+
+        final ArtifactManager manager = Mockito.mock(ArtifactManager.class);
+        final String prototypeUrl = writeFeature(prototype);
+        Mockito.when(manager.getArtifactHandler(prototypeId.toMvnUrl()))
+                .thenReturn(new ArtifactHandler(prototypeUrl, new URL(prototypeUrl)));
+        final List<String> urls = new ArrayList<>();
+        for (final Feature feature : Arrays.asList(first, second, third)) {
+            final String url = writeFeature(feature);
+            urls.add(url);
+            Mockito.when(manager.getArtifactHandler(url)).thenAnswer(invocation -> {
+                // the first feature file is read last
+                if (url.equals(urls.get(0))) {
+                    Thread.sleep(200);
+                }
+                return new ArtifactHandler(url, new URL(url));
+            });
+        }
+
+        for (final boolean reverse : new boolean[] {false, true}) {
+            final LauncherConfig config = new LauncherConfig();
+            config.setResolverThreads(4);
+            config.getArtifactClashOverrides().add(ArtifactId.parse("g:x:LATEST"));
+            final List<String> featureFiles = new ArrayList<>(urls.subList(0, 2));
+            if (reverse) {
+                Collections.reverse(featureFiles);
+            }
+            featureFiles.add(urls.get(2));
+            config.addFeatureFiles(featureFiles.toArray(new String[0]));
+
+            // the features are merged in the order of the feature files, as if read sequentially
+            final Map<ArtifactId, Feature> loadedFeatures = new HashMap<>();
+            final Feature app = FeatureProcessor.createApplication(
+                    LoggerFactory.getLogger(FeatureProcessorTest.class),
+                    config,
+                    new ArtifactResolver(manager),
+                    loadedFeatures);
+            final List<ArtifactId> bundles = new ArrayList<>();
+            for (final Artifact bundle : app.getBundles()) {
+                bundles.add(bundle.getId());
+            }
+            assertEquals(
+                    Arrays.asList(
+                            ArtifactId.parse(reverse ? "g:x:1" : "g:x:2"),
+                            ArtifactId.parse("g:p:1"),
+                            ArtifactId.parse("g:y:1")),
+                    bundles);
+            assertEquals(4, loadedFeatures.size());
+            assertTrue(loadedFeatures.containsKey(first.getId()));
+            assertTrue(loadedFeatures.containsKey(third.getId()));
+            assertTrue(loadedFeatures.containsKey(app.getId()));
+        }
+    }
+
+    @Test
+    public void testReadApplicationExtractsArchives() throws Exception {
+        final ArtifactId bundle = ArtifactId.parse("g:bundle:1");
+        final File jar = folder.newFile("bundle.jar");
+        Files.write(jar.toPath(), new byte[] {1, 2, 3});
+        final Feature feature = new Feature(ArtifactId.parse("g:feature:1"));
+        feature.getBundles().add(new Artifact(bundle));
+        final File archive = folder.newFile("feature.far");
+        try (final OutputStream out = new FileOutputStream(archive);
+                final JarOutputStream jos =
+                        ArchiveWriter.write(out, null, id -> id.equals(bundle) ? toURL(jar) : null, feature)) {
+            jos.finish();
+        }
+        final File application = folder.newFile("application.json");
+        try (final Writer writer = Files.newBufferedWriter(application.toPath(), StandardCharsets.UTF_8)) {
+            FeatureJSONWriter.write(writer, feature);
+        }
+
+        final LauncherConfig config = new LauncherConfig();
+        config.setCacheDirectory(folder.newFolder("cache"));
+        final String url = archive.toURI().toString();
+        config.addFeatureFiles(url);
+        final ArtifactManager manager = Mockito.mock(ArtifactManager.class);
+        Mockito.when(manager.getArtifactHandler(url))
+                .thenReturn(new ArtifactHandler(url, archive.toURI().toURL()));
+
+        // the artifacts of the archive are available without assembling the application again
+        try (ArtifactResolver resolver = new ArtifactResolver(manager, config)) {
+            final Map<ArtifactId, Feature> loadedFeatures = new HashMap<>();
+            final Feature app = FeatureProcessor.readApplication(
+                    LoggerFactory.getLogger(FeatureProcessorTest.class), config, resolver, application, loadedFeatures);
+            assertEquals(feature.getId(), app.getId());
+        }
+        assertArrayEquals(
+                new byte[] {1, 2, 3},
+                Files.readAllBytes(new File(config.getCacheDirectory(), bundle.toMvnPath()).toPath()));
+    }
+
+    private static URL toURL(final File file) {
+        try {
+            return file.toURI().toURL();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Map;
+
+import org.apache.sling.feature.ArtifactId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class LaunchSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        final File bundle = folder.newFile("a-1.jar");
+        Files.write(bundle.toPath(), new byte[] {1, 2, 3});
+        final File application = folder.newFile("application.json");
+        final URL url = bundle.toURI().toURL();
+
+        final Installation installation = new Installation();
+        installation.getFrameworkProperties().put("a", "b");
+        installation.addBundle(20, url);
+        installation.addAppJar(url);
+        final Dictionary<String, Object> properties = new Hashtable<>();
+        properties.put("string", "value");
+        properties.put("long", 5L);
+        properties.put("ints", new int[] {1, 2});
+        properties.put("strings", new String[] {"x", "y"});
+        installation.addConfiguration("pid", null, properties);
+        installation.addConfiguration("name", "factory", new Hashtable<>(Collections.singletonMap("b", true)));
+
+        final Map<ArtifactId, URL> artifacts = Collections.singletonMap(ArtifactId.parse("g:a:1"), url);
+        final LaunchSnapshot snapshot = LaunchSnapshot.create("key", artifacts, installation, application);
+        assertNotNull(snapshot);
+        final Path file = folder.getRoot().toPath().resolve(LaunchSnapshot.FILE_NAME);
+        snapshot.write(file);
+
+        assertNull(LaunchSnapshot.read(file, "other"));
+        final LaunchSnapshot read = LaunchSnapshot.read(file, "key");
+        assertNotNull(read);
+        assertEquals(artifacts, read.getArtifacts());
+        assertEquals(2, read.getFileCount());
+
+        final Installation restored = new Installation();
+        read.apply(restored);
+        assertEquals(installation.getFrameworkProperties(), restored.getFrameworkProperties());
+        assertEquals(installation.getBundleMap(), restored.getBundleMap());
+        assertEquals(installation.getAppJars(), restored.getAppJars());
+        assertEquals(2, restored.getConfigurations().size());
+        final Object[] cfg = restored.getConfigurations().get(0);
+        assertEquals("pid", cfg[0]);
+        assertNull(cfg[1]);
+        @SuppressWarnings("unchecked")
+        final Dictionary<String, Object> props = (Dictionary<String, Object>) cfg[2];
+        assertEquals("value", props.get("string"));
+        assertEquals(5L, props.get("long"));
+        assertArrayEquals(new int[] {1, 2}, (int[]) props.get("ints"));
+        assertArrayEquals(new String[] {"x", "y"}, (String[]) props.get("strings"));
+        assertEquals("factory", restored.getConfigurations().get(1)[1]);
+
+        // a changed artifact invalidates the snapshot
+        Files.write(bundle.toPath(), new byte[] {1, 2, 3, 4});
+        assertNull(LaunchSnapshot.read(file, "key"));
+    }
+
+    @Test
+    public void testSnapshotArtifacts() throws Exception {
+        final File bundle = folder.newFile("a-1-SNAPSHOT.jar");
+        final URL url = bundle.toURI().toURL();
+        final Installation installation = new Installation();
+        installation.addBundle(20, url);
+
+        // the update policy for snapshots must be applied on every launch
+        assertNull(LaunchSnapshot.create(
+                "key",
+                Collections.singletonMap(ArtifactId.parse("g:a:1-SNAPSHOT"), url),
+                installation,
+                folder.newFile("application.json")));
+    }
+
+    @Test
+    public void testUnsupported() throws Exception {
+        final Installation installation = new Installation();
+        installation.addBundle(1, new URL("http://host/a-1.jar"));
+        assertNull(
+                LaunchSnapshot.create("key", Collections.emptyMap(), installation, folder.newFile("application.json")));
+    }
+
+    @Test
+    public void testRestartKey() throws Exception {
+        final LauncherConfig config = new LauncherConfig();
+        final String key = LaunchSnapshot.computeRestartKey(config);
+        assertEquals(key, LaunchSnapshot.computeRestartKey(config));
+
+        // a framework property passed to an earlier launch is not restored
+        config.getInstallation().getFrameworkProperties().put("a", "b");
+        final String withProperty = LaunchSnapshot.computeRestartKey(config);
+        assertNotEquals(key, withProperty);
+
+        config.getVariables().put("a", "b");
+        assertNotEquals(withProperty, LaunchSnapshot.computeRestartKey(config));
+    }
+}
@@ -18,10 +18,16 @@
  */
 package org.apache.sling.feature.launcher.impl;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.security.Permission;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.cli.Option;
@@ -188,6 +194,43 @@ public class MainIT {
         assertEquals("foo", config.getFrameworkArtifact());
     }
 
+    @Test
+    public void testParseBatch() throws Exception {
+
+        final File file = File.createTempFile("batch", ".txt");
+        try {
+            Files.write(
+                    file.toPath(),
+                    Arrays.asList("# comment", "-f a.json -V x=1", "", "-f b.json -i g:b:1 -V \"y=a b\""),
+                    StandardCharsets.UTF_8);
+            LauncherConfig config = new LauncherConfig();
+            Main.parseArgs(config, new String[] {"-" + Main.OPT_BATCH_FILE, file.getPath(), "-c", "cache"});
+            assertEquals(file, config.getBatchFile());
+
+            final List<LauncherConfig> applications =
+                    Main.parseBatch(file, new String[] {"-" + Main.OPT_BATCH_FILE, file.getPath(), "-c", "cache"});
+            assertEquals(2, applications.size());
+            assertEquals(
+                    Collections.singletonList("a.json"),
+                    new ArrayList<>(applications.get(0).getFeatureFiles()));
+            assertEquals("1", applications.get(0).getVariables().get("x"));
+            assertEquals("cache", applications.get(0).getCacheDirectory().toString());
+            assertNull(applications.get(0).getBatchFile());
+            assertEquals(ArtifactId.parse("g:b:1"), applications.get(1).getLaunchFeatureId());
+            assertNull(applications.get(1).getVariables().get("x"));
+            assertEquals("a b", applications.get(1).getVariables().get("y"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSplitBatchLine() {
+        assertEquals(
+                Arrays.asList("-f", "/a b/c.json", "-V", "x=1 2", "-V", "y="),
+                Main.splitBatchLine("-f '/a b/c.json'  -V \"x=1 2\" -V y=\"\""));
+    }
+
     @Test
     public void testParse_Config_Clash() {
 
@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+import org.apache.sling.feature.launcher.impl.artifacts.ArtifactResolver;
+import org.apache.sling.feature.launcher.impl.artifacts.Localizer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PreparedLaunchTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        final File application = folder.newFile("application.json");
+        Files.write(application.toPath(), "{\"id\":\"g:app:1\"}".getBytes(StandardCharsets.UTF_8));
+        final File jar = folder.newFile("a-1.jar");
+        Files.write(jar.toPath(), new byte[] {1, 2, 3});
+        final ArtifactId framework = ArtifactId.fromMvnId("g:a:1");
+        final Map<ArtifactId, URL> artifacts = new LinkedHashMap<>();
+        artifacts.put(framework, jar.toURI().toURL());
+
+        final File directory = new File(folder.getRoot(), "prepared");
+        assertNull(PreparedLaunch.read(directory));
+        PreparedLaunch.write(directory, "abc", application, framework, artifacts, new Localizer());
+
+        final PreparedLaunch prepared = PreparedLaunch.read(directory);
+        assertNotNull(prepared);
+        assertEquals("abc", prepared.getFingerprint());
+        assertEquals(framework, prepared.getFramework());
+        assertEquals(Collections.singletonMap(framework, 3L), prepared.getArtifacts());
+        assertNull(prepared.verify());
+        assertEquals(new File(directory, "artifacts").toURI().toString(), prepared.getRepositoryUrl());
+
+        // a changed artifact is detected
+        final File copy = new File(directory, "artifacts/g/a/1/a-1.jar");
+        Files.delete(copy.toPath());
+        Files.write(copy.toPath(), new byte[] {1});
+        assertNotNull(prepared.verify());
+    }
+
+    @Test
+    public void testFingerprint() throws Exception {
+        final File feature = folder.newFile("feature.json");
+        Files.write(feature.toPath(), "{\"id\":\"g:f:1\"}".getBytes(StandardCharsets.UTF_8));
+
+        final LauncherConfig config = new LauncherConfig();
+        config.setHomeDirectory(folder.getRoot());
+        config.addFeatureFiles(feature.getAbsolutePath());
+        final String fingerprint = LaunchFingerprint.compute(config);
+        assertEquals(fingerprint, LaunchFingerprint.compute(config));
+
+        config.getVariables().put("a", "b");
+        final String withVariable = LaunchFingerprint.compute(config);
+        assertNotEquals(fingerprint, withVariable);
+
+        Files.write(feature.toPath(), "{\"id\":\"g:f:2\"}".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(withVariable, LaunchFingerprint.compute(config));
+    }
+
+    @Test
+    public void testReproducible() throws Exception {
+        final File feature = folder.newFile("feature.json");
+        final LauncherConfig config = new LauncherConfig();
+        config.setHomeDirectory(folder.getRoot());
+        config.addFeatureFiles(feature.getAbsolutePath(), "mvn:g/f/1/slingosgifeature");
+        assertTrue(LaunchFingerprint.isReproducible(config));
+
+        config.addFeatureFiles("mvn:g/f/1-SNAPSHOT/slingosgifeature");
+        assertFalse(LaunchFingerprint.isReproducible(config));
+
+        config.getFeatureFiles().clear();
+        config.addFeatureFiles("https://host/feature.json");
+        assertFalse(LaunchFingerprint.isReproducible(config));
+
+        // a local feature with a snapshot prototype changes with the prototype
+        final File prototype = folder.newFile("prototype.json");
+        Files.write(
+                prototype.toPath(),
+                "{\"id\":\"g:f:2\",\"prototype\":{\"id\":\"g:p:1-SNAPSHOT\"}}".getBytes(StandardCharsets.UTF_8));
+        config.getFeatureFiles().clear();
+        config.addFeatureFiles(prototype.toURI().toString());
+        assertFalse(LaunchFingerprint.isReproducible(config));
+    }
+
+    @Test
+    public void testFingerprintOfRemoteFeature() throws Exception {
+        final File feature = folder.newFile("feature.json");
+        Files.write(feature.toPath(), "{\"id\":\"g:f:1\"}".getBytes(StandardCharsets.UTF_8));
+        final String url = "https://host/feature.json";
+        final ArtifactResolver resolver = Mockito.mock(ArtifactResolver.class);
+        Mockito.when(resolver.getArtifactHandler(url))
+                .thenReturn(new ArtifactHandler(url, feature.toURI().toURL()));
+
+        final LauncherConfig config = new LauncherConfig();
+        config.setHomeDirectory(folder.getRoot());
+        config.addFeatureFiles(url);
+        final String fingerprint = LaunchFingerprint.compute(config, resolver);
+        assertEquals(fingerprint, LaunchFingerprint.compute(config, resolver));
+        assertNotEquals(fingerprint, LaunchFingerprint.compute(config));
+
+        // changed contents under the same url are detected
+        Files.write(feature.toPath(), "{\"id\":\"g:f:2\"}".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(fingerprint, LaunchFingerprint.compute(config, resolver));
+    }
+}
@@ -0,0 +1,467 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+import org.apache.sling.feature.io.artifacts.ArtifactManager;
+import org.apache.sling.feature.launcher.impl.LauncherConfig;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArtifactResolverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSingleResolution() throws Exception {
+        final ArtifactId id = ArtifactId.fromMvnId("g:a:1");
+        final URL url = new URL("file:/a-1.jar");
+        final CountDownLatch latch = new CountDownLatch(1);
+        final ArtifactManager manager = Mockito.mock(ArtifactManager.class);
+        Mockito.when(manager.getArtifactHandler(id.toMvnUrl())).thenAnswer(inv -> {
+            latch.await();
+            return new ArtifactHandler(id.toMvnUrl(), url);
+        });
+
+        final ArtifactResolver resolver = new ArtifactResolver(manager);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<URL>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> resolver.getArtifactFile(id)));
+            }
+            latch.countDown();
+            for (final Future<URL> f : futures) {
+                assertEquals(url, f.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(url, resolver.getArtifactFile(id));
+        Mockito.verify(manager, Mockito.times(1)).getArtifactHandler(id.toMvnUrl());
+    }
+
+    @Test
+    public void testFailureIsNotRemembered() throws Exception {
+        final ArtifactId id = ArtifactId.fromMvnId("g:a:1");
+        final ArtifactManager manager = Mockito.mock(ArtifactManager.class);
+        Mockito.when(manager.getArtifactHandler(id.toMvnUrl())).thenThrow(new IOException("not found"));
+
+        final ArtifactResolver resolver = new ArtifactResolver(manager);
+        try {
+            resolver.getArtifactFile(id);
+            fail();
+        } catch (final IOException expected) {
+            // expected
+        }
+        assertNull(resolver.provide(id));
+        Mockito.verify(manager, Mockito.times(2)).getArtifactHandler(id.toMvnUrl());
+    }
+
+    private static String metadata(final String timestamp, final int buildNumber) {
+        return "<metadata><versioning><snapshot><timestamp>" + timestamp + "</timestamp><buildNumber>" + buildNumber
+                + "</buildNumber></snapshot></versioning></metadata>";
+    }
+
+    @Test
+    public void testSnapshotPolicy() throws Exception {
+        final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+        final AtomicInteger requests = new AtomicInteger();
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            final byte[] body = contents.get(exchange.getRequestURI().getPath());
+            if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        try {
+            contents.put(
+                    "/repo/g/a/1-SNAPSHOT/maven-metadata.xml",
+                    metadata("20260101.120000", 1).getBytes(StandardCharsets.UTF_8));
+            contents.put("/repo/g/a/1-SNAPSHOT/a-1-20260101.120000-1.jar", new byte[] {1});
+
+            final File cacheDir = folder.newFolder();
+            final LauncherConfig config = new LauncherConfig();
+            config.setCacheDirectory(cacheDir);
+            config.setRepositoryUrls(
+                    new String[] {"http://localhost:" + server.getAddress().getPort() + "/repo"});
+            config.setDownloader(new HttpDownloader(new DownloadScheduler(2, 0, 1, 0), 1, 5000));
+            final ArtifactManager manager = Mockito.mock(ArtifactManager.class);
+            final ArtifactId id = ArtifactId.fromMvnId("g:a:1-SNAPSHOT");
+
+            try (ArtifactResolver resolver = new ArtifactResolver(manager, config)) {
+                assertEquals(
+                        new File(cacheDir, "g/a/1-SNAPSHOT/a-1-20260101.120000-1.jar")
+                                .toURI()
+                                .toURL(),
+                        resolver.getArtifactFile(id));
+                resolver.persist();
+            }
+
+            // within the policy window, the repository is not asked
+            requests.set(0);
+            config.setSnapshotPolicy(SnapshotPolicy.DAILY);
+            try (ArtifactResolver resolver = new ArtifactResolver(manager, config)) {
+                assertEquals(
+                        new File(cacheDir, "g/a/1-SNAPSHOT/a-1-20260101.120000-1.jar")
+                                .toURI()
+                                .toURL(),
+                        resolver.getArtifactFile(id));
+                assertEquals(1, resolver.getSnapshots().getHits());
+            }
+            assertEquals(0, requests.get());
+
+            // a new snapshot is picked up once the policy requires a check
+            contents.put(
+                    "/repo/g/a/1-SNAPSHOT/maven-metadata.xml",
+                    metadata("20260102.120000", 2).getBytes(StandardCharsets.UTF_8));
+            contents.put("/repo/g/a/1-SNAPSHOT/a-1-20260102.120000-2.jar", new byte[] {2});
+            config.setSnapshotPolicy(SnapshotPolicy.ALWAYS);
+            try (ArtifactResolver resolver = new ArtifactResolver(manager, config)) {
+                assertEquals(
+                        new File(cacheDir, "g/a/1-SNAPSHOT/a-1-20260102.120000-2.jar")
+                                .toURI()
+                                .toURL(),
+                        resolver.getArtifactFile(id));
+            }
+            Mockito.verifyNoInteractions(manager);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testServeInPlace() throws Exception {
+        final File jar = folder.newFile("repository.jar");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jar))) {
+            zos.putNextEntry(new ZipEntry("repo/g/a/1/a-1.jar"));
+            zos.write(new byte[] {1, 2, 3});
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("g/b/1/b-1.jar"));
+            zos.write(new byte[] {4});
+            zos.closeEntry();
+        }
+
+        final File cacheDir = folder.newFolder();
+        final LauncherConfig config = new LauncherConfig();
+        config.setCacheDirectory(cacheDir);
+        config.setServeInPlace(true);
+        config.setRepositoryUrls(new String[] {"jar:" + jar.toURI() + "!/repo"});
+        final ArtifactManager manager = Mockito.mock(ArtifactManager.class);
+
+        try (ArtifactResolver resolver = new ArtifactResolver(manager, config)) {
+            final URL a = resolver.getArtifactFile(ArtifactId.fromMvnId("g:a:1"));
+            assertEquals("jar", a.getProtocol());
+            assertArrayEquals(new byte[] {1, 2, 3}, read(a));
+
+            // artifacts outside of the repository path are not served
+            assertNull(resolver.provide(ArtifactId.fromMvnId("g:b:1")));
+
+            resolver.addArchive(ArchiveIndex.open(jar.toPath(), ""));
+            assertArrayEquals(new byte[] {4}, read(resolver.getArtifactFile(ArtifactId.fromMvnId("g:b:1"))));
+            assertEquals(2, resolver.getInPlaceArtifacts());
+        }
+        assertEquals(0, cacheDir.list((dir, name) -> !name.startsWith(".")).length);
+    }
+
+    @Test
+    public void testLocalFile() throws Exception {
+        final File jar = folder.newFile("app.jar");
+        writeJar(jar, new byte[] {1});
+
+        final LauncherConfig config = new LauncherConfig();
+        config.setCacheDirectory(folder.newFolder());
+        final ArtifactResolver resolver = new ArtifactResolver(Mockito.mock(ArtifactManager.class), config);
+        final URL a = resolver.getLocalFile(new URL("jar:" + jar.toURI() + "!/g1/a/1/a-1.jar"));
+        final URL b = resolver.getLocalFile(new URL("jar:" + jar.toURI() + "!/g2/a/1/a-1.jar"));
+        assertEquals("file", a.getProtocol());
+        assertNotEquals(a, b);
+        assertArrayEquals(new byte[] {1}, read(a));
+        assertArrayEquals(new byte[] {2}, read(b));
+
+        // an updated archive is copied again
+        writeJar(jar, new byte[] {3, 3});
+        jar.setLastModified(jar.lastModified() - 10000);
+        assertEquals(a, resolver.getLocalFile(new URL("jar:" + jar.toURI() + "!/g1/a/1/a-1.jar")));
+        assertArrayEquals(new byte[] {3, 3}, read(a));
+    }
+
+    private static void writeJar(final File jar, final byte[] contents) throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jar))) {
+            zos.putNextEntry(new ZipEntry("g1/a/1/a-1.jar"));
+            zos.write(contents);
+            zos.closeEntry();
+            zos.putNextEntry(new ZipEntry("g2/a/1/a-1.jar"));
+            zos.write(new byte[] {2});
+            zos.closeEntry();
+        }
+    }
+
+    @Test
+    public void testOrderedMixedRepositories() throws Exception {
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            if (exchange.getRequestURI().getPath().equals("/repo/g/a/1/a-1.jar")) {
+                exchange.sendResponseHeaders(200, 1);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(1);
+                }
+            } else {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            final File local = folder.newFolder();
+            final File localFile = new File(local, "g/a/1/a-1.jar");
+            localFile.getParentFile().mkdirs();
+            try (OutputStream out = new FileOutputStream(localFile)) {
+                out.write(2);
+            }
+            final LauncherConfig config = new LauncherConfig();
+            config.setCacheDirectory(folder.newFolder());
+            config.setRepositoryUrls(new String[] {
+                "http://localhost:" + server.getAddress().getPort() + "/repo",
+                local.toURI().toString()
+            });
+            config.setDownloader(new HttpDownloader(new DownloadScheduler(2, 0, 1, 0), 1, 5000));
+
+            // the remote repository configured first is asked first
+            try (ArtifactResolver resolver = new ArtifactResolver(Mockito.mock(ArtifactManager.class), config)) {
+                assertArrayEquals(new byte[] {1}, read(resolver.getArtifactFile(ArtifactId.fromMvnId("g:a:1"))));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testOffline() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            final File cacheDir = folder.newFolder();
+            final File cached = new File(cacheDir, "g/a/1/a-1.jar");
+            cached.getParentFile().mkdirs();
+            try (OutputStream out = new FileOutputStream(cached)) {
+                out.write(1);
+            }
+            final LauncherConfig config = new LauncherConfig();
+            config.setCacheDirectory(cacheDir);
+            config.setRepositoryUrls(
+                    new String[] {"http://localhost:" + server.getAddress().getPort() + "/repo"});
+            config.setOffline(true);
+            final ArtifactManager manager = Mockito.mock(ArtifactManager.class);
+
+            try (ArtifactResolver resolver = new ArtifactResolver(manager, config)) {
+                assertEquals(cached.toURI().toURL(), resolver.getArtifactFile(ArtifactId.fromMvnId("g:a:1")));
+                try {
+                    resolver.getArtifactFile(ArtifactId.fromMvnId("g:b:1"));
+                    fail("Artifact must not be resolved offline");
+                } catch (final IOException expected) {
+                    // expected
+                }
+                try {
+                    resolver.getArtifactHandler(
+                            "http://localhost:" + server.getAddress().getPort() + "/f.json");
+                    fail("Document must not be fetched offline");
+                } catch (final IOException expected) {
+                    // expected
+                }
+                assertEquals(2, resolver.getOfflineMissing().size());
+                assertTrue(resolver.getOfflineMissing().contains("g:b:1"));
+            }
+            assertEquals(0, requests.get());
+            Mockito.verifyNoInteractions(manager);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testHedgedFirstSuccessWins() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch slowAnswered = new CountDownLatch(1);
+        final AtomicInteger slowDownloads = new AtomicInteger();
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/slow", exchange -> {
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                slowAnswered.countDown();
+            } else {
+                slowDownloads.incrementAndGet();
+                exchange.sendResponseHeaders(200, 1);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(1);
+                }
+            }
+        });
+        server.createContext("/fast", exchange -> {
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            } else {
+                exchange.sendResponseHeaders(200, 1);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(2);
+                }
+            }
+        });
+        server.start();
+        try {
+            final String slow = "http://localhost:" + server.getAddress().getPort() + "/slow";
+            final String fast = "http://localhost:" + server.getAddress().getPort() + "/fast";
+            final LauncherConfig config = new LauncherConfig();
+            config.setCacheDirectory(folder.newFolder());
+            config.setRepositoryUrls(new String[] {slow, fast});
+            config.setRepositoryMode(LauncherConfig.RepositoryMode.HEDGED);
+            config.setRepositoryHedgeDelay(10);
+            config.setDownloader(new HttpDownloader(new DownloadScheduler(2, 0, 1, 0), 1, 5000));
+
+            try (ArtifactResolver resolver = new ArtifactResolver(Mockito.mock(ArtifactManager.class), config)) {
+                // the repository answering first is used although it is configured last
+                assertArrayEquals(new byte[] {2}, read(resolver.getArtifactFile(ArtifactId.fromMvnId("g:a:1"))));
+                assertEquals(0, slowDownloads.get());
+
+                // the probe and the download of the winner count as one lookup
+                assertEquals(1, resolver.getStatistics().get(fast).getRequests());
+                assertEquals(1, resolver.getStatistics().get(fast).getSuccesses());
+
+                // the losing probe is cancelled and its late answer is not recorded
+                release.countDown();
+                assertTrue(slowAnswered.await(10, TimeUnit.SECONDS));
+                Thread.sleep(200);
+                assertEquals(0, resolver.getStatistics().get(slow).getRequests());
+            }
+        } finally {
+            release.countDown();
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testHedgedFallsBackToOrder() throws Exception {
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                // a repository not supporting probes
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+            } else {
+                exchange.sendResponseHeaders(200, 1);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(exchange.getRequestURI().getPath().startsWith("/first/") ? 1 : 2);
+                }
+            }
+        });
+        server.start();
+        try {
+            final String first = "http://localhost:" + server.getAddress().getPort() + "/first";
+            final String second = "http://localhost:" + server.getAddress().getPort() + "/second";
+            final LauncherConfig config = new LauncherConfig();
+            config.setCacheDirectory(folder.newFolder());
+            config.setRepositoryUrls(new String[] {first, second});
+            config.setRepositoryMode(LauncherConfig.RepositoryMode.HEDGED);
+            config.setRepositoryHedgeDelay(10);
+            config.setDownloader(new HttpDownloader(new DownloadScheduler(2, 0, 1, 0), 1, 5000));
+
+            // all probes fail, the repositories are asked in the configured order
+            try (ArtifactResolver resolver = new ArtifactResolver(Mockito.mock(ArtifactManager.class), config)) {
+                assertArrayEquals(new byte[] {1}, read(resolver.getArtifactFile(ArtifactId.fromMvnId("g:a:1"))));
+                assertEquals(1, resolver.getStatistics().get(first).getRequests());
+                assertEquals(1, resolver.getStatistics().get(second).getRequests());
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static byte[] read(final URL url) throws IOException {
+        final URLConnection connection = url.openConnection();
+        connection.setUseCaches(false);
+        try (InputStream in = connection.getInputStream()) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int l;
+            while ((l = in.read(buffer)) > 0) {
+                out.write(buffer, 0, l);
+            }
+            return out.toByteArray();
+        }
+    }
+}
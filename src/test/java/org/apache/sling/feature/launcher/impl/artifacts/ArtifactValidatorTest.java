@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.sling.feature.ArtifactId;
+import org.apache.sling.feature.io.artifacts.ArtifactManager;
+import org.apache.sling.feature.launcher.impl.LauncherConfig;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.slf4j.LoggerFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArtifactValidatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testQuarantineAndRefetch() throws Exception {
+        final byte[] body = new byte[] {1, 2, 3};
+        final AtomicInteger requests = new AtomicInteger();
+        final HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            if (!exchange.getRequestURI().getPath().endsWith(".jar")) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        try {
+            final File cacheDir = folder.newFolder();
+            final LauncherConfig config = new LauncherConfig();
+            config.setCacheDirectory(cacheDir);
+            config.setRepositoryUrls(
+                    new String[] {"http://localhost:" + server.getAddress().getPort() + "/repo"});
+            config.setDownloader(new HttpDownloader(new DownloadScheduler(2, 0, 1, 0), 1, 5000));
+            final ArtifactId id = ArtifactId.fromMvnId("g:a:1");
+
+            try (ArtifactResolver resolver = new ArtifactResolver(Mockito.mock(ArtifactManager.class), config)) {
+                final Path file = Paths.get(resolver.getArtifactFile(id).toURI());
+                final ArtifactValidator validator =
+                        new ArtifactValidator(resolver, config, LoggerFactory.getLogger(getClass()));
+                validator.validate(Collections.singletonList(id));
+                assertEquals(1, validator.getChecked());
+                assertEquals(0, validator.getQuarantined());
+
+                // truncated file
+                Files.write(file, new byte[] {1});
+                validator.validate(Collections.singletonList(id));
+                assertEquals(1, validator.getQuarantined());
+                assertEquals(2, requests.get());
+                assertArrayEquals(
+                        body,
+                        Files.readAllBytes(
+                                Paths.get(resolver.getArtifactFile(id).toURI())));
+                final File quarantine = new File(config.getCacheMetadataDirectory(), ArtifactValidator.QUARANTINE_DIR);
+                assertEquals(1, new File(quarantine, "g/a/1").list().length);
+
+                // same size, different contents
+                config.setCacheValidation(ArtifactValidator.Level.SIZE);
+                Files.write(file, new byte[] {3, 2, 1});
+                validator.validate(Collections.singletonList(id));
+                assertEquals(1, validator.getQuarantined());
+                config.setCacheValidation(ArtifactValidator.Level.DIGEST);
+                validator.validate(Collections.singletonList(id));
+                assertEquals(2, validator.getQuarantined());
+                assertEquals(3, requests.get());
+                assertArrayEquals(body, Files.readAllBytes(file));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testLocalRepositoryIsNotQuarantined() throws Exception {
+        final File repository = folder.newFolder("repository");
+        final Path file = repository.toPath().resolve("g/a/1/a-1.jar");
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[] {1, 2, 3});
+
+        final LauncherConfig config = new LauncherConfig();
+        config.setCacheDirectory(folder.newFolder("cache"));
+        config.setRepositoryUrls(new String[] {repository.toURI().toString()});
+        final ArtifactId id = ArtifactId.fromMvnId("g:a:1");
+
+        try (ArtifactResolver resolver = new ArtifactResolver(Mockito.mock(ArtifactManager.class), config)) {
+            final URL url = resolver.getArtifactFile(id);
+            assertEquals(file.toUri().toURL(), url);
+            Files.write(file, new byte[] {1});
+            try {
+                new ArtifactValidator(resolver, config, LoggerFactory.getLogger(getClass()))
+                        .validate(Collections.singletonList(id));
+                fail();
+            } catch (final IOException expected) {
+                assertTrue(expected.getMessage().contains("local repository"));
+            }
+            assertTrue(Files.exists(file));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BlobStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ArtifactHandler write(final Path file, final byte[] contents) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, contents);
+        return new ArtifactHandler("mvn:" + file.getFileName(), file.toUri().toURL());
+    }
+
+    @Test
+    public void testDeduplication() throws Exception {
+        final Path cacheDir = folder.newFolder("cache").toPath();
+        final Path storeDir = folder.newFolder("store").toPath();
+        final byte[] contents = new byte[] {1, 2, 3};
+
+        final BlobStore store = BlobStore.load(storeDir);
+        final ArtifactHandler a =
+                store.put("g/a/1/a-1.jar", write(cacheDir.resolve("g/a/1/a-1.jar"), contents), cacheDir);
+        final ArtifactHandler b =
+                store.put("g/b/1/b-1.jar", write(cacheDir.resolve("g/b/1/b-1.jar"), contents), cacheDir);
+
+        assertEquals(a.getLocalURL(), b.getLocalURL());
+        assertEquals(1, store.getStored());
+        assertEquals(1, store.getDeduplicated());
+        final Path blob = new File(a.getLocalURL().toURI()).toPath();
+        // the cache keeps hard links to the blob
+        assertTrue(Files.isSameFile(blob, cacheDir.resolve("g/a/1/a-1.jar")));
+        assertTrue(Files.isSameFile(blob, cacheDir.resolve("g/b/1/b-1.jar")));
+        assertTrue(blob.startsWith(storeDir.resolve(BlobStore.DIRECTORY)));
+        assertTrue(blob.getFileName().toString().endsWith(".jar"));
+        assertArrayEquals(contents, Files.readAllBytes(blob));
+        assertEquals(
+                BlobStore.getDigest(blob),
+                Checksums.toHex(Checksums.newDigest("SHA-256").digest(contents)));
+
+        // files outside of the cache directory are not touched
+        final ArtifactHandler local = write(folder.getRoot().toPath().resolve("repo/g/c/1/c-1.jar"), contents);
+        assertSame(local, store.put("g/c/1/c-1.jar", local, cacheDir));
+        assertFalse(store.contains("g/c/1/c-1.jar"));
+
+        store.save();
+
+        // the index is shared by all launchers using the store
+        final BlobStore other = BlobStore.load(storeDir);
+        assertTrue(other.contains("g/b/1/b-1.jar"));
+        assertEquals(a.getLocalURL(), other.get("mvn:g/a/1", "g/a/1/a-1.jar").getLocalURL());
+        assertEquals(1, other.getHits());
+
+        // a removed blob is not served
+        Files.delete(blob);
+        assertNull(other.get("mvn:g/a/1", "g/a/1/a-1.jar"));
+    }
+
+    @Test
+    public void testFindBeforeIndexIsSaved() throws Exception {
+        final Path cacheDir = folder.newFolder("cache").toPath();
+        final Path storeDir = folder.newFolder("store").toPath();
+        final BlobStore store = BlobStore.load(storeDir);
+        final BlobStore other = BlobStore.load(storeDir);
+
+        final Path file = cacheDir.resolve("g/a/1/a-1.jar");
+        final ArtifactHandler a = store.put("g/a/1/a-1.jar", write(file, new byte[] {1}), cacheDir);
+        assertNull(other.get("mvn:g/a/1", "g/a/1/a-1.jar"));
+
+        // on a different file system only the digest file is left in the cache
+        Files.delete(file);
+        Checksums.writeDigest(file, BlobStore.getDigest(new File(a.getLocalURL().toURI()).toPath()));
+        assertEquals(
+                a.getLocalURL(),
+                other.find("mvn:g/a/1", "g/a/1/a-1.jar", cacheDir).getLocalURL());
+        assertTrue(other.contains("g/a/1/a-1.jar"));
+        assertNull(other.find("mvn:g/b/1", "g/b/1/b-1.jar", cacheDir));
+    }
+}
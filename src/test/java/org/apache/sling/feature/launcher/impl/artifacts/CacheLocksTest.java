@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CacheLocksTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLock() throws Exception {
+        final CacheLocks locks = CacheLocks.get(folder.getRoot().toPath());
+        assertSame(locks, CacheLocks.get(folder.getRoot().toPath()));
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> other;
+            try (CacheLocks.Lock lock = locks.lock("g/a/1/a-1.jar")) {
+                // the lock is reentrant
+                locks.lock("g/a/1/a-1.jar").close();
+
+                other = executor.submit(() -> {
+                    try (CacheLocks.Lock l = locks.lock("g/a/1/a-1.jar")) {
+                        return null;
+                    }
+                });
+                try {
+                    other.get(200, TimeUnit.MILLISECONDS);
+                    fail();
+                } catch (final TimeoutException expected) {
+                    // still locked
+                }
+            }
+            other.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue(folder.getRoot()
+                .toPath()
+                .resolve(CacheLocks.DIRECTORY)
+                .resolve(CacheLocks.getStripe("g/a/1/a-1.jar") + ".lock")
+                .toFile()
+                .isFile());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.sling.feature.ArtifactId;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+public class CacheManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        final Path a = folder.newFile("a-1.jar").toPath();
+        Files.write(a, new byte[] {1, 2, 3});
+        final File archive = folder.newFile("archive.far");
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(archive))) {
+            zos.putNextEntry(new ZipEntry("g/b/1/b-1.jar"));
+            zos.write(new byte[] {1, 2, 3, 4});
+            zos.closeEntry();
+        }
+
+        final Map<ArtifactId, URL> artifacts = new LinkedHashMap<>();
+        artifacts.put(ArtifactId.fromMvnId("g:a:1"), a.toUri().toURL());
+        artifacts.put(ArtifactId.fromMvnId("g:b:1"), new URL("jar:" + archive.toURI() + "!/g/b/1/b-1.jar"));
+        final List<CacheManifest.Item> items = CacheManifest.create(artifacts, 2);
+        assertEquals(3, items.get(0).getSize());
+        assertEquals(Checksums.computeDigest(a), items.get(0).getDigest());
+        assertEquals(4, items.get(1).getSize());
+
+        final Path file = folder.getRoot().toPath().resolve(CacheManifest.FILE_NAME);
+        CacheManifest.write(file, items);
+        final List<CacheManifest.Item> read = CacheManifest.read(file);
+        assertEquals(2, read.size());
+        assertEquals(ArtifactId.fromMvnId("g:b:1"), read.get(1).getId());
+        assertEquals(4, read.get(1).getSize());
+        assertEquals(items.get(1).getDigest(), read.get(1).getDigest());
+        assertEquals(artifacts.get(ArtifactId.fromMvnId("g:b:1")), read.get(1).getUrl());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CacheUsageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Path write(final File cacheDir, final String path, final int size, final long lastModified)
+            throws Exception {
+        final Path file = cacheDir.toPath().resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[size]);
+        file.toFile().setLastModified(lastModified);
+        return file;
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        final File cacheDir = folder.newFolder("cache");
+        final File metadataDir = new File(cacheDir, ".launcher");
+        final Path a = write(cacheDir, "g/a/1/a-1.jar", 100, 1000);
+        write(cacheDir, "g/a/1/a-1.jar.sha256", 64, 1000);
+        final Path b = write(cacheDir, "g/b/1/b-1.jar", 100, 2000);
+        final Path c = write(cacheDir, "g/c/1/c-1.jar", 100, 3000);
+        write(metadataDir, "resolution.index", 1000, 1000);
+
+        final CacheUsage usage = CacheUsage.load(cacheDir, metadataDir);
+        final List<CacheUsage.Item> items = usage.scan();
+        assertEquals(3, items.size());
+        assertEquals("g/a/1/a-1.jar", items.get(0).getPath());
+        assertEquals(164, items.get(0).getSize());
+
+        // a is the least recently used artifact but needed by the launch
+        usage.touch(new ArtifactHandler("mvn:g/a/1", a.toUri().toURL()));
+        final List<CacheUsage.Item> evicted = usage.evict(270, CacheLocks.get(metadataDir.toPath()));
+        assertEquals(1, evicted.size());
+        assertEquals("g/b/1/b-1.jar", evicted.get(0).getPath());
+        assertTrue(Files.exists(a));
+        assertFalse(Files.exists(b));
+        assertTrue(Files.exists(c));
+        assertTrue(new File(metadataDir, "resolution.index").exists());
+        usage.save();
+
+        // the access time is kept
+        final List<CacheUsage.Item> reloaded =
+                CacheUsage.load(cacheDir, metadataDir).scan();
+        assertEquals("g/c/1/c-1.jar", reloaded.get(0).getPath());
+        assertEquals("g/a/1/a-1.jar", reloaded.get(1).getPath());
+    }
+
+    @Test
+    public void testLinkedFilesAreNotEvicted() throws Exception {
+        final File cacheDir = folder.newFolder("cache");
+        final File metadataDir = new File(cacheDir, ".launcher");
+        final Path blob = write(folder.newFolder("store"), "blob", 100, 1000);
+        final Path a = cacheDir.toPath().resolve("g/a/1/a-1.jar");
+        Files.createDirectories(a.getParent());
+        Files.createLink(a, blob);
+        final Path b = write(cacheDir, "g/b/1/b-1.jar", 100, 2000);
+
+        final CacheUsage usage = CacheUsage.load(cacheDir, metadataDir);
+        assertTrue(usage.scan().get(0).isLinked());
+        assertFalse(usage.scan().get(1).isLinked());
+
+        // removing the link frees no space, only the other artifact counts
+        assertTrue(usage.evict(100, CacheLocks.get(metadataDir.toPath())).isEmpty());
+        final List<CacheUsage.Item> evicted = usage.evict(0, CacheLocks.get(metadataDir.toPath()));
+        assertEquals(1, evicted.size());
+        assertEquals("g/b/1/b-1.jar", evicted.get(0).getPath());
+        assertTrue(Files.exists(a));
+        assertFalse(Files.exists(b));
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        final File cacheDir = folder.newFolder("cache");
+        final File metadataDir = new File(cacheDir, ".launcher");
+        final Path stale = write(cacheDir, "g/a/1/a-1.jar.1234.tmp", 10, 1000);
+        final Path recent = write(cacheDir, "g/b/1/b-1.jar.1234.tmp", 10, System.currentTimeMillis());
+
+        assertEquals(1, CacheUsage.load(cacheDir, metadataDir).compact());
+        assertFalse(Files.exists(stale));
+        assertFalse(Files.exists(stale.getParent()));
+        assertTrue(Files.exists(recent));
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DownloadSchedulerTest {
+
+    private static final String REPO = "https://repo.example.org/maven2";
+
+    @Test
+    public void testRetryTransientFailure() throws Exception {
+        final DownloadScheduler scheduler = new DownloadScheduler(4, 3, 1, 0);
+        final URL url = new URL(REPO + "/g/a/1/a-1.jar");
+        final AtomicInteger attempts = new AtomicInteger();
+        final String result = scheduler.execute(url, 1000, timeout -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new DownloadScheduler.StatusException(url, 503, -1);
+            }
+            return "ok";
+        });
+        assertEquals("ok", result);
+        assertEquals(3, attempts.get());
+        assertFalse(scheduler.hasFailed(url.toString()));
+
+        final DownloadScheduler.Statistic stat = scheduler.getStatistics().get("https://repo.example.org");
+        assertEquals(3, stat.getRequests());
+        assertEquals(2, stat.getRetries());
+        assertEquals(2, stat.getFailures());
+    }
+
+    @Test
+    public void testRetriesExhausted() throws Exception {
+        final DownloadScheduler scheduler = new DownloadScheduler(4, 2, 1, 0);
+        final URL url = new URL(REPO + "/g/a/1/a-1.jar");
+        final AtomicInteger attempts = new AtomicInteger();
+        try {
+            scheduler.execute(url, 1000, timeout -> {
+                attempts.incrementAndGet();
+                throw new SocketException("connection reset");
+            });
+            fail();
+        } catch (final IOException expected) {
+            assertEquals("connection reset", expected.getMessage());
+        }
+        assertEquals(3, attempts.get());
+        assertTrue(scheduler.hasFailed(url.toString()));
+    }
+
+    @Test
+    public void testPermanentFailureIsNotRetried() throws Exception {
+        final DownloadScheduler scheduler = new DownloadScheduler(4, 3, 1, 0);
+        final URL url = new URL(REPO + "/g/a/1/a-1.jar");
+        final AtomicInteger attempts = new AtomicInteger();
+        try {
+            scheduler.execute(url, 1000, timeout -> {
+                attempts.incrementAndGet();
+                throw new DownloadScheduler.StatusException(url, 403, -1);
+            });
+            fail();
+        } catch (final DownloadScheduler.StatusException expected) {
+            assertEquals(403, expected.getStatus());
+        }
+        assertEquals(1, attempts.get());
+        assertFalse(scheduler.hasFailed(url.toString()));
+    }
+
+    @Test
+    public void testUnreachableRepositoryIsNotRetried() throws Exception {
+        final DownloadScheduler scheduler = new DownloadScheduler(4, 3, 1, 0);
+        final URL url = new URL(REPO + "/g/a/1/a-1.jar");
+        final AtomicInteger attempts = new AtomicInteger();
+        for (final IOException failure :
+                new IOException[] {new UnknownHostException("repo.example.org"), new ConnectException("refused")}) {
+            try {
+                scheduler.execute(url, 1000, timeout -> {
+                    attempts.incrementAndGet();
+                    throw failure;
+                });
+                fail();
+            } catch (final IOException expected) {
+                assertEquals(failure, expected);
+            }
+        }
+        assertEquals(2, attempts.get());
+        // the repository did not answer, the artifact must not be remembered as missing
+        assertTrue(scheduler.hasFailed(url.toString()));
+
+        attempts.set(0);
+        try {
+            scheduler.execute(url, 1000, timeout -> {
+                attempts.incrementAndGet();
+                throw new IOException("Checksum mismatch");
+            });
+            fail();
+        } catch (final IOException expected) {
+            assertEquals(1, attempts.get());
+        }
+    }
+
+    @Test
+    public void testConcurrencyLimitPerRepository() throws Exception {
+        final DownloadScheduler scheduler = new DownloadScheduler(2, 0, 1, 0);
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger max = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                final URL url = new URL(REPO + "/g/a/" + i + "/a-" + i + ".jar");
+                futures.add(executor.submit(() -> scheduler.execute(url, 1000, timeout -> {
+                    max.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(10);
+                    } catch (final InterruptedException e) {
+                        throw new InterruptedIOException();
+                    } finally {
+                        active.decrementAndGet();
+                    }
+                    return true;
+                })));
+            }
+            for (final Future<Boolean> f : futures) {
+                assertTrue(f.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, max.get());
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        final DownloadScheduler scheduler = new DownloadScheduler(4, 3, 1, 1);
+        Thread.sleep(10);
+        try {
+            scheduler.checkDeadline();
+            fail();
+        } catch (final InterruptedIOException expected) {
+            // expected
+        }
+        final AtomicInteger attempts = new AtomicInteger();
+        try {
+            scheduler.execute(new URL(REPO + "/g/a/1/a-1.jar"), 1000, timeout -> attempts.incrementAndGet());
+            fail();
+        } catch (final InterruptedIOException expected) {
+            // expected
+        }
+        assertEquals(0, attempts.get());
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.sling.feature.io.artifacts.ArtifactManagerConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HttpArtifactProviderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+
+    private final Map<String, byte[]> contents = new ConcurrentHashMap<>();
+
+    private final Set<InetSocketAddress> clients = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final AtomicInteger unavailable = new AtomicInteger();
+
+    private String repository;
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            clients.add(exchange.getRemoteAddress());
+            final byte[] body = contents.get(exchange.getRequestURI().getPath());
+            if (unavailable.getAndDecrement() > 0) {
+                exchange.getResponseHeaders().add("Retry-After", "0");
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            } else if (body == null) {
+                final byte[] notFound = "not found".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(404, notFound.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(notFound);
+                }
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        repository = "http://localhost:" + server.getAddress().getPort() + "/repo";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private HttpArtifactProvider newProvider(final ArtifactManagerConfig config) throws Exception {
+        final HttpArtifactProvider provider = new HttpArtifactProvider();
+        provider.init(config);
+        return provider;
+    }
+
+    @Test
+    public void testDownloadIntoCache() throws Exception {
+        final byte[] body = new byte[3 * HttpDownloader.BUFFER_SIZE + 17];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        contents.put("/repo/g/a/1/a-1.jar", body);
+
+        final File cacheDir = folder.newFolder();
+        final ArtifactManagerConfig config = new ArtifactManagerConfig();
+        config.setCacheDirectory(cacheDir);
+        final HttpArtifactProvider provider = newProvider(config);
+
+        final URL url = provider.getArtifact(repository + "/g/a/1/a-1.jar", "g/a/1/a-1.jar");
+        assertEquals(new File(cacheDir, "g/a/1/a-1.jar").toURI().toURL(), url);
+        assertArrayEquals(body, Files.readAllBytes(Paths.get(url.toURI())));
+        assertEquals(1, config.getDownloadedArtifacts());
+        // only the published file and its digest are left in the cache
+        assertEquals(2, new File(cacheDir, "g/a/1").list().length);
+        assertEquals(
+                Checksums.toHex(Checksums.newDigest("SHA-256").digest(body)),
+                Checksums.readDigest(Paths.get(url.toURI())));
+
+        // second lookup is served from the cache
+        assertEquals(url, provider.getArtifact(repository + "/g/a/1/a-1.jar", "g/a/1/a-1.jar"));
+        // artifact and the checksum files
+        assertEquals(3, requests.get());
+        assertEquals(1, config.getCachedArtifacts());
+        provider.shutdown();
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        final File cacheDir = folder.newFolder();
+        final ArtifactManagerConfig config = new ArtifactManagerConfig();
+        config.setCacheDirectory(cacheDir);
+        final HttpArtifactProvider provider = newProvider(config);
+
+        assertNull(provider.getArtifact(repository + "/g/a/1/a-1.jar", "g/a/1/a-1.jar"));
+        assertEquals(0, config.getDownloadedArtifacts());
+        assertEquals(0, cacheDir.list().length);
+        provider.shutdown();
+    }
+
+    @Test
+    public void testConnectionReuse() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            contents.put("/repo/g/a/" + i + "/a-" + i + ".jar", ("artifact " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        final ArtifactManagerConfig config = new ArtifactManagerConfig();
+        config.setCacheDirectory(folder.newFolder());
+        final HttpArtifactProvider provider = newProvider(config);
+
+        for (int i = 0; i < 10; i++) {
+            final String path = "g/a/" + i + "/a-" + i + ".jar";
+            provider.getArtifact(repository + "/" + path, path);
+            // not found responses must not close the connection either
+            provider.getArtifact(repository + "/missing/" + path, "missing/" + path);
+        }
+        assertEquals(10, config.getDownloadedArtifacts());
+        assertEquals(40, requests.get());
+        assertEquals(1, clients.size());
+        provider.shutdown();
+    }
+
+    @Test
+    public void testRetryUnavailableRepository() throws Exception {
+        contents.put("/repo/g/a/1/a-1.jar", "artifact".getBytes(StandardCharsets.UTF_8));
+        unavailable.set(2);
+
+        final ArtifactManagerConfig config = new ArtifactManagerConfig();
+        config.setCacheDirectory(folder.newFolder());
+        final HttpDownloader downloader = new HttpDownloader(new DownloadScheduler(2, 2, 1, 0), 1, 5000);
+        final HttpArtifactProvider provider = new HttpArtifactProvider("http", downloader);
+        provider.init(config);
+
+        final URL url = provider.getArtifact(repository + "/g/a/1/a-1.jar", "g/a/1/a-1.jar");
+        assertEquals("artifact", new String(Files.readAllBytes(Paths.get(url.toURI())), StandardCharsets.UTF_8));
+        assertEquals(5, requests.get());
+
+        final DownloadScheduler.Statistic stat = downloader
+                .getScheduler()
+                .getStatistics()
+                .get("http://localhost:" + server.getAddress().getPort());
+        assertEquals(3, stat.getRequests());
+        assertEquals(2, stat.getRetries());
+        assertEquals(8, stat.getBytes());
+        provider.shutdown();
+    }
+
+    @Test
+    public void testVerifyChecksum() throws Exception {
+        final byte[] body = "artifact".getBytes(StandardCharsets.UTF_8);
+        contents.put("/repo/g/a/1/a-1.jar", body);
+        contents.put(
+                "/repo/g/a/1/a-1.jar.sha1",
+                Checksums.toHex(Checksums.newDigest("SHA-1").digest(body)).getBytes(StandardCharsets.US_ASCII));
+        contents.put("/repo/g/a/2/a-2.jar", body);
+        contents.put(
+                "/repo/g/a/2/a-2.jar.sha256",
+                (Checksums.toHex(Checksums.newDigest("SHA-256").digest(body)) + "  a-2.jar")
+                        .getBytes(StandardCharsets.US_ASCII));
+        contents.put("/repo/g/a/3/a-3.jar", body);
+        contents.put("/repo/g/a/3/a-3.jar.sha1", "0000000000000000000000000000000000000000".getBytes());
+
+        final File cacheDir = folder.newFolder();
+        final ArtifactManagerConfig config = new ArtifactManagerConfig();
+        config.setCacheDirectory(cacheDir);
+        final HttpDownloader downloader = new HttpDownloader(new DownloadScheduler(2, 1, 1, 0), 1, 5000);
+        final HttpArtifactProvider provider = new HttpArtifactProvider("http", downloader);
+        provider.init(config);
+
+        assertEquals(
+                new File(cacheDir, "g/a/1/a-1.jar").toURI().toURL(),
+                provider.getArtifact(repository + "/g/a/1/a-1.jar", "g/a/1/a-1.jar"));
+        assertEquals(
+                new File(cacheDir, "g/a/2/a-2.jar").toURI().toURL(),
+                provider.getArtifact(repository + "/g/a/2/a-2.jar", "g/a/2/a-2.jar"));
+
+        // a mismatch is not retried and the artifact is never published
+        requests.set(0);
+        assertNull(provider.getArtifact(repository + "/g/a/3/a-3.jar", "g/a/3/a-3.jar"));
+        assertEquals(2, requests.get());
+        assertEquals(0, new File(cacheDir, "g/a/3").list().length);
+        assertEquals(2, config.getDownloadedArtifacts());
+        provider.shutdown();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class LocalizerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCloneCommand() {
+        assertArrayEquals(new String[] {"cp", "--reflink=always"}, Localizer.getCloneCommand("Linux"));
+        assertArrayEquals(new String[] {"cp", "-c"}, Localizer.getCloneCommand("Mac OS X"));
+        assertNull(Localizer.getCloneCommand("Windows 10"));
+    }
+
+    @Test
+    public void testLocalize() throws Exception {
+        final Path source = folder.newFile("a-1.jar").toPath();
+        Files.write(source, new byte[] {1, 2, 3});
+        final Path cacheDir = folder.newFolder("cache").toPath();
+        final Path target = cacheDir.resolve("g/a/1/a-1.jar");
+
+        final Localizer localizer = new Localizer(null);
+        assertEquals(Localizer.Strategy.HARDLINK, localizer.localize(source, target));
+        assertArrayEquals(new byte[] {1, 2, 3}, Files.readAllBytes(target));
+        assertEquals(1, target.getParent().toFile().list().length);
+        assertEquals(Long.valueOf(1), localizer.getCounts().get(Localizer.Strategy.HARDLINK));
+
+        // the strategy is recorded in the index
+        final ResolutionIndex index = ResolutionIndex.load(folder.newFolder("index"));
+        index.put(
+                "g/a/1/a-1.jar", new ArtifactHandler("mvn:g/a/1", target.toUri().toURL()), Localizer.Strategy.HARDLINK);
+        index.save();
+        assertEquals(
+                Localizer.Strategy.HARDLINK,
+                ResolutionIndex.load(new File(folder.getRoot(), "index"))
+                        .getEntry("g/a/1/a-1.jar")
+                        .getLocalization());
+    }
+}
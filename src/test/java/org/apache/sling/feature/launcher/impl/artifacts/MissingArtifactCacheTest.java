@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MissingArtifactCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPersistedMissingArtifacts() throws Exception {
+        final File dir = folder.newFolder();
+        final MissingArtifactCache cache = MissingArtifactCache.load(dir, 60_000);
+        assertFalse(cache.isMissing("https://repo", "g/a/1/a-1.jar"));
+        cache.add("https://repo", "g/a/1/a-1.jar");
+        assertTrue(cache.isMissing("https://repo", "g/a/1/a-1.jar"));
+        assertFalse(cache.isMissing("https://other", "g/a/1/a-1.jar"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        cache.save();
+
+        final MissingArtifactCache reloaded = MissingArtifactCache.load(dir, 60_000);
+        assertTrue(reloaded.isMissing("https://repo", "g/a/1/a-1.jar"));
+        reloaded.remove("g/a/1/a-1.jar");
+        assertFalse(reloaded.isMissing("https://repo", "g/a/1/a-1.jar"));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        final File dir = folder.newFolder();
+        final MissingArtifactCache cache = MissingArtifactCache.load(dir, 0);
+        cache.add("https://repo", "g/a/1/a-1.jar");
+        assertFalse(cache.isMissing("https://repo", "g/a/1/a-1.jar"));
+        cache.save();
+        assertFalse(new File(dir, MissingArtifactCache.FILE_NAME).exists());
+    }
+}
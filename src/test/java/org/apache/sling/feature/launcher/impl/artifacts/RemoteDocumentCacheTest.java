@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+import org.apache.sling.feature.io.artifacts.ArtifactManagerConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+public class RemoteDocumentCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+
+    private volatile String document = "{\"id\":\"g:feature:1\"}";
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    private String url;
+
+    private final HttpDownloader downloader = new HttpDownloader(new DownloadScheduler(2, 0, 1, 0), 1, 5000);
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            if (!exchange.getRequestURI().getPath().equals("/feature.json")) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            final byte[] body = document.getBytes(StandardCharsets.UTF_8);
+            final String etag = "\"" + Integer.toHexString(document.hashCode()) + "\"";
+            exchange.getResponseHeaders().add("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        url = "http://localhost:" + server.getAddress().getPort() + "/feature.json";
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    private static String read(final ArtifactHandler handler) throws Exception {
+        return new String(Files.readAllBytes(Paths.get(handler.getLocalURL().toURI())), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRevalidate() throws Exception {
+        final File dir = folder.newFolder();
+        final ArtifactManagerConfig config = new ArtifactManagerConfig();
+
+        final RemoteDocumentCache cache = RemoteDocumentCache.load(dir, 0);
+        assertEquals(document, read(cache.get(url, downloader, config)));
+        assertEquals(1, cache.getDownloads());
+        cache.save();
+
+        // a new launch revalidates the cached copy
+        final RemoteDocumentCache reloaded = RemoteDocumentCache.load(dir, 0);
+        requests.set(0);
+        assertEquals(document, read(reloaded.get(url, downloader, config)));
+        assertEquals(1, requests.get());
+        assertEquals(1, notModified.get());
+        assertEquals(1, reloaded.getRevalidations());
+        assertEquals(1, config.getDownloadedArtifacts());
+        assertEquals(1, config.getCachedArtifacts());
+
+        // a modified document is downloaded again
+        document = "{\"id\":\"g:feature:2\"}";
+        assertEquals(document, read(reloaded.get(url, downloader, config)));
+        assertEquals(1, reloaded.getDownloads());
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        final File dir = folder.newFolder();
+        final ArtifactManagerConfig config = new ArtifactManagerConfig();
+
+        final RemoteDocumentCache cache = RemoteDocumentCache.load(dir, 60_000);
+        final ArtifactHandler handler = cache.get(url, downloader, config);
+        cache.save();
+
+        requests.set(0);
+        final RemoteDocumentCache reloaded = RemoteDocumentCache.load(dir, 60_000);
+        assertEquals(
+                handler.getLocalURL(), reloaded.get(url, downloader, config).getLocalURL());
+        assertEquals(0, requests.get());
+        assertEquals(1, reloaded.getHits());
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+
+public class RepositoryStatisticsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String[] REPOSITORIES = {"https://slow", "file:///local", "https://fast", "https://other"};
+
+    @Test
+    public void testOrder() throws Exception {
+        final File dir = folder.newFolder();
+        final RepositoryStatistics stats = RepositoryStatistics.load(dir);
+        stats.record("https://slow", "g", true, 1000);
+        stats.record("https://fast", "g", true, 10);
+        stats.record("https://other", "g", false, 100);
+
+        assertEquals(
+                Arrays.asList("file:///local", "https://fast", "https://slow", "https://other"),
+                stats.order(REPOSITORIES, null));
+
+        // the repository a group was last found in comes first
+        stats.record("https://slow", "org.slow", true, 1000);
+        assertEquals(
+                Arrays.asList("file:///local", "https://slow", "https://fast", "https://other"),
+                stats.order(REPOSITORIES, "org.slow"));
+
+        stats.save();
+        final RepositoryStatistics reloaded = RepositoryStatistics.load(dir);
+        assertEquals(stats.order(REPOSITORIES, "org.slow"), reloaded.order(REPOSITORIES, "org.slow"));
+        assertEquals(2, reloaded.get("https://slow").getRequests());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.apache.sling.feature.io.artifacts.ArtifactHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ResolutionIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPersistAndRevalidate() throws Exception {
+        final File dir = folder.newFolder("index");
+        final File artifact = folder.newFile("a-1.jar");
+        Files.write(artifact.toPath(), new byte[] {1, 2, 3});
+        final String digest = Checksums.toHex(Checksums.newDigest("SHA-256").digest(new byte[] {1, 2, 3}));
+        Checksums.writeDigest(artifact.toPath(), digest);
+
+        final ResolutionIndex index = ResolutionIndex.load(dir);
+        assertNull(index.get("g/a/1/a-1.jar"));
+        index.put(
+                "g/a/1/a-1.jar",
+                new ArtifactHandler(
+                        "https://repo/g/a/1/a-1.jar", artifact.toURI().toURL()));
+        index.save();
+
+        final ResolutionIndex reloaded = ResolutionIndex.load(dir);
+        final ArtifactHandler handler = reloaded.get("g/a/1/a-1.jar");
+        assertNotNull(handler);
+        assertEquals("https://repo/g/a/1/a-1.jar", handler.getUrl());
+        assertEquals(artifact.toURI().toURL(), handler.getLocalURL());
+        assertEquals(1, reloaded.getHits());
+        assertEquals(digest, reloaded.getEntry("g/a/1/a-1.jar").getDigest());
+
+        // changing the file invalidates the entry
+        Files.write(artifact.toPath(), new byte[] {1, 2, 3, 4});
+        assertNull(reloaded.get("g/a/1/a-1.jar"));
+        assertNull(reloaded.getEntry("g/a/1/a-1.jar"));
+    }
+
+    @Test
+    public void testConcurrentLaunchers() throws Exception {
+        final File dir = folder.newFolder("index");
+        final File a = folder.newFile("a-1.jar");
+        final File b = folder.newFile("b-1.jar");
+        final ResolutionIndex first = ResolutionIndex.load(dir);
+        final ResolutionIndex second = ResolutionIndex.load(dir);
+
+        // launchers sharing the cache keep the entries of each other
+        first.put("g/a/1/a-1.jar", new ArtifactHandler("mvn:g/a/1", a.toURI().toURL()));
+        second.put("g/b/1/b-1.jar", new ArtifactHandler("mvn:g/b/1", b.toURI().toURL()));
+        first.save();
+        second.save();
+        ResolutionIndex reloaded = ResolutionIndex.load(dir);
+        assertNotNull(reloaded.get("g/a/1/a-1.jar"));
+        assertNotNull(reloaded.get("g/b/1/b-1.jar"));
+
+        // removed entries are not merged back
+        second.remove("g/a/1/a-1.jar");
+        second.save();
+        reloaded = ResolutionIndex.load(dir);
+        assertNull(reloaded.getEntry("g/a/1/a-1.jar"));
+        assertNotNull(reloaded.getEntry("g/b/1/b-1.jar"));
+    }
+
+    @Test
+    public void testIndexPath() {
+        assertEquals("g/a/1/a-1.jar", ArtifactResolver.getMvnPath("mvn:g/a/1"));
+        assertEquals("g/a/1/a-1.jar", ArtifactResolver.getMvnPath(":g/a/1/a-1.jar"));
+        assertTrue(ArtifactResolver.isSnapshot(ArtifactResolver.getMvnPath("mvn:g/a/1-SNAPSHOT")));
+        assertNull(ArtifactResolver.getMvnPath("https://repo/feature.json"));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.feature.launcher.impl.artifacts;
+
+import java.util.Calendar;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SnapshotPolicyTest {
+
+    @Test
+    public void testParse() {
+        assertSame(SnapshotPolicy.ALWAYS, SnapshotPolicy.parse("always"));
+        assertSame(SnapshotPolicy.DAILY, SnapshotPolicy.parse("Daily"));
+        assertSame(SnapshotPolicy.NEVER, SnapshotPolicy.parse("never"));
+        assertEquals("interval:30", SnapshotPolicy.parse("interval:30").toString());
+        try {
+            SnapshotPolicy.parse("interval:x");
+            fail();
+        } catch (final IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testIsUpToDate() {
+        final Calendar cal = Calendar.getInstance();
+        cal.set(2026, Calendar.MARCH, 10, 12, 0, 0);
+        final long now = cal.getTimeInMillis();
+
+        assertFalse(SnapshotPolicy.ALWAYS.isUpToDate(now, now));
+        assertTrue(SnapshotPolicy.NEVER.isUpToDate(0, now));
+
+        final SnapshotPolicy interval = SnapshotPolicy.parse("interval:30");
+        assertTrue(interval.isUpToDate(now - 29 * 60_000, now));
+        assertFalse(interval.isUpToDate(now - 31 * 60_000, now));
+
+        // daily means checked since midnight
+        assertTrue(SnapshotPolicy.DAILY.isUpToDate(now - 11 * 3_600_000, now));
+        assertFalse(SnapshotPolicy.DAILY.isUpToDate(now - 13 * 3_600_000, now));
+    }
+}